@@ -0,0 +1,34 @@
+package com.cloudkitchens.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Order;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * Shared fixtures for the JMH benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Turn off all logging; the storage engine logs every operation, which would dominate the measurement.
+     */
+    static void disableLogging() {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+    }
+
+    /**
+     * A new order with the mix's temperature and a freshness between 30 and 330 seconds.
+     */
+    static Order newOrder(long sequence, OrderMix mix, Random random) {
+        return new Order("o" + sequence, "bench", mix.next(random), 1.0, 30 + random.nextInt(300));
+    }
+}
@@ -0,0 +1,69 @@
+package com.cloudkitchens.benchmark;
+
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.storage.DiscardStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiscardStrategy selection cost on a shelf holding shelfSize orders of the given temperature mix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscardStrategyBench {
+
+    @Param({"12", "100", "1000", "10000", "100000"})
+    public int shelfSize;
+
+    @Param({"BALANCED", "HOT_HEAVY", "ROOM_ONLY"})
+    public OrderMix mix;
+
+    private DiscardStrategy discardStrategy;
+    private Random random;
+    private long timestampMicros;
+    private long sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.disableLogging();
+        discardStrategy = new DiscardStrategy();
+        random = new Random(42);
+        timestampMicros = 100_000_000;
+        for (int i = 0; i < shelfSize; i++) {
+            // Placed at random times during the last 100 seconds
+            long placedAtMicros = random.nextInt(100_000) * 1_000L;
+            discardStrategy.addOrder(new StorageLocation(BenchmarkSupport.newOrder(sequence++, mix, random),
+                                                         StorageType.SHELF, placedAtMicros));
+        }
+    }
+
+    @Benchmark
+    public StorageLocation findBestOrderToDiscard() {
+        return discardStrategy.findBestOrderToDiscard(timestampMicros);
+    }
+
+    @Benchmark
+    public StorageLocation findOrderToMoveFromShelf() {
+        return discardStrategy.findOrderToMoveFromShelf(StorageType.HEATER, timestampMicros);
+    }
+
+    /**
+     * Full shelf turnover: discard the least fresh order and place a new one in its slot.
+     */
+    @Benchmark
+    public StorageLocation discardAndReplace() {
+        timestampMicros += 1_000;
+        StorageLocation discarded = discardStrategy.findBestOrderToDiscard(timestampMicros);
+        discardStrategy.removeOrder(discarded);
+        discardStrategy.addOrder(new StorageLocation(BenchmarkSupport.newOrder(sequence++, mix, random),
+                                                     StorageType.SHELF, timestampMicros));
+        return discarded;
+    }
+}
@@ -0,0 +1,75 @@
+package com.cloudkitchens.benchmark;
+
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.storage.FreshnessCalculator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreshnessCalculator cost over locationCount orders of the given temperature mix, spread across
+ * all storage types and placed so that roughly half have spoiled.
+ * Single-location benchmarks report time per call; batch benchmarks report time per pass over all locations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreshnessCalculatorBench {
+    private static final long NOW_MICROS = 300_000_000;
+
+    @Param({"12", "1000", "100000"})
+    public int locationCount;
+
+    @Param({"BALANCED", "HOT_HEAVY", "ROOM_ONLY"})
+    public OrderMix mix;
+
+    private List<StorageLocation> locations;
+    private double[] values;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        locations = new ArrayList<>(locationCount);
+        for (int i = 0; i < locationCount; i++) {
+            StorageType storageType = StorageType.values()[random.nextInt(StorageType.values().length)];
+            long placedAtMicros = random.nextInt(300) * 1_000_000L;
+            locations.add(new StorageLocation(BenchmarkSupport.newOrder(i, mix, random), storageType, placedAtMicros));
+        }
+        values = new double[locationCount];
+    }
+
+    @Benchmark
+    public double calculateFreshnessValue() {
+        return FreshnessCalculator.calculateFreshnessValue(nextLocation(), NOW_MICROS);
+    }
+
+    @Benchmark
+    public boolean isSpoiled() {
+        return FreshnessCalculator.isSpoiled(nextLocation(), NOW_MICROS);
+    }
+
+    @Benchmark
+    public double[] calculateFreshnessValues() {
+        FreshnessCalculator.calculateFreshnessValues(locations, NOW_MICROS, values);
+        return values;
+    }
+
+    @Benchmark
+    public int countSpoiled() {
+        return FreshnessCalculator.countSpoiled(locations, NOW_MICROS);
+    }
+
+    private StorageLocation nextLocation() {
+        StorageLocation location = locations.get(cursor);
+        cursor = cursor + 1 == locationCount ? 0 : cursor + 1;
+        return location;
+    }
+}
@@ -0,0 +1,38 @@
+package com.cloudkitchens.benchmark;
+
+import com.cloudkitchens.model.Temperature;
+
+import java.util.Random;
+
+/**
+ * Proportion of hot, cold and room temperature orders in a benchmark workload.
+ */
+public enum OrderMix {
+    BALANCED(1, 1, 1),
+    HOT_HEAVY(4, 1, 1),
+    ROOM_ONLY(0, 0, 1);
+
+    private final int hotWeight;
+    private final int coldWeight;
+    private final int roomWeight;
+
+    OrderMix(int hotWeight, int coldWeight, int roomWeight) {
+        this.hotWeight = hotWeight;
+        this.coldWeight = coldWeight;
+        this.roomWeight = roomWeight;
+    }
+
+    /**
+     * Draw a temperature according to this mix's weights.
+     */
+    public Temperature next(Random random) {
+        int pick = random.nextInt(hotWeight + coldWeight + roomWeight);
+        if (pick < hotWeight) {
+            return Temperature.HOT;
+        }
+        if (pick < hotWeight + coldWeight) {
+            return Temperature.COLD;
+        }
+        return Temperature.ROOM;
+    }
+}
@@ -0,0 +1,130 @@
+package com.cloudkitchens.benchmark;
+
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.StorageManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StorageManager placeOrder, pickupOrder and moveOrder latency.
+ * Before measuring, historyOrders orders are placed and picked up without compaction, so the
+ * occupancy timelines and placement history start at that size; mix sets the temperature split.
+ * Placement and pickup are timed together: each invocation places a batch and picks it up again, so
+ * storage is back to empty without per-invocation fixtures, whose overhead would swamp the operations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageManagerBench {
+    // Orders per invocation; always fits in empty storage, even when every order is room temperature
+    private static final int BATCH = 12;
+    // Orders in the pool the batches are taken from, in turn
+    private static final int POOL_BATCHES = 100;
+    private static final String MOVED_ORDER_ID = "moved";
+
+    @State(Scope.Thread)
+    public static class Storage {
+        @Param({"0", "10000", "100000"})
+        public int historyOrders;
+
+        @Param({"BALANCED", "HOT_HEAVY", "ROOM_ONLY"})
+        public OrderMix mix;
+
+        StorageManager storageManager;
+        Random random;
+        private long timestampMicros;
+        long sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            BenchmarkSupport.disableLogging();
+            storageManager = new StorageManager();
+            random = new Random(42);
+            timestampMicros = 1_000_000;
+            for (int i = 0; i < historyOrders; i++) {
+                Order order = nextOrder();
+                storageManager.placeOrder(order, tick());
+                storageManager.pickupOrder(order.getId(), tick());
+            }
+        }
+
+        Order nextOrder() {
+            return BenchmarkSupport.newOrder(sequence++, mix, random);
+        }
+
+        long tick() {
+            timestampMicros += 1_000;
+            return timestampMicros;
+        }
+    }
+
+    /**
+     * Orders for the batches, made afresh before each iteration. The pool keeps the same order ids from one
+     * iteration to the next, so measuring does not add to the placement history.
+     */
+    @State(Scope.Thread)
+    public static class OrderPool {
+        final Order[] orders = new Order[BATCH * POOL_BATCHES];
+        private long firstSequence = -1;
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void fill(Storage storage) {
+            if (firstSequence < 0) {
+                firstSequence = storage.sequence;
+                storage.sequence += orders.length;
+            }
+            for (int i = 0; i < orders.length; i++) {
+                orders[i] = BenchmarkSupport.newOrder(firstSequence + i, storage.mix, storage.random);
+            }
+            next = 0;
+        }
+
+        /**
+         * @return the index in orders of the next batch
+         */
+        int nextBatch() {
+            int batch = next;
+            next = (next + BATCH) % orders.length;
+            return batch;
+        }
+    }
+
+    /**
+     * A hot order sitting in the heater that the benchmark moves to the shelf and back.
+     */
+    @State(Scope.Thread)
+    public static class MovedOrder {
+        @Setup(Level.Trial)
+        public void place(Storage storage) {
+            Order order = new Order(MOVED_ORDER_ID, "bench", Temperature.HOT, 1.0, 300);
+            storage.storageManager.placeOrder(order, storage.tick());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * BATCH)
+    public void placeAndPickupOrder(Storage storage, OrderPool pool, Blackhole blackhole) {
+        int batch = pool.nextBatch();
+        for (int i = batch; i < batch + BATCH; i++) {
+            blackhole.consume(storage.storageManager.placeOrder(pool.orders[i], storage.tick()));
+        }
+        for (int i = batch; i < batch + BATCH; i++) {
+            blackhole.consume(storage.storageManager.pickupOrder(pool.orders[i].getId(), storage.tick()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void moveOrder(Storage storage, MovedOrder moved, Blackhole blackhole) {
+        blackhole.consume(storage.storageManager.moveOrder(MOVED_ORDER_ID, StorageType.SHELF, storage.tick()));
+        blackhole.consume(storage.storageManager.moveOrder(MOVED_ORDER_ID, StorageType.HEATER, storage.tick()));
+    }
+}
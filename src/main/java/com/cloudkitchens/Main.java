@@ -2,19 +2,42 @@ package com.cloudkitchens;
 
 import com.cloudkitchens.api.ChallengeApiClient;
 import com.cloudkitchens.api.ProblemResult;
+import com.cloudkitchens.api.ProblemStream;
+import com.cloudkitchens.api.dto.ChallengeAction;
 import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
 import com.cloudkitchens.model.Order;
+import com.cloudkitchens.server.LocalChallengeServer;
+import com.cloudkitchens.service.ActionLedger;
+import com.cloudkitchens.service.ExecutionMode;
+import com.cloudkitchens.service.KitchenClock;
 import com.cloudkitchens.service.KitchenService;
+import com.cloudkitchens.service.LedgerView;
+import com.cloudkitchens.service.SimulatedClock;
+import com.cloudkitchens.service.SystemClock;
+import com.cloudkitchens.storage.DecisionJournal;
+import com.cloudkitchens.storage.RecoveredStorage;
+import com.cloudkitchens.storage.StorageManager;
+import com.cloudkitchens.storage.WriteAheadLog;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Main execution harness for the Cloud Kitchens fulfillment system.
@@ -47,24 +70,44 @@ public class Main {
         String saveTestFile = null;
         String loadTestFile = null;
         boolean skipSubmission = false;
+        ExecutionMode executionMode = ExecutionMode.THREAD_POOL;
+        boolean simulate = false;
+        String ledgerDir = null;
+        String journalFile = null;
+        String walFile = null;
+        String checkpointFile = null;
+        boolean streamOrders = false;
+        boolean localServer = false;
         
         // Check if using --load-test format
         if (args.length > 0 && args[0].equals("--load-test")) {
             if (args.length < 3) {
-                System.err.println("Usage: java -jar fulfillment-system.jar --load-test <file> <auth_token> [--skip-submission]");
+                System.err.println("Usage: java -jar fulfillment-system.jar --load-test <file> <auth_token> [--skip-submission] [--single-writer] [--simulate] [--ledger-dir <dir>] [--journal <file>] [--wal <file>] [--checkpoint <file>]");
                 System.exit(1);
             }
             loadTestFile = args[1];
             authToken = args[2];
-            // Check for --skip-submission flag
+            // Check for --skip-submission, --single-writer, --simulate, --ledger-dir, --journal, --wal and --checkpoint flags
             for (int j = 3; j < args.length; j++) {
                 if (args[j].equals("--skip-submission")) {
                     skipSubmission = true;
-                    break;
+                } else if (args[j].equals("--single-writer")) {
+                    executionMode = ExecutionMode.SINGLE_WRITER;
+                } else if (args[j].equals("--simulate")) {
+                    simulate = true;
+                } else if (args[j].equals("--ledger-dir") && j + 1 < args.length) {
+                    ledgerDir = args[++j];
+                } else if (args[j].equals("--journal") && j + 1 < args.length) {
+                    journalFile = args[++j];
+                } else if (args[j].equals("--wal") && j + 1 < args.length) {
+                    walFile = args[++j];
+                } else if (args[j].equals("--checkpoint") && j + 1 < args.length) {
+                    checkpointFile = args[++j];
                 }
             }
         } else {
-            // First pass: extract flags (--save-test, --skip-submission)
+            // First pass: extract flags (--save-test, --skip-submission, --single-writer, --simulate, --ledger-dir, --journal, --wal,
+            // --checkpoint, --stream-orders, --local-server)
             List<String> positionalArgs = new ArrayList<>();
             int i = 0;
             while (i < args.length) {
@@ -72,6 +115,22 @@ public class Main {
                     saveTestFile = args[++i]; // Skip both flag and value
                 } else if (args[i].equals("--skip-submission")) {
                     skipSubmission = true; // Skip submission flag
+                } else if (args[i].equals("--single-writer")) {
+                    executionMode = ExecutionMode.SINGLE_WRITER;
+                } else if (args[i].equals("--simulate")) {
+                    simulate = true;
+                } else if (args[i].equals("--ledger-dir") && i + 1 < args.length) {
+                    ledgerDir = args[++i];
+                } else if (args[i].equals("--journal") && i + 1 < args.length) {
+                    journalFile = args[++i];
+                } else if (args[i].equals("--wal") && i + 1 < args.length) {
+                    walFile = args[++i];
+                } else if (args[i].equals("--checkpoint") && i + 1 < args.length) {
+                    checkpointFile = args[++i];
+                } else if (args[i].equals("--stream-orders")) {
+                    streamOrders = true;
+                } else if (args[i].equals("--local-server")) {
+                    localServer = true;
                 } else {
                     positionalArgs.add(args[i]);
                 }
@@ -97,30 +156,122 @@ public class Main {
         }
         
         if (authToken == null && loadTestFile == null) {
-            System.err.println("Usage: java -jar fulfillment-system.jar <auth_token> [rate_ms] [min_pickup_ms] [max_pickup_ms] [seed] [--save-test <file>] [--skip-submission]");
-            System.err.println("   OR: java -jar fulfillment-system.jar --load-test <file> <auth_token> [--skip-submission]");
+            System.err.println("Usage: java -jar fulfillment-system.jar <auth_token> [rate_ms] [min_pickup_ms] [max_pickup_ms] [seed] [--save-test <file>] [--skip-submission] [--single-writer] [--simulate] [--ledger-dir <dir>] [--journal <file>] [--wal <file>] [--checkpoint <file>] [--stream-orders] [--local-server]");
+            System.err.println("   OR: java -jar fulfillment-system.jar --load-test <file> <auth_token> [--skip-submission] [--single-writer] [--simulate] [--ledger-dir <dir>] [--journal <file>] [--wal <file>] [--checkpoint <file>]");
             System.err.println("  auth_token: Authentication token for the challenge server");
             System.err.println("  rate_ms: Order placement rate in milliseconds (default: 500)");
             System.err.println("  min_pickup_ms: Minimum pickup time in milliseconds (default: 4000)");
             System.err.println("  max_pickup_ms: Maximum pickup time in milliseconds (default: 8000)");
-            System.err.println("  seed: Optional seed for reproducible test problems");
+            System.err.println("  seed: Optional seed for reproducible test problems and pickup times");
             System.err.println("  --save-test <file>: Save test data to JSON file");
             System.err.println("  --load-test <file>: Load test data from JSON file (requires auth_token for submission)");
             System.err.println("  --skip-submission: Skip submitting to server (useful for debugging saved tests)");
+            System.err.println("  --single-writer: Run all storage operations on one dedicated event-loop thread");
+            System.err.println("  --simulate: Replay on a virtual clock as fast as possible instead of in real time");
+            System.err.println("  --ledger-dir <dir>: Keep the action ledger in memory-mapped files in this directory instead of on the heap");
+            System.err.println("  --journal <file>: Record every storage decision in a binary journal, read with DecisionJournalReader");
+            System.err.println("  --wal <file>: Log every storage change; if the file exists, rebuild storage and the ledger from it and resume");
+            System.err.println("  --checkpoint <file>: With --wal, checkpoint storage and the ledger every 10s, so resuming replays only the log since");
+            System.err.println("  --stream-orders: Start placing fetched orders as they are parsed instead of after the whole response");
+            System.err.println("  --local-server: Fetch from and submit to an embedded challenge server instead of the real one");
             System.exit(1);
         }
         
         logger.info("Starting Cloud Kitchens Fulfillment System");
-        logger.info("Configuration: rate={}μs, pickup={}-{}μs, seed={}", 
-                   rateMicros, minPickupMicros, maxPickupMicros, seed);
+        logger.info("Configuration: rate={}μs, pickup={}-{}μs, seed={}, mode={}, clock={}, ledger={}", 
+                   rateMicros, minPickupMicros, maxPickupMicros, seed, executionMode, simulate ? "simulated" : "system",
+                   ledgerDir != null ? ledgerDir : "heap");
         
-        KitchenService kitchenService = new KitchenService();
-        ChallengeApiClient apiClient = authToken != null ? new ChallengeApiClient(authToken) : null;
+        ActionLedger actionLedger;
+        try {
+            actionLedger = ledgerDir != null ? ActionLedger.mapped(Paths.get(ledgerDir)) : new ActionLedger();
+        } catch (IOException e) {
+            logger.error("Failed to create action ledger in {}", ledgerDir, e);
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        
+        DecisionJournal decisionJournal = null;
+        if (journalFile != null) {
+            try {
+                decisionJournal = DecisionJournal.create(Paths.get(journalFile));
+            } catch (IOException e) {
+                logger.error("Failed to create decision journal {}", journalFile, e);
+                System.err.println("ERROR: " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        
+        if (checkpointFile != null && walFile == null) {
+            System.err.println("ERROR: --checkpoint needs --wal");
+            System.exit(1);
+            return;
+        }
+        
+        StorageManager storageManager;
+        List<Action> recoveredActions = new ArrayList<>();
+        try {
+            Path wal = walFile != null ? Paths.get(walFile) : null;
+            Path checkpoint = checkpointFile != null ? Paths.get(checkpointFile) : null;
+            if (wal != null && Files.exists(wal) && Files.size(wal) > 0) {
+                // Resume a run that stopped: storage and the ledger so far come back from the checkpoint and the log
+                RecoveredStorage recovered = StorageManager.recover(wal, checkpoint,
+                                                                    StorageManager.DEFAULT_RETENTION_MICROS,
+                                                                    decisionJournal, true);
+                logger.info("Recovered from write-ahead log {}: {}", walFile, recovered);
+                storageManager = recovered.getStorageManager();
+                recoveredActions = recovered.getActions();
+                for (Action action : recoveredActions) {
+                    actionLedger.record(action);
+                }
+            } else {
+                if (checkpoint != null) {
+                    // A checkpoint of an earlier run does not belong to the new log
+                    Files.deleteIfExists(checkpoint);
+                }
+                storageManager = new StorageManager(StorageManager.DEFAULT_RETENTION_MICROS, decisionJournal,
+                                                    wal != null ? WriteAheadLog.create(wal, true) : null);
+            }
+        } catch (IOException e) {
+            logger.error("Failed to open write-ahead log {}", walFile, e);
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        
+        Random pickupRandom = new Random();
+        KitchenClock clock = simulate ? new SimulatedClock(System.currentTimeMillis() * 1000) : new SystemClock();
+        KitchenService kitchenService = new KitchenService(executionMode, clock, pickupRandom, actionLedger,
+                                                           storageManager,
+                                                           KitchenService.DEFAULT_COMPACTION_INTERVAL_MILLIS,
+                                                           checkpointFile != null ? Paths.get(checkpointFile) : null,
+                                                           KitchenService.DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+        LocalChallengeServer challengeServer = null;
+        if (localServer) {
+            // Keep-alive responses from the JDK server otherwise wait out the client's delayed ACK (~40 ms)
+            if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+                System.setProperty("sun.net.httpserver.nodelay", "true");
+            }
+            try {
+                challengeServer = new LocalChallengeServer();
+            } catch (IOException e) {
+                System.err.println("ERROR: Failed to start local challenge server: " + e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        ChallengeApiClient apiClient = authToken == null ? null
+            : challengeServer != null ? new ChallengeApiClient(authToken, challengeServer.getBaseUrl(), false)
+            : new ChallengeApiClient(authToken);
+        ProblemStream problemStream = null;
         
         try {
             ProblemResult problemResult;
             String testId;
             List<Order> orders;
+            Iterator<Order> orderSource;
             
             // Load test data from file if specified
             if (loadTestFile != null) {
@@ -133,6 +284,14 @@ public class Main {
                 maxPickupMicros = testData.getMaxPickupMicros();
                 seed = testData.getSeed();
                 logger.info("Loaded test ID: {}, {} orders", testId, orders.size());
+                orderSource = orders.iterator();
+            } else if (streamOrders) {
+                // Place orders while the rest of the response is still being read
+                logger.info("Streaming orders from challenge server...");
+                problemStream = apiClient.streamNewProblem(seed);
+                testId = problemStream.getTestId();
+                orders = saveTestFile != null ? new ArrayList<>() : null;
+                orderSource = orders != null ? recording(problemStream, orders) : problemStream;
             } else {
                 // Fetch orders from challenge server
                 logger.info("Fetching orders from challenge server...");
@@ -140,6 +299,7 @@ public class Main {
                 testId = problemResult.getTestId();
                 orders = problemResult.getOrders();
                 logger.info("Received {} orders to process", orders.size());
+                orderSource = orders.iterator();
                 
                 // Save test data if requested
                 if (saveTestFile != null) {
@@ -149,8 +309,48 @@ public class Main {
                 }
             }
             
+            // Seed pickup delays from the problem seed so runs with the same seed produce the same ledger
+            if (seed != null) {
+                pickupRandom.setSeed(seed);
+            }
+            
+            // After recovery, pick up where the logged run stopped
+            List<CompletableFuture<Void>> resumedPickups = new ArrayList<>();
+            if (!recoveredActions.isEmpty()) {
+                Set<String> placed = new HashSet<>();
+                for (Action action : recoveredActions) {
+                    if (action.getActionType() == ActionType.PLACE) {
+                        placed.add(action.getOrderId());
+                    }
+                }
+                if (orders != null && !orders.stream().map(Order::getId).collect(Collectors.toSet()).containsAll(placed)) {
+                    throw new IllegalStateException("Write-ahead log " + walFile + " is from a different test than " +
+                                                    testId + "; resume with --load-test of the same test");
+                }
+                logger.info("Skipping {} orders placed before the restart", placed.size());
+                orderSource = skipping(orderSource, placed);
+                resumedPickups = kitchenService.resumePickups(minPickupMicros, maxPickupMicros);
+            }
+            
+            // The order list is known up front unless streamed: give storage every id before the first placement
+            if (orders != null && (loadTestFile != null || !streamOrders)) {
+                kitchenService.registerOrders(orders);
+            }
+            
             // Process orders
-            processOrders(kitchenService, orders, rateMicros, minPickupMicros, maxPickupMicros);
+            processOrders(kitchenService, orderSource, rateMicros, minPickupMicros, maxPickupMicros, resumedPickups);
+            
+            // Keep the ledger with the saved test so it can be scored offline
+            List<ChallengeAction> ledgerActions = null;
+            if (saveTestFile != null || loadTestFile != null) {
+                ledgerActions = toChallengeActions(kitchenService.getActionLedger());
+            }
+            if (saveTestFile != null && loadTestFile == null) {
+                logger.info("Saving test data with the ledger to: {}", saveTestFile);
+                TestData testData = new TestData(testId, orders, rateMicros, minPickupMicros, maxPickupMicros, seed);
+                testData.setActions(ledgerActions);
+                saveTestData(testData, saveTestFile);
+            }
             
             // Submit solution (skip if flag is set)
             String result;
@@ -166,11 +366,15 @@ public class Main {
                 logger.info("Challenge result: {}", result);
             }
             
+            if (apiClient != null) {
+                logger.info("HTTP transport: {}", apiClient.getTransport().getStats());
+            }
+            
             System.out.println("RESULT: " + result);
             
             // Update saved test data with result if loading from file
             if (loadTestFile != null) {
-                updateTestResult(loadTestFile, result);
+                updateTestResult(loadTestFile, result, ledgerActions);
             }
             
         } catch (IOException e) {
@@ -182,7 +386,17 @@ public class Main {
             System.err.println("ERROR: " + e.getMessage());
             System.exit(1);
         } finally {
+            if (problemStream != null) {
+                try {
+                    problemStream.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close order stream", e);
+                }
+            }
             kitchenService.shutdown();
+            if (challengeServer != null) {
+                challengeServer.close();
+            }
         }
     }
     
@@ -202,30 +416,113 @@ public class Main {
     }
     
     /**
-     * Update the result in a saved test file.
+     * Update the result and ledger in a saved test file.
      */
-    private static void updateTestResult(String filename, String result) {
+    private static void updateTestResult(String filename, String result, List<ChallengeAction> actions) {
         try {
             TestData testData = loadTestData(filename);
             testData.setResult(result);
+            testData.setActions(actions);
             saveTestData(testData, filename);
         } catch (IOException e) {
             logger.warn("Failed to update test result in file: {}", filename, e);
         }
     }
     
-    private static void processOrders(KitchenService kitchenService, List<Order> orders, 
-                                    long rateMicros, long minPickupMicros, long maxPickupMicros) {
+    private static List<ChallengeAction> toChallengeActions(LedgerView ledger) {
+        List<ChallengeAction> actions = new ArrayList<>(ledger.size());
+        for (int i = 0; i < ledger.size(); i++) {
+            actions.add(new ChallengeAction(ledger.getTimestampMicros(i), ledger.getOrderId(i),
+                                            ledger.getActionType(i).getValue(), ledger.getTarget(i).getValue()));
+        }
+        return actions;
+    }
+    
+    /**
+     * Iterate orders as they are handed over, collecting each into the given list.
+     */
+    private static Iterator<Order> recording(Iterator<Order> orders, List<Order> received) {
+        return new Iterator<Order>() {
+            @Override
+            public boolean hasNext() {
+                return orders.hasNext();
+            }
+            
+            @Override
+            public Order next() {
+                Order order = orders.next();
+                received.add(order);
+                return order;
+            }
+        };
+    }
+    
+    /**
+     * Iterate orders, leaving out those with the given ids.
+     */
+    private static Iterator<Order> skipping(Iterator<Order> orders, Set<String> skippedIds) {
+        return new Iterator<Order>() {
+            private Order next = advance();
+            
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+            
+            @Override
+            public Order next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Order order = next;
+                next = advance();
+                return order;
+            }
+            
+            private Order advance() {
+                while (orders.hasNext()) {
+                    Order order = orders.next();
+                    if (!skippedIds.contains(order.getId())) {
+                        return order;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+    
+    /**
+     * Place orders at the configured rate as the iterator yields them, which may block while a streamed
+     * response is still arriving. The schedule starts when the first order is available.
+     *
+     * @param resumedPickups pickups already scheduled for orders placed before a restart, waited for as well
+     */
+    private static void processOrders(KitchenService kitchenService, Iterator<Order> orders, 
+                                    long rateMicros, long minPickupMicros, long maxPickupMicros,
+                                    List<CompletableFuture<Void>> resumedPickups) {
         logger.info("Starting order processing...");
         
-        long startTime = System.currentTimeMillis() * 1000;
-        List<CompletableFuture<Void>> pickupFutures = new java.util.ArrayList<>();
+        KitchenClock clock = kitchenService.getClock();
+        long startTime = 0;
+        List<CompletableFuture<Void>> pickupFutures = new java.util.ArrayList<>(resumedPickups);
         
-        for (int i = 0; i < orders.size(); i++) {
-            Order order = orders.get(i);
+        for (int i = 0; orders.hasNext(); i++) {
+            Order order = orders.next();
+            if (i == 0) {
+                startTime = clock.nowMicros();
+            }
             
             long placementTime = startTime + (i * rateMicros);
             
+            // Wait for the placement time; pickups due by then run first
+            try {
+                clock.sleepUntil(placementTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Order placement interrupted", e);
+                break;
+            }
+            
             logger.info("Placing order {} at time {}", order.getId(), placementTime);
             CompletableFuture<Action> placeFuture = kitchenService.placeOrderAsync(order, placementTime);
             
@@ -241,19 +538,13 @@ public class Main {
             CompletableFuture<Void> pickupFuture = kitchenService.schedulePickup(
                 order.getId(), placementTime, minPickupMicros, maxPickupMicros);
             pickupFutures.add(pickupFuture);
-            
-            if (i < orders.size() - 1) {
-                try {
-                    Thread.sleep(rateMicros / 1000);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.error("Order placement interrupted", e);
-                    break;
-                }
-            }
         }
         
-        logger.info("All orders placed, waiting for pickups to complete...");
+        logger.info("All {} orders placed, waiting for pickups to complete...", pickupFutures.size());
+        if (clock instanceof SimulatedClock) {
+            // Virtual time does not advance on its own, so run the remaining pickups now
+            ((SimulatedClock) clock).runUntilIdle();
+        }
         
         CompletableFuture<Void> allPickups = CompletableFuture.allOf(
             pickupFutures.toArray(new CompletableFuture[0]));
@@ -271,16 +562,22 @@ public class Main {
         logger.info("Final storage status: {}", storageStatus);
         
         // Log action summary
-        List<Action> actions = kitchenService.getActionLedger();
+        LedgerView actions = kitchenService.getActionLedger();
         logger.info("Total actions recorded: {}", actions.size());
         
-        // Count actions by type
-        long placeCount = actions.stream().mapToLong(a -> a.getActionType().getValue().equals("place") ? 1 : 0).sum();
-        long pickupCount = actions.stream().mapToLong(a -> a.getActionType().getValue().equals("pickup") ? 1 : 0).sum();
-        long moveCount = actions.stream().mapToLong(a -> a.getActionType().getValue().equals("move") ? 1 : 0).sum();
-        long discardCount = actions.stream().mapToLong(a -> a.getActionType().getValue().equals("discard") ? 1 : 0).sum();
+        // Count actions by type, reading the column directly rather than building Action objects
+        long[] counts = new long[ActionType.values().length];
+        for (int i = 0; i < actions.size(); i++) {
+            counts[actions.getActionType(i).ordinal()]++;
+        }
         
         logger.info("Action summary: place={}, pickup={}, move={}, discard={}", 
-                   placeCount, pickupCount, moveCount, discardCount);
+                   counts[ActionType.PLACE.ordinal()], counts[ActionType.PICKUP.ordinal()],
+                   counts[ActionType.MOVE.ordinal()], counts[ActionType.DISCARD.ordinal()]);
+        logger.info("Action ledger: {}", kitchenService.getLedgerFootprint());
+        
+        if (clock instanceof SystemClock) {
+            logger.info("Pickup timer: {}", ((SystemClock) clock).getTimerStats());
+        }
     }
 }
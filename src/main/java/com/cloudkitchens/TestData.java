@@ -1,6 +1,8 @@
 package com.cloudkitchens;
 
+import com.cloudkitchens.api.dto.ChallengeAction;
 import com.cloudkitchens.model.Order;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.List;
@@ -35,6 +37,11 @@ public class TestData {
     
     @JsonProperty("rerun_timestamp")
     private String rerunTimestamp;
+    
+    // Ledger of the last run, so it can be scored offline; absent in files saved before it was recorded
+    @JsonProperty("actions")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<ChallengeAction> actions;
 
     // Default constructor for Jackson
     public TestData() {}
@@ -121,4 +128,12 @@ public class TestData {
     public void setRerunTimestamp(String rerunTimestamp) {
         this.rerunTimestamp = rerunTimestamp;
     }
+
+    public List<ChallengeAction> getActions() {
+        return actions;
+    }
+
+    public void setActions(List<ChallengeAction> actions) {
+        this.actions = actions;
+    }
 }
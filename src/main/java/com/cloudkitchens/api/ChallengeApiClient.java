@@ -1,22 +1,25 @@
 package com.cloudkitchens.api;
 
-import com.cloudkitchens.api.dto.ChallengeRequest;
+import com.cloudkitchens.api.dto.ChallengeOptions;
 import com.cloudkitchens.model.Action;
 import com.cloudkitchens.model.Order;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.List;
 
 /**
@@ -25,18 +28,47 @@ import java.util.List;
 public class ChallengeApiClient {
     private static final Logger logger = LoggerFactory.getLogger(ChallengeApiClient.class);
     
-    private static final String BASE_URL = "https://api.cloudkitchens.com/interview/challenge";
+    private static final String DEFAULT_BASE_URL = "https://api.cloudkitchens.com/interview/challenge";
     
-    private final HttpClient httpClient;
+    private final HttpTransport transport;
     private final ObjectMapper objectMapper;
     private final String authToken;
+    private final URI baseUri;
+    private final String basePath;
+    private final boolean gzipSubmissions;
     
     public ChallengeApiClient(String authToken) {
+        this(authToken, DEFAULT_BASE_URL, false);
+    }
+    
+    /**
+     * @param baseUrl challenge server URL that /new and /solve are relative to
+     * @param gzipSubmissions whether to gzip solution bodies (sent with Content-Encoding: gzip)
+     */
+    public ChallengeApiClient(String authToken, String baseUrl, boolean gzipSubmissions) {
+        this(authToken, baseUrl, gzipSubmissions, HttpTransport.shared());
+    }
+    
+    /**
+     * @param transport connection pool to send requests through, which may be shared with other clients
+     */
+    public ChallengeApiClient(String authToken, String baseUrl, boolean gzipSubmissions, HttpTransport transport) {
         this.authToken = authToken;
-        this.httpClient = HttpClients.createDefault();
+        this.baseUri = URI.create(baseUrl);
+        if (baseUri.getHost() == null) {
+            throw new IllegalArgumentException("No host in challenge server URL: " + baseUrl);
+        }
+        String path = baseUri.getPath() == null ? "" : baseUri.getPath();
+        this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        this.gzipSubmissions = gzipSubmissions;
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
     }
     
+    public HttpTransport getTransport() {
+        return transport;
+    }
+    
     /**
      * Fetch a new problem from the challenge server.
      * 
@@ -45,35 +77,10 @@ public class ChallengeApiClient {
      * @throws IOException if communication fails
      */
     public ProblemResult fetchNewProblem(Long seed) throws IOException {
-        String url = BASE_URL + "/new?auth=" + authToken;
-        if (seed != null) {
-            url += "&seed=" + seed;
-        }
+        HttpGet request = new HttpGet(newProblemUri(seed));
         
-        logger.info("Fetching new problem from: {}", url);
-        
-        HttpGet request = new HttpGet(url);
-        
-        try {
-            HttpResponse response = httpClient.execute(request);
-            int statusCode = response.getStatusLine().getStatusCode();
-            
-            if (statusCode != 200) {
-                String responseBody = EntityUtils.toString(response.getEntity());
-                if (statusCode == 401) {
-                    throw new IOException("Authentication failed (HTTP 401). Please check that you provided a valid auth_token as the first argument. " +
-                                        "Usage: <auth_token> [rate_ms] [min_pickup_ms] [max_pickup_ms] [seed]");
-                }
-                throw new IOException("Failed to fetch problem: HTTP " + statusCode + " - " + responseBody);
-            }
-            
-            // Extract test ID from headers for later use
-            String testId = response.getFirstHeader("x-test-id") != null ? 
-                          response.getFirstHeader("x-test-id").getValue() : null;
-            if (testId == null || testId.isEmpty()) {
-                throw new IOException("No test ID received from server");
-            }
-            logger.info("Received test ID: {}", testId);
+        try (CloseableHttpResponse response = transport.execute(request)) {
+            String testId = checkProblemResponse(response);
             
             String responseBody = EntityUtils.toString(response.getEntity());
             List<Order> orders = objectMapper.readValue(responseBody, new TypeReference<List<Order>>() {});
@@ -89,6 +96,87 @@ public class ChallengeApiClient {
         }
     }
     
+    /**
+     * Fetch a new problem, parsing its orders one at a time as the response arrives rather than after the
+     * last byte, so placement can start with the first order. Close the stream to abandon it early.
+     * 
+     * @param seed Optional seed for reproducible test problems
+     * @throws IOException if the request fails or the response does not start an order array
+     */
+    public ProblemStream streamNewProblem(Long seed) throws IOException {
+        HttpGet request = new HttpGet(newProblemUri(seed));
+        CloseableHttpResponse response = null;
+        
+        try {
+            response = transport.execute(request);
+            String testId = checkProblemResponse(response);
+            
+            JsonParser parser = objectMapper.getFactory().createParser(response.getEntity().getContent());
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of orders, got " + parser.getCurrentToken());
+            }
+            // Once read to the end the connection goes back to the pool; closing the response before then drops
+            // it, so abandoning the stream doesn't read out the rest
+            return new ProblemStream(testId, parser, objectMapper, response);
+            
+        } catch (Exception e) {
+            if (response != null) {
+                response.close();
+            }
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Request failed", e);
+        }
+    }
+    
+    private URI newProblemUri(Long seed) {
+        URIBuilder builder = endpoint("/new");
+        if (seed != null) {
+            builder.addParameter("seed", seed.toString());
+        }
+        URI uri = build(builder);
+        logger.info("Fetching new problem from: {}", uri);
+        return uri;
+    }
+    
+    private URIBuilder endpoint(String path) {
+        return new URIBuilder(baseUri).setPath(basePath + path).addParameter("auth", authToken);
+    }
+    
+    private static URI build(URIBuilder builder) {
+        try {
+            return builder.build();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid challenge server URL", e);
+        }
+    }
+    
+    /**
+     * Fail on an error status, otherwise return the test ID from the headers.
+     */
+    private String checkProblemResponse(HttpResponse response) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        
+        if (statusCode != 200) {
+            String responseBody = EntityUtils.toString(response.getEntity());
+            if (statusCode == 401) {
+                throw new IOException("Authentication failed (HTTP 401). Please check that you provided a valid auth_token as the first argument. " +
+                                    "Usage: <auth_token> [rate_ms] [min_pickup_ms] [max_pickup_ms] [seed]");
+            }
+            throw new IOException("Failed to fetch problem: HTTP " + statusCode + " - " + responseBody);
+        }
+        
+        // Extract test ID from headers for later use
+        String testId = response.getFirstHeader("x-test-id") != null ? 
+                      response.getFirstHeader("x-test-id").getValue() : null;
+        if (testId == null || testId.isEmpty()) {
+            throw new IOException("No test ID received from server");
+        }
+        logger.info("Received test ID: {}", testId);
+        return testId;
+    }
+    
     /**
      * Submit a solution to the challenge server.
      * 
@@ -102,37 +190,20 @@ public class ChallengeApiClient {
      */
     public String submitSolution(String testId, List<Action> actions, 
                                long rateMicros, long minPickupMicros, long maxPickupMicros) throws IOException {
-        String url = BASE_URL + "/solve?auth=" + authToken;
+        URI uri = build(endpoint("/solve"));
         
         logger.info("Submitting solution for test ID: {}", testId);
         logger.info("Submitting {} actions", actions.size());
         
-        // Convert internal Action objects to ChallengeAction DTOs
-        List<com.cloudkitchens.api.dto.ChallengeAction> challengeActions = new java.util.ArrayList<>();
-        for (Action action : actions) {
-            challengeActions.add(new com.cloudkitchens.api.dto.ChallengeAction(
-                    action.getTimestampMicros(),
-                    action.getOrderId(),
-                    action.getActionType().getValue(),
-                    action.getTarget().getValue()
-            ));
-        }
-        
-        com.cloudkitchens.api.dto.ChallengeOptions options = new com.cloudkitchens.api.dto.ChallengeOptions(
-                rateMicros, minPickupMicros, maxPickupMicros
-        );
-        
-        ChallengeRequest request = new ChallengeRequest(options, challengeActions);
+        ChallengeOptions options = new ChallengeOptions(rateMicros, minPickupMicros, maxPickupMicros);
         
-        String requestBody = objectMapper.writeValueAsString(request);
-        
-        HttpPost httpRequest = new HttpPost(url);
+        // Serialize the actions straight into the request as it is sent, instead of building DTOs and a String first
+        HttpPost httpRequest = new HttpPost(uri);
         httpRequest.setHeader("Content-Type", "application/json");
         httpRequest.setHeader("x-test-id", testId);
-        httpRequest.setEntity(new StringEntity(requestBody, "UTF-8"));
+        httpRequest.setEntity(new ChallengeRequestEntity(options, actions, gzipSubmissions));
         
-        try {
-            HttpResponse response = httpClient.execute(httpRequest);
+        try (CloseableHttpResponse response = transport.execute(httpRequest)) {
             int statusCode = response.getStatusLine().getStatusCode();
             
             if (statusCode != 200) {
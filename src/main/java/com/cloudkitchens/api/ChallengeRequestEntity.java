@@ -0,0 +1,96 @@
+package com.cloudkitchens.api;
+
+import com.cloudkitchens.api.dto.ChallengeOptions;
+import com.cloudkitchens.model.Action;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Body of a solution submission, serialized straight from the actions into the connection as it is sent,
+ * optionally gzip-compressed. Nothing proportional to the number of actions is buffered, and the body can be
+ * written again if the request is retried. Matches the JSON of {@link com.cloudkitchens.api.dto.ChallengeRequest}.
+ */
+class ChallengeRequestEntity extends AbstractHttpEntity {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final int GZIP_BUFFER_BYTES = 8192;
+
+    private final ChallengeOptions options;
+    private final List<Action> actions;
+    private final boolean gzip;
+
+    ChallengeRequestEntity(ChallengeOptions options, List<Action> actions, boolean gzip) {
+        this.options = options;
+        this.actions = actions;
+        this.gzip = gzip;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+        if (gzip) {
+            setContentEncoding("gzip");
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Buffers the whole body; HttpClient itself only calls {@link #writeTo(OutputStream)}.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(out, GZIP_BUFFER_BYTES) : null;
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(gzip ? gzipStream : out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("options");
+            generator.writeNumberField("rate", options.getRateMicros());
+            generator.writeNumberField("min", options.getMinPickupMicros());
+            generator.writeNumberField("max", options.getMaxPickupMicros());
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("actions");
+            for (Action action : actions) {
+                generator.writeStartObject();
+                generator.writeNumberField("timestamp", action.getTimestampMicros());
+                generator.writeStringField("id", action.getOrderId());
+                generator.writeStringField("action", action.getActionType().getValue());
+                generator.writeStringField("target", action.getTarget().getValue());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        if (gzipStream != null) {
+            gzipStream.finish();
+        }
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,247 @@
+package com.cloudkitchens.api;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pooled HTTP client with persistent connections, shared by any number of {@link ChallengeApiClient}s.
+ * Records request latency and how long requests wait to lease a connection; see {@link #getStats()}.
+ */
+public class HttpTransport implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(HttpTransport.class);
+
+    // Power-of-two microsecond buckets, as for timer lateness
+    private static final int LATENCY_BUCKETS = 40;
+
+    private final HttpTransportConfig config;
+    private final PoolingHttpClientConnectionManager pool;
+    private final CloseableHttpClient httpClient;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalLatencyMicros = new AtomicLong();
+    private final AtomicLong maxLatencyMicros = new AtomicLong();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong totalLeaseMicros = new AtomicLong();
+    private final AtomicLong maxLeaseMicros = new AtomicLong();
+    private final AtomicLongArray leaseHistogram = new AtomicLongArray(LATENCY_BUCKETS);
+
+    public HttpTransport() {
+        this(new HttpTransportConfig());
+    }
+
+    public HttpTransport(HttpTransportConfig config) {
+        this.config = config;
+        this.pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(config.getMaxConnections());
+        pool.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        for (Map.Entry<String, Integer> limit : config.getRouteLimits().entrySet()) {
+            pool.setMaxPerRoute(route(limit.getKey()), limit.getValue());
+        }
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(config.getConnectTimeoutMillis())
+            .setSocketTimeout(config.getSocketTimeoutMillis())
+            .setConnectionRequestTimeout(config.getLeaseTimeoutMillis())
+            .build();
+        HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(new TimedConnectionManager(pool))
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy(config.getKeepAliveMillis()))
+            .evictExpiredConnections()
+            .evictIdleConnections(config.getKeepAliveMillis(), TimeUnit.MILLISECONDS);
+        if (!config.isContentCompression()) {
+            builder.disableContentCompression();
+        }
+        this.httpClient = builder.build();
+        logger.info("HTTP transport created: {}", config);
+    }
+
+    /**
+     * Transport used by clients that aren't given one; lives as long as the JVM and should not be closed.
+     */
+    public static HttpTransport shared() {
+        return Shared.INSTANCE;
+    }
+
+    public HttpTransportConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Send a request. The response must be closed, or its entity read to the end, to return its connection
+     * to the pool.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        long start = System.nanoTime();
+        try {
+            CloseableHttpResponse response = httpClient.execute(request);
+            record(requests, totalLatencyMicros, maxLatencyMicros, latencyHistogram, start);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public TransportStats getStats() {
+        PoolStats poolStats = pool.getTotalStats();
+        return new TransportStats(requests.get(), failures.get(), totalLatencyMicros.get(), maxLatencyMicros.get(),
+                                  snapshot(latencyHistogram), leases.get(), connectionsOpened.get(),
+                                  totalLeaseMicros.get(), maxLeaseMicros.get(), snapshot(leaseHistogram),
+                                  poolStats.getLeased(), poolStats.getAvailable(), poolStats.getPending());
+    }
+
+    /**
+     * Close the pooled connections; requests in flight fail.
+     */
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private static HttpRoute route(String url) {
+        URI uri = URI.create(url);
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("No host in route URL: " + url);
+        }
+        HttpHost host = new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme());
+        try {
+            // Routes are keyed with the port filled in, so a limit for https://host must name port 443
+            host = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host), host.getSchemeName());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unknown scheme in route URL: " + url, e);
+        }
+        return new HttpRoute(host, null, "https".equalsIgnoreCase(host.getSchemeName()));
+    }
+
+    /**
+     * Honour the server's Keep-Alive timeout, otherwise keep connections for the configured time.
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long keepAliveMillis) {
+        return (response, context) -> {
+            long serverMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverMillis > 0 ? Math.min(serverMillis, keepAliveMillis) : keepAliveMillis;
+        };
+    }
+
+    private static void record(AtomicLong count, AtomicLong total, AtomicLong max, AtomicLongArray histogram,
+                               long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        count.incrementAndGet();
+        total.addAndGet(micros);
+        max.accumulateAndGet(micros, Math::max);
+        histogram.incrementAndGet(Math.min(LATENCY_BUCKETS - 1, micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros)));
+    }
+
+    private static long[] snapshot(AtomicLongArray histogram) {
+        long[] copy = new long[histogram.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = histogram.get(i);
+        }
+        return copy;
+    }
+
+    private static class Shared {
+        static final HttpTransport INSTANCE = new HttpTransport();
+    }
+
+    /**
+     * Times how long each request waits for the pool to hand over a connection, and counts new connections.
+     */
+    private class TimedConnectionManager implements HttpClientConnectionManager {
+        private final HttpClientConnectionManager delegate;
+
+        TimedConnectionManager(HttpClientConnectionManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest request = delegate.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit unit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    HttpClientConnection connection = request.get(timeout, unit);
+                    record(leases, totalLeaseMicros, maxLeaseMicros, leaseHistogram, start);
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(HttpClientConnection connection, Object newState, long validDuration,
+                                      TimeUnit unit) {
+            delegate.releaseConnection(connection, newState, validDuration, unit);
+        }
+
+        @Override
+        public void connect(HttpClientConnection connection, HttpRoute route, int connectTimeout,
+                            HttpContext context) throws IOException {
+            connectionsOpened.incrementAndGet();
+            delegate.connect(connection, route, connectTimeout, context);
+        }
+
+        @Override
+        public void upgrade(HttpClientConnection connection, HttpRoute route, HttpContext context) throws IOException {
+            delegate.upgrade(connection, route, context);
+        }
+
+        @Override
+        public void routeComplete(HttpClientConnection connection, HttpRoute route, HttpContext context)
+                throws IOException {
+            delegate.routeComplete(connection, route, context);
+        }
+
+        @Override
+        public void closeIdleConnections(long idleTime, TimeUnit unit) {
+            delegate.closeIdleConnections(idleTime, unit);
+        }
+
+        @Override
+        public void closeExpiredConnections() {
+            delegate.closeExpiredConnections();
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.cloudkitchens.api;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connection pool, timeout and compression settings for an {@link HttpTransport}.
+ * Timeouts of 0 wait indefinitely.
+ */
+public class HttpTransportConfig {
+    private int maxConnections = 20;
+    private int maxConnectionsPerRoute = 4;
+    private final Map<String, Integer> routeLimits = new LinkedHashMap<>();
+    private int connectTimeoutMillis = 5_000;
+    private int socketTimeoutMillis = 60_000;
+    private int leaseTimeoutMillis = 10_000;
+    private long keepAliveMillis = 30_000;
+    private boolean contentCompression = true;
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = requirePositive("maxConnections", maxConnections);
+    }
+
+    /**
+     * Connections kept per host unless the host has its own limit.
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = requirePositive("maxConnectionsPerRoute", maxConnectionsPerRoute);
+    }
+
+    /**
+     * Per-host connection limits, keyed by a URL of the host such as {@code https://api.example.com}.
+     */
+    public Map<String, Integer> getRouteLimits() {
+        return Collections.unmodifiableMap(routeLimits);
+    }
+
+    public void setMaxConnectionsForRoute(String url, int maxConnections) {
+        routeLimits.put(url, requirePositive("maxConnections", maxConnections));
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = requireNonNegative("connectTimeoutMillis", connectTimeoutMillis);
+    }
+
+    /**
+     * Longest wait for the next bytes of a response once connected.
+     */
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = requireNonNegative("socketTimeoutMillis", socketTimeoutMillis);
+    }
+
+    /**
+     * Longest wait for a pooled connection to become free.
+     */
+    public int getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    public void setLeaseTimeoutMillis(int leaseTimeoutMillis) {
+        this.leaseTimeoutMillis = requireNonNegative("leaseTimeoutMillis", leaseTimeoutMillis);
+    }
+
+    /**
+     * How long an idle connection is kept for reuse when the server doesn't say; idle connections are closed
+     * after this long.
+     */
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    public void setKeepAliveMillis(long keepAliveMillis) {
+        if (keepAliveMillis <= 0) {
+            throw new IllegalArgumentException("keepAliveMillis must be positive: " + keepAliveMillis);
+        }
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * Whether to ask for gzip/deflate responses and decompress them transparently.
+     */
+    public boolean isContentCompression() {
+        return contentCompression;
+    }
+
+    public void setContentCompression(boolean contentCompression) {
+        this.contentCompression = contentCompression;
+    }
+
+    private static int requirePositive(String name, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    private static int requireNonNegative(String name, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative: " + value);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HttpTransportConfig{maxConnections=%d, perRoute=%d, routeLimits=%s, connect=%dms, " +
+                             "socket=%dms, lease=%dms, keepAlive=%dms, compression=%s}",
+                             maxConnections, maxConnectionsPerRoute, routeLimits, connectTimeoutMillis,
+                             socketTimeoutMillis, leaseTimeoutMillis, keepAliveMillis, contentCompression);
+    }
+}
@@ -0,0 +1,148 @@
+package com.cloudkitchens.api;
+
+import com.cloudkitchens.model.Order;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Orders of a new problem, parsed one at a time on a background thread while the response is still arriving.
+ * {@link #hasNext()} blocks until the next order has been decoded or the response has ended; a failed read or
+ * parse is rethrown from it as an {@link UncheckedIOException}. At most {@link #MAX_DECODED_ORDERS} decoded orders
+ * wait to be taken; beyond that the reader stops reading, so the server is held back by TCP flow control and
+ * the orders of a long problem are never all on the heap at once.
+ */
+public class ProblemStream implements Iterator<Order>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ProblemStream.class);
+
+    // Decoded orders waiting to be taken before the reader blocks
+    public static final int MAX_DECODED_ORDERS = 1024;
+
+    // Queued after the last order, or after a failure
+    private static final Object END = new Object();
+
+    private final String testId;
+    private final JsonParser parser;
+    private final ObjectMapper objectMapper;
+    private final Closeable response;
+    private final BlockingQueue<Object> decoded = new ArrayBlockingQueue<>(MAX_DECODED_ORDERS);
+    private final Thread reader;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private Object next;
+    private int received;
+
+    /**
+     * @param parser positioned on the start of the order array
+     * @param response released once the orders have been read
+     */
+    ProblemStream(String testId, JsonParser parser, ObjectMapper objectMapper, Closeable response) {
+        this.testId = testId;
+        this.parser = parser;
+        this.objectMapper = objectMapper;
+        this.response = response;
+        this.reader = new Thread(this::readOrders, "order-stream");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public String getTestId() {
+        return testId;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = decoded.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for orders", e);
+            }
+        }
+        if (next == END) {
+            if (failure != null) {
+                throw new UncheckedIOException("Failed to read orders after " + received + " of them", failure);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Order next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Order order = (Order) next;
+        next = null;
+        received++;
+        return order;
+    }
+
+    /**
+     * Stop reading and release the connection. Orders not yet taken are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // Wakes the reader if it is waiting for room; closing the response ends a blocked read
+        reader.interrupt();
+        response.close();
+    }
+
+    private void readOrders() {
+        int count = 0;
+        try {
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                decoded.put(objectMapper.readValue(parser, Order.class));
+                count++;
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new IOException("Expected an order or the end of the order array, got " + token);
+            }
+            logger.info("Finished streaming {} orders", count);
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            // Only close() interrupts the reader
+        } finally {
+            try {
+                parser.close();
+                response.close();
+            } catch (IOException e) {
+                logger.warn("Failed to release problem response", e);
+            }
+            queueEnd();
+        }
+    }
+
+    /**
+     * Queue the end marker behind the orders still to be taken, or in place of them once the stream is closed.
+     */
+    private void queueEnd() {
+        while (!closed) {
+            try {
+                decoded.put(END);
+                return;
+            } catch (InterruptedException e) {
+                // Closed while waiting for room
+            }
+        }
+        decoded.clear();
+        decoded.offer(END);
+    }
+}
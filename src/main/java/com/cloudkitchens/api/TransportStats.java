@@ -0,0 +1,136 @@
+package com.cloudkitchens.api;
+
+/**
+ * Snapshot of an HTTP transport's requests, connection leases and pool occupancy.
+ * Request latency runs from sending the request until the response headers arrive.
+ */
+public class TransportStats {
+    private final long requests;
+    private final long failures;
+    private final long totalLatencyMicros;
+    private final long maxLatencyMicros;
+    private final long[] latencyHistogram;
+    private final long leases;
+    private final long connectionsOpened;
+    private final long totalLeaseMicros;
+    private final long maxLeaseMicros;
+    private final long[] leaseHistogram;
+    private final int leased;
+    private final int available;
+    private final int pending;
+
+    public TransportStats(long requests, long failures, long totalLatencyMicros, long maxLatencyMicros,
+                          long[] latencyHistogram, long leases, long connectionsOpened, long totalLeaseMicros,
+                          long maxLeaseMicros, long[] leaseHistogram, int leased, int available, int pending) {
+        this.requests = requests;
+        this.failures = failures;
+        this.totalLatencyMicros = totalLatencyMicros;
+        this.maxLatencyMicros = maxLatencyMicros;
+        this.latencyHistogram = latencyHistogram.clone();
+        this.leases = leases;
+        this.connectionsOpened = connectionsOpened;
+        this.totalLeaseMicros = totalLeaseMicros;
+        this.maxLeaseMicros = maxLeaseMicros;
+        this.leaseHistogram = leaseHistogram.clone();
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Requests that failed with an exception rather than a response.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getMeanLatencyMicros() {
+        return requests == 0 ? 0 : totalLatencyMicros / requests;
+    }
+
+    public long getMaxLatencyMicros() {
+        return maxLatencyMicros;
+    }
+
+    /**
+     * Upper bound on the latency of the given fraction of requests, to the nearest power of two.
+     *
+     * @param quantile between 0 and 1, e.g. 0.99
+     */
+    public long getLatencyPercentileMicros(double quantile) {
+        return percentile(latencyHistogram, requests, maxLatencyMicros, quantile);
+    }
+
+    public long getLeases() {
+        return leases;
+    }
+
+    /**
+     * Connections that had to be opened because no pooled connection to the host was free.
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    /**
+     * Mean wait for a connection from the pool, not counting connecting a new one.
+     */
+    public long getMeanLeaseMicros() {
+        return leases == 0 ? 0 : totalLeaseMicros / leases;
+    }
+
+    public long getMaxLeaseMicros() {
+        return maxLeaseMicros;
+    }
+
+    public long getLeasePercentileMicros(double quantile) {
+        return percentile(leaseHistogram, leases, maxLeaseMicros, quantile);
+    }
+
+    /**
+     * Connections in use when the snapshot was taken.
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * Idle connections kept open for reuse.
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * Requests waiting for a connection.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    private static long percentile(long[] histogram, long count, long max, double quantile) {
+        long target = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= target && seen > 0) {
+                return bucket == 0 ? 0 : Math.min(max, (1L << bucket) - 1);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TransportStats{requests=%d, failures=%d, latency mean=%dus p99<=%dus max=%dus, " +
+                             "leases=%d, opened=%d, lease mean=%dus p99<=%dus max=%dus, " +
+                             "pool leased=%d available=%d pending=%d}",
+                             requests, failures, getMeanLatencyMicros(), getLatencyPercentileMicros(0.99),
+                             maxLatencyMicros, leases, connectionsOpened, getMeanLeaseMicros(),
+                             getLeasePercentileMicros(0.99), maxLeaseMicros, leased, available, pending);
+    }
+}
@@ -7,11 +7,23 @@ public class StorageLocation {
     private final Order order;
     private final StorageType storageType;
     private final long placedAtMicros;
+    // Fixed for the life of the location; a move creates a new location
+    private final int degradationRate;
+    private final long spoilDeadlineMicros;
+    
+    // Position in the owning DeadlineHeap, or -1 when not queued (maintained by the heap)
+    private int heapIndex = -1;
+    // Handle of the order in the owning StorageManager, or -1 when not yet given one (maintained by the manager)
+    private int orderHandle = -1;
 
     public StorageLocation(Order order, StorageType storageType, long placedAtMicros) {
         this.order = order;
         this.storageType = storageType;
         this.placedAtMicros = placedAtMicros;
+        this.degradationRate = isAtIdealTemperature() ? 1 : 2;
+        // Age is counted in whole seconds, so the order spoils once it has aged ceil(freshness / rate) seconds
+        long shelfLifeSeconds = (order.getFreshnessSeconds() + degradationRate - 1) / degradationRate;
+        this.spoilDeadlineMicros = placedAtMicros + shelfLifeSeconds * 1_000_000;
     }
 
     public Order getOrder() {
@@ -26,6 +38,37 @@ public class StorageLocation {
         return placedAtMicros;
     }
 
+    /**
+     * Freshness lost per second of age: 1 at ideal temperature, 2 otherwise.
+     */
+    public int getDegradationRate() {
+        return degradationRate;
+    }
+
+    /**
+     * Absolute time in microseconds at which the order spoils in this storage.
+     * Unlike the freshness value it does not change over time, so it serves as an ordering key.
+     */
+    public long getSpoilDeadlineMicros() {
+        return spoilDeadlineMicros;
+    }
+
+    public int getHeapIndex() {
+        return heapIndex;
+    }
+
+    public void setHeapIndex(int heapIndex) {
+        this.heapIndex = heapIndex;
+    }
+
+    public int getOrderHandle() {
+        return orderHandle;
+    }
+
+    public void setOrderHandle(int orderHandle) {
+        this.orderHandle = orderHandle;
+    }
+
     /**
      * Check if the order is stored at its ideal temperature.
      */
@@ -0,0 +1,113 @@
+package com.cloudkitchens.server;
+
+import com.cloudkitchens.TestData;
+import com.cloudkitchens.api.dto.ChallengeAction;
+import com.cloudkitchens.api.dto.ChallengeOptions;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.service.LedgerView;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Scores ledgers offline with the same rules as {@link LocalChallengeServer}, so a ledger can be checked without
+ * spending a test id. Actions are sorted by timestamp, keeping ledger order for equal timestamps, and replayed
+ * through a {@link LedgerValidator} in one pass: O(n log n) in the number of actions.
+ */
+public class LedgerScorer {
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * @param options the problem's pickup delays, or null to skip the pickup window check
+     * @param actions in any order; a {@link LedgerView} is already ordered and is read without copying
+     */
+    public static ValidationReport score(Collection<Order> orders, ChallengeOptions options, List<Action> actions) {
+        if (actions instanceof LedgerView) {
+            return scoreInOrder(orders, options, (LedgerView) actions);
+        }
+        Action[] sorted = actions.toArray(new Action[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(Action::getTimestampMicros));
+        LedgerValidator validator = new LedgerValidator(byId(orders), options);
+        for (Action action : sorted) {
+            validator.accept(action.getTimestampMicros(), action.getOrderId(), action.getActionType().getValue(),
+                             action.getTarget().getValue());
+        }
+        return validator.finish();
+    }
+
+    private static ValidationReport scoreInOrder(Collection<Order> orders, ChallengeOptions options, LedgerView ledger) {
+        LedgerValidator validator = new LedgerValidator(byId(orders), options);
+        for (int i = 0; i < ledger.size(); i++) {
+            validator.accept(ledger.getTimestampMicros(i), ledger.getOrderId(i), ledger.getActionType(i).getValue(),
+                             ledger.getTarget(i).getValue());
+        }
+        return validator.finish();
+    }
+
+    /**
+     * Score the ledger saved with a test against its orders and pickup delays.
+     *
+     * @throws IllegalArgumentException if the test has no saved ledger
+     */
+    public static ValidationReport score(TestData testData) {
+        List<ChallengeAction> actions = testData.getActions();
+        if (actions == null) {
+            throw new IllegalArgumentException("No ledger saved for test " + testData.getTestId());
+        }
+        ChallengeAction[] sorted = actions.toArray(new ChallengeAction[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(ChallengeAction::getTimestampMicros));
+        ChallengeOptions options = new ChallengeOptions(testData.getRateMicros(), testData.getMinPickupMicros(),
+                                                        testData.getMaxPickupMicros());
+        LedgerValidator validator = new LedgerValidator(byId(testData.getOrders()), options);
+        for (ChallengeAction action : sorted) {
+            validator.accept(action);
+        }
+        return validator.finish();
+    }
+
+    public static ValidationReport scoreFile(Path file) throws IOException {
+        try {
+            return score(objectMapper.readValue(file.toFile(), TestData.class));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Score saved tests in parallel across the common fork-join pool.
+     *
+     * @return reports in the order of the files
+     * @throws UncheckedIOException if a file cannot be read
+     */
+    public static List<ValidationReport> scoreFiles(List<Path> files) {
+        return files.parallelStream()
+            .map(file -> {
+                try {
+                    return scoreFile(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read " + file, e);
+                }
+            })
+            .collect(Collectors.toList());
+    }
+
+    private static Map<String, Order> byId(Collection<Order> orders) {
+        Map<String, Order> byId = new LinkedHashMap<>(orders.size() * 2);
+        for (Order order : orders) {
+            byId.put(order.getId(), order);
+        }
+        return byId;
+    }
+}
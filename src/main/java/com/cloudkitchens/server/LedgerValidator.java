@@ -0,0 +1,219 @@
+package com.cloudkitchens.server;
+
+import com.cloudkitchens.api.dto.ChallengeAction;
+import com.cloudkitchens.api.dto.ChallengeOptions;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.storage.StorageManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a submitted ledger, one action at a time in submission order, and checks it against the kitchen rules:
+ * <ul>
+ *   <li>capacity: no storage holds more orders than {@link StorageManager#getCapacity} at any point</li>
+ *   <li>temperature: orders are only placed or moved into their ideal storage or the shelf</li>
+ *   <li>freshness: no order is picked up once spoiled. Freshness is lost at 1 per second in ideal storage
+ *       and 2 per second elsewhere, accumulated across moves</li>
+ *   <li>pickup window: when options are given, every pickup comes between the minimum and maximum pickup
+ *       delay after the order was placed</li>
+ * </ul>
+ * It also checks that every order is placed once, removed once, and acted on from the storage it is in.
+ * Not thread-safe; use one validator per submission.
+ */
+public class LedgerValidator {
+    // Violation messages kept for the report; the rest are only counted
+    private static final int MAX_MESSAGES = 10;
+
+    private final Map<String, Order> orders;
+    private final ChallengeOptions options;
+    private final Map<String, Placement> placements;
+    private final int[] occupancy = new int[StorageType.values().length];
+    private final List<String> messages = new ArrayList<>();
+    private long lastTimestampMicros = Long.MIN_VALUE;
+    private int actions;
+    private int placed;
+    private int moved;
+    private int pickedUp;
+    private int discarded;
+    private int violations;
+    private int capacityViolations;
+    private int temperatureViolations;
+    private int spoiledPickups;
+    private int pickupWindowViolations;
+
+    /**
+     * @param orders the problem's orders by id
+     */
+    public LedgerValidator(Map<String, Order> orders) {
+        this(orders, null);
+    }
+
+    /**
+     * @param orders the problem's orders by id
+     * @param options the problem's pickup delays, or null to skip the pickup window check
+     */
+    public LedgerValidator(Map<String, Order> orders, ChallengeOptions options) {
+        this.orders = orders;
+        this.options = options;
+        this.placements = new HashMap<>(orders.size() * 2);
+    }
+
+    public void accept(ChallengeAction action) {
+        accept(action.getTimestampMicros(), action.getOrderId(), action.getActionType(), action.getTarget());
+    }
+
+    /**
+     * Check one action, given as the wire values of its fields.
+     */
+    public void accept(long timestampMicros, String orderId, String actionName, String targetName) {
+        actions++;
+        if (timestampMicros < lastTimestampMicros) {
+            violation(timestampMicros, orderId, "timestamp goes back from " + lastTimestampMicros);
+        }
+        lastTimestampMicros = Math.max(lastTimestampMicros, timestampMicros);
+
+        Order order = orders.get(orderId);
+        if (order == null) {
+            violation(timestampMicros, orderId, "unknown order");
+            return;
+        }
+        ActionType actionType;
+        StorageType target;
+        try {
+            actionType = ActionType.fromString(actionName);
+            target = StorageType.fromString(targetName);
+        } catch (IllegalArgumentException e) {
+            violation(timestampMicros, orderId, e.getMessage());
+            return;
+        }
+
+        Placement placement = placements.get(orderId);
+        if (actionType == ActionType.PLACE) {
+            if (placement != null) {
+                violation(timestampMicros, orderId, "placed more than once");
+                return;
+            }
+            placement = new Placement(target, timestampMicros);
+            placements.put(orderId, placement);
+            placed++;
+            store(order, target, timestampMicros);
+            return;
+        }
+
+        if (placement == null) {
+            violation(timestampMicros, orderId, actionType.getValue() + " before it was placed");
+            return;
+        }
+        if (placement.removed) {
+            violation(timestampMicros, orderId, actionType.getValue() + " after it was picked up or discarded");
+            return;
+        }
+        age(order, placement, timestampMicros);
+
+        switch (actionType) {
+            case MOVE:
+                if (target == placement.storage) {
+                    violation(timestampMicros, orderId, "moved to the " + target.getValue() + " it is already on");
+                    return;
+                }
+                occupancy[placement.storage.ordinal()]--;
+                placement.storage = target;
+                moved++;
+                store(order, target, timestampMicros);
+                break;
+            case PICKUP:
+            case DISCARD:
+                if (target != placement.storage) {
+                    violation(timestampMicros, orderId, actionType.getValue() + " from the " + target.getValue() +
+                              " but it is on the " + placement.storage.getValue());
+                }
+                occupancy[placement.storage.ordinal()]--;
+                placement.removed = true;
+                if (actionType == ActionType.DISCARD) {
+                    discarded++;
+                } else {
+                    pickedUp++;
+                    if (placement.freshnessUsedMicros >= order.getFreshnessSeconds() * 1_000_000L) {
+                        spoiledPickups++;
+                        violation(timestampMicros, orderId, String.format("picked up spoiled (%.1fs of %ds freshness used)",
+                                  placement.freshnessUsedMicros / 1e6, order.getFreshnessSeconds()));
+                    }
+                    long delayMicros = timestampMicros - placement.placedAtMicros;
+                    if (options != null && (delayMicros < options.getMinPickupMicros() ||
+                                            delayMicros > options.getMaxPickupMicros())) {
+                        pickupWindowViolations++;
+                        violation(timestampMicros, orderId, "picked up " + delayMicros + "us after placement, outside " +
+                                  options.getMinPickupMicros() + "-" + options.getMaxPickupMicros() + "us");
+                    }
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected action: " + actionType);
+        }
+    }
+
+    /**
+     * Check that every order ended up picked up or discarded, and report.
+     */
+    public ValidationReport finish() {
+        for (Order order : orders.values()) {
+            Placement placement = placements.get(order.getId());
+            if (placement == null) {
+                violation(lastTimestampMicros, order.getId(), "never placed");
+            } else if (!placement.removed) {
+                violation(lastTimestampMicros, order.getId(), "left on the " + placement.storage.getValue());
+            }
+        }
+        return new ValidationReport(actions, placed, moved, pickedUp, discarded, violations, capacityViolations,
+                                    temperatureViolations, spoiledPickups, pickupWindowViolations, messages);
+    }
+
+    private void store(Order order, StorageType target, long timestampMicros) {
+        if (target != StorageType.SHELF && target != StorageManager.getIdealStorage(order.getTemperature())) {
+            temperatureViolations++;
+            violation(timestampMicros, order.getId(), order.getTemperature().getValue() + " order put on the " +
+                      target.getValue());
+        }
+        int occupied = ++occupancy[target.ordinal()];
+        if (occupied > StorageManager.getCapacity(target)) {
+            capacityViolations++;
+            violation(timestampMicros, order.getId(), target.getValue() + " over capacity (" + occupied + "/" +
+                      StorageManager.getCapacity(target) + ")");
+        }
+    }
+
+    /**
+     * Charge the freshness lost since the last action on the order.
+     */
+    private static void age(Order order, Placement placement, long timestampMicros) {
+        int rate = placement.storage == StorageManager.getIdealStorage(order.getTemperature()) ? 1 : 2;
+        placement.freshnessUsedMicros += rate * Math.max(0, timestampMicros - placement.sinceMicros);
+        placement.sinceMicros = timestampMicros;
+    }
+
+    private void violation(long timestampMicros, String orderId, String message) {
+        violations++;
+        if (messages.size() < MAX_MESSAGES) {
+            messages.add("t=" + timestampMicros + " " + orderId + ": " + message);
+        }
+    }
+
+    private static class Placement {
+        final long placedAtMicros;
+        StorageType storage;
+        long sinceMicros;
+        long freshnessUsedMicros;
+        boolean removed;
+
+        Placement(StorageType storage, long sinceMicros) {
+            this.placedAtMicros = sinceMicros;
+            this.storage = storage;
+            this.sinceMicros = sinceMicros;
+        }
+    }
+}
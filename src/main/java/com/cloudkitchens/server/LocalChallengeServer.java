@@ -0,0 +1,330 @@
+package com.cloudkitchens.server;
+
+import com.cloudkitchens.api.dto.ChallengeAction;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for the challenge server, for running and load-testing the client and kitchen offline.
+ * Serves {@code GET /new?auth=..[&seed=..]}, answering with an order array and an {@code x-test-id} header, and
+ * {@code POST /solve?auth=..}, which reads a {@link com.cloudkitchens.api.dto.ChallengeRequest} body (optionally
+ * gzip-encoded) for the test in {@code x-test-id} and answers "pass" or "fail: ..." from a {@link LedgerValidator}.
+ * Submissions are validated as they are parsed, without holding the actions. Only the most recent problems are
+ * kept: one not submitted before {@value #MAX_OPEN_PROBLEMS} newer ones have been served is forgotten.
+ * Set {@code sun.net.httpserver.nodelay=true} before the first server is created: the JDK server writes headers
+ * and body separately, so without TCP_NODELAY each keep-alive response waits out the client's delayed ACK (~40 ms).
+ */
+public class LocalChallengeServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LocalChallengeServer.class);
+
+    // Problems kept for submission, and ids of submitted tests kept to answer resubmissions with 409
+    public static final int MAX_OPEN_PROBLEMS = 1024;
+    private static final int MAX_SUBMITTED_TESTS = 65_536;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final String[][] MENU = {
+        {"Cheese Pizza", "Pad Thai", "Burrito", "Ramen", "Fried Chicken", "Pho"},
+        {"Ice Cream", "Poke Bowl", "Sushi", "Cobb Salad", "Smoothie", "Gazpacho"},
+        {"Sandwich", "Bagel", "Croissant", "Banana", "Granola Bar", "Cookies"}
+    };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int ordersPerProblem;
+    private final boolean allowResubmission;
+    private final Map<String, Map<String, Order>> problems = newBoundedMap(MAX_OPEN_PROBLEMS);
+    private final Set<String> submitted = Collections.newSetFromMap(newBoundedMap(MAX_SUBMITTED_TESTS));
+    private final AtomicLong nextTestId = new AtomicLong();
+    private final AtomicLong problemsServed = new AtomicLong();
+    private final AtomicLong submissions = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+
+    /**
+     * Start a server on an ephemeral loopback port.
+     */
+    public LocalChallengeServer() throws IOException {
+        this(0, 48, false, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param port port to listen on, or 0 for any free one
+     * @param ordersPerProblem orders in each problem
+     * @param allowResubmission accept several submissions for one test id, e.g. for throughput benchmarks;
+     *                          otherwise a second submission gets HTTP 409 like the real server, or 404 once the
+     *                          test has dropped out of the most recent submitted ones
+     * @param threads request handler threads
+     */
+    public LocalChallengeServer(int port, int ordersPerProblem, boolean allowResubmission, int threads)
+            throws IOException {
+        if (ordersPerProblem <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("ordersPerProblem and threads must be positive: " + ordersPerProblem +
+                                               ", " + threads);
+        }
+        this.ordersPerProblem = ordersPerProblem;
+        this.allowResubmission = allowResubmission;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "challenge-server-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory);
+        server.setExecutor(executor);
+        server.createContext("/new", exchange -> handle(exchange, "GET", this::handleNew));
+        server.createContext("/solve", exchange -> handle(exchange, "POST", this::handleSolve));
+        server.start();
+        logger.info("Local challenge server listening on {}", getBaseUrl());
+    }
+
+    /**
+     * URL to give {@link com.cloudkitchens.api.ChallengeApiClient} in place of the real server.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getProblemsServed() {
+        return problemsServed.get();
+    }
+
+    public long getSubmissions() {
+        return submissions.get();
+    }
+
+    public long getPassed() {
+        return passed.get();
+    }
+
+    /**
+     * Orders of a problem that has been served and not yet submitted, by id.
+     */
+    public Map<String, Order> getProblem(String testId) {
+        Map<String, Order> orders = problems.get(testId);
+        return orders == null ? null : Collections.unmodifiableMap(orders);
+    }
+
+    /**
+     * Generate the orders of a problem; the same seed always gives the same orders.
+     */
+    public static Map<String, Order> generateOrders(long seed, int count) {
+        Random random = new Random(seed);
+        Temperature[] temperatures = Temperature.values();
+        Map<String, Order> orders = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int temperature = random.nextInt(temperatures.length);
+            String[] dishes = MENU[temperature];
+            // Index in the high bits keeps ids unique within a problem
+            String id = Long.toString(((long) i << 20) | random.nextInt(1 << 20), 36);
+            double price = Math.round((2 + random.nextDouble() * 18) * 100) / 100.0;
+            int freshnessSeconds = 30 + random.nextInt(271);
+            orders.put(id, new Order(id, dishes[random.nextInt(dishes.length)], temperatures[temperature], price,
+                                     freshnessSeconds));
+        }
+        return orders;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Local challenge server stopped: {} problems served, {} of {} submissions passed",
+                    problemsServed.get(), passed.get(), submissions.get());
+    }
+
+    /**
+     * Thread-safe map that drops its oldest entries beyond the given size.
+     */
+    private static <K, V> Map<K, V> newBoundedMap(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> query) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Use " + method);
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String auth = query.get("auth");
+            if (auth == null || auth.isEmpty()) {
+                respond(exchange, 401, "Missing auth token");
+                return;
+            }
+            handler.handle(exchange, query);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to handle {} {}", exchange.getRequestMethod(), exchange.getRequestURI().getPath(), e);
+            if (exchange.getResponseCode() == -1) {
+                respond(exchange, 500, "Internal error: " + e.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleNew(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String seedParam = query.get("seed");
+        long seed;
+        try {
+            seed = seedParam != null ? Long.parseLong(seedParam) : new Random().nextLong();
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Invalid seed: " + seedParam);
+            return;
+        }
+        Map<String, Order> orders = generateOrders(seed, ordersPerProblem);
+        String testId = "local-" + nextTestId.incrementAndGet();
+        problems.put(testId, orders);
+        problemsServed.incrementAndGet();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(ordersPerProblem * 96);
+        objectMapper.writeValue(body, orders.values());
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("x-test-id", testId);
+        exchange.sendResponseHeaders(200, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    private void handleSolve(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String testId = exchange.getRequestHeaders().getFirst("x-test-id");
+        if (testId == null || testId.isEmpty()) {
+            respond(exchange, 400, "Missing x-test-id header");
+            return;
+        }
+        Map<String, Order> orders = allowResubmission ? problems.get(testId) : problems.remove(testId);
+        if (orders == null) {
+            if (submitted.contains(testId)) {
+                respond(exchange, 409, "Test " + testId + " already submitted");
+            } else {
+                respond(exchange, 404, "Unknown test " + testId);
+            }
+            return;
+        }
+        if (!allowResubmission) {
+            submitted.add(testId);
+        }
+
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        ValidationReport report;
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            parser.setCodec(objectMapper);
+            report = validate(parser, new LedgerValidator(orders));
+        } catch (IOException e) {
+            if (!allowResubmission) {
+                // Let the client retry with a well-formed body
+                submitted.remove(testId);
+                problems.put(testId, orders);
+            }
+            respond(exchange, 400, "Malformed submission: " + e.getMessage());
+            return;
+        }
+        submissions.incrementAndGet();
+        if (report.isValid()) {
+            passed.incrementAndGet();
+        }
+        logger.debug("Test {}: {}", testId, report);
+        respond(exchange, 200, report.toResult());
+    }
+
+    /**
+     * Walk the top-level object, feeding each element of "actions" to the validator as it is parsed.
+     */
+    private static ValidationReport validate(JsonParser parser, LedgerValidator validator) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected an object");
+        }
+        boolean sawActions = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("actions".equals(field) && value == JsonToken.START_ARRAY) {
+                sawActions = true;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    validator.accept(parser.readValueAs(ChallengeAction.class));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (!sawActions) {
+            throw new IOException("No actions array");
+        }
+        return validator.finish();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                          URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.cloudkitchens.server;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of checking a submitted ledger against the kitchen rules.
+ * Only the first few violations are kept as messages; all of them are counted.
+ */
+public class ValidationReport {
+    private final int actions;
+    private final int placed;
+    private final int moved;
+    private final int pickedUp;
+    private final int discarded;
+    private final int violationCount;
+    private final int capacityViolations;
+    private final int temperatureViolations;
+    private final int spoiledPickups;
+    private final int pickupWindowViolations;
+    private final List<String> violations;
+
+    public ValidationReport(int actions, int placed, int moved, int pickedUp, int discarded, int violationCount,
+                            int capacityViolations, int temperatureViolations, int spoiledPickups,
+                            int pickupWindowViolations, List<String> violations) {
+        this.actions = actions;
+        this.placed = placed;
+        this.moved = moved;
+        this.pickedUp = pickedUp;
+        this.discarded = discarded;
+        this.violationCount = violationCount;
+        this.capacityViolations = capacityViolations;
+        this.temperatureViolations = temperatureViolations;
+        this.spoiledPickups = spoiledPickups;
+        this.pickupWindowViolations = pickupWindowViolations;
+        this.violations = Collections.unmodifiableList(violations);
+    }
+
+    public boolean isValid() {
+        return violationCount == 0;
+    }
+
+    public int getActions() {
+        return actions;
+    }
+
+    public int getPlaced() {
+        return placed;
+    }
+
+    public int getMoved() {
+        return moved;
+    }
+
+    public int getPickedUp() {
+        return pickedUp;
+    }
+
+    public int getDiscarded() {
+        return discarded;
+    }
+
+    public int getViolationCount() {
+        return violationCount;
+    }
+
+    /**
+     * Places and moves that took a storage over its capacity.
+     */
+    public int getCapacityViolations() {
+        return capacityViolations;
+    }
+
+    /**
+     * Places and moves into storage that is neither the order's ideal storage nor the shelf.
+     */
+    public int getTemperatureViolations() {
+        return temperatureViolations;
+    }
+
+    public int getSpoiledPickups() {
+        return spoiledPickups;
+    }
+
+    /**
+     * Pickups earlier or later than the problem's pickup delays allow; only checked when options were given.
+     */
+    public int getPickupWindowViolations() {
+        return pickupWindowViolations;
+    }
+
+    /**
+     * Messages for the first violations found, in ledger order.
+     */
+    public List<String> getViolations() {
+        return violations;
+    }
+
+    /**
+     * Body returned for a submission: "pass", or "fail" with the counts and first violations.
+     */
+    public String toResult() {
+        if (isValid()) {
+            return "pass";
+        }
+        StringBuilder result = new StringBuilder("fail: ").append(violationCount).append(" violation(s)");
+        for (String violation : violations) {
+            result.append("\n  ").append(violation);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ValidationReport{actions=%d, placed=%d, moved=%d, pickedUp=%d, discarded=%d, " +
+                             "violations=%d (capacity=%d, temperature=%d, spoiled=%d, pickupWindow=%d)}",
+                             actions, placed, moved, pickedUp, discarded, violationCount, capacityViolations,
+                             temperatureViolations, spoiledPickups, pickupWindowViolations);
+    }
+}
@@ -0,0 +1,411 @@
+package com.cloudkitchens.service;
+
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only record of every action, kept in timestamp order.
+ * Each recording thread appends to its own buffer without locking. Full buffers and snapshots merge only
+ * the actions recorded since the previous merge into the sorted ledger, so repeated snapshots are cheap.
+ * Actions with equal timestamps are ordered by a global sequence number taken when they were recorded.
+ * Actions are stored column-wise as primitives, with order ids interned as int handles, either on the heap
+ * or in memory-mapped files (see {@link #mapped(Path)}).
+ */
+public class ActionLedger implements Closeable {
+    private static final int CHUNK_ROWS = 1024;
+    private static final String ACTIONS_FILE = "actions.bin";
+    private static final String ORDER_IDS_FILE = "order-ids.bin";
+
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final LedgerStore store;
+    private final OrderIdTable orderIds;
+    private final List<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Buffer> localBuffer = ThreadLocal.withInitial(() -> {
+        Buffer buffer = new Buffer();
+        buffers.add(buffer);
+        return buffer;
+    });
+
+    // Guarded by this
+    private LedgerView lastView;
+
+    /**
+     * Ledger held on the heap.
+     */
+    public ActionLedger() {
+        this(new HeapLedgerStore(), new HeapOrderIdTable());
+    }
+
+    private ActionLedger(LedgerStore store, OrderIdTable orderIds) {
+        this.store = store;
+        this.orderIds = orderIds;
+        this.lastView = new LedgerView(store.rows(), 0, orderIds);
+    }
+
+    /**
+     * Ledger kept in memory-mapped files in the given directory, replacing any ledger already there.
+     * Its heap use stays flat however many actions are recorded, as long as the ids of orders that leave without
+     * a recorded pickup or discard are given to {@link #release(String)}; the files can be read back with
+     * {@link #readMapped(Path)}, also after the process crashes. Only {@link #flush()} and {@link #close()} force
+     * them to disk, so a machine failure loses what was merged since. Views of this ledger read the live
+     * mapping, so a snapshot that merges in late actions moves the rows after them in earlier views.
+     */
+    public static ActionLedger mapped(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        MappedOrderIdTable orderIds = MappedOrderIdTable.create(directory.resolve(ORDER_IDS_FILE));
+        try {
+            return new ActionLedger(MappedLedgerStore.create(directory.resolve(ACTIONS_FILE)), orderIds);
+        } catch (IOException e) {
+            orderIds.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read-only view of a ledger written by {@link #mapped(Path)}: every action merged before the writer
+     * stopped. Actions still in a writer's buffers when it crashed are lost, and so, if the machine failed,
+     * are actions merged since the last {@link #flush()}.
+     */
+    public static LedgerView readMapped(Path directory) throws IOException {
+        MappedLedgerStore store = MappedLedgerStore.open(directory.resolve(ACTIONS_FILE));
+        MappedOrderIdTable orderIds = MappedOrderIdTable.open(directory.resolve(ORDER_IDS_FILE));
+        return new LedgerView(store, store.size(), orderIds);
+    }
+
+    public void record(Action action) {
+        ActionType actionType = action.getActionType();
+        boolean bufferFull = localBuffer.get().append(action.getTimestampMicros(), nextSequence.getAndIncrement(),
+                                                      orderIds.intern(action.getOrderId()),
+                                                      (byte) actionType.ordinal(), (byte) action.getTarget().ordinal());
+        if (actionType == ActionType.PICKUP || actionType == ActionType.DISCARD) {
+            // The order has left the kitchen; its handle stays valid but the id no longer needs a lookup entry
+            orderIds.release(action.getOrderId());
+        }
+        if (bufferFull) {
+            // Keep the buffers short so memory tracks the store rather than the number of actions
+            merge();
+        }
+    }
+
+    /**
+     * Stop tracking the id of an order that left the kitchen without a recorded pickup or discard, such as one
+     * discarded to make room for another. Its earlier actions keep resolving to it.
+     */
+    public void release(String orderId) {
+        orderIds.release(orderId);
+    }
+
+    /**
+     * View of every action recorded so far, in timestamp order. Reading it does not copy the ledger.
+     * Views of a heap ledger are immutable.
+     */
+    public synchronized LedgerView snapshot() {
+        merge();
+        if (lastView.size() != store.size()) {
+            lastView = new LedgerView(store.rows(), store.size(), orderIds);
+        }
+        return lastView;
+    }
+
+    /**
+     * Merge buffered actions into the store and force a mapped ledger's files to disk. Called periodically, this
+     * bounds how long an action waits in a thread's buffer, where a crash loses it, when a thread records too few
+     * actions to fill a chunk.
+     */
+    public synchronized void flush() {
+        merge();
+        // Ids first, so rows on disk never refer to an id that is not
+        orderIds.flush();
+        store.flush();
+    }
+
+    /**
+     * Estimated memory held by the ledger, including spare capacity.
+     */
+    public synchronized LedgerFootprint getFootprint() {
+        merge();
+        long bufferRows = 0;
+        for (Buffer buffer : buffers) {
+            for (Chunk chunk = buffer.head; chunk != null; chunk = chunk.next) {
+                bufferRows += CHUNK_ROWS;
+            }
+        }
+        return new LedgerFootprint(store.size(), store.heapBytes(), bufferRows * Columns.BYTES_PER_ROW,
+                                   orderIds.size(), orderIds.estimateHeapBytes(),
+                                   store.mappedBytes() + orderIds.mappedBytes());
+    }
+
+    /**
+     * Merge buffered actions and flush the store. Actions recorded afterwards are not kept.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        merge();
+        try {
+            store.close();
+        } finally {
+            orderIds.close();
+        }
+    }
+
+    /**
+     * Move the actions published since the last merge into the store, in order.
+     */
+    private synchronized void merge() {
+        Columns delta = sort(drainBuffers());
+        int deltaSize = delta.capacity();
+        if (deltaSize == 0) {
+            return;
+        }
+        int size = store.size();
+        if (size == 0 || compare(store.rows(), size - 1, delta, 0) <= 0) {
+            // Common case: everything new sorts after the ledger, so append
+            store.append(delta);
+            return;
+        }
+        // Merge with the rows from the first one that sorts after the earliest new action
+        int start = upperBound(delta);
+        Columns tail = store.read(start, size - start);
+        Columns merged = new Columns(tail.capacity() + deltaSize);
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < tail.capacity() && j < deltaSize) {
+            if (compare(tail, i, delta, j) <= 0) {
+                Columns.copy(tail, i++, merged, k++, 1);
+            } else {
+                Columns.copy(delta, j++, merged, k++, 1);
+            }
+        }
+        Columns.copy(tail, i, merged, k, tail.capacity() - i);
+        Columns.copy(delta, j, merged, k + tail.capacity() - i, deltaSize - j);
+        store.replaceFrom(start, merged);
+    }
+
+    /**
+     * Collect the actions published since the last drain. Caller holds the lock.
+     * Fully drained chunks are released, and so are the buffers of threads that have ended.
+     */
+    private Columns drainBuffers() {
+        Columns delta = new Columns(0);
+        int size = 0;
+        for (Buffer buffer : buffers) {
+            // Checked before draining: once the owner has ended, everything it appended is visible
+            boolean ownerEnded = !buffer.owner.isAlive();
+            Chunk chunk = buffer.head;
+            int from = buffer.drained;
+            while (true) {
+                // The owner links the next chunk only once this one is full, so read the link first:
+                // if it is set, the count read after it is final
+                Chunk next = chunk.next;
+                int published = chunk.published;
+                int count = published - from;
+                if (size + count > delta.capacity()) {
+                    delta = delta.copy(Math.max(size + count, delta.capacity() * 2), size);
+                }
+                Columns.copy(chunk.columns, from, delta, size, count);
+                size += count;
+                from = published;
+                if (next == null) {
+                    break;
+                }
+                chunk = next;
+                from = 0;
+            }
+            buffer.head = chunk;
+            buffer.drained = from;
+            if (ownerEnded) {
+                buffers.remove(buffer);
+            }
+        }
+        return size == delta.capacity() ? delta : delta.copy(size, size);
+    }
+
+    /**
+     * Rows in (timestamp, sequence) order. Returns the input when it is already sorted.
+     */
+    private static Columns sort(Columns rows) {
+        int size = rows.capacity();
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = compare(rows, i - 1, rows, i) <= 0;
+        }
+        if (sorted) {
+            return rows;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(rows, order, new int[size], 0, size);
+        Columns result = new Columns(size);
+        for (int i = 0; i < size; i++) {
+            Columns.copy(rows, order[i], result, i, 1);
+        }
+        return result;
+    }
+
+    private static void mergeSort(Columns rows, int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(rows, order, scratch, from, mid);
+        mergeSort(rows, order, scratch, mid, to);
+        if (compare(rows, order[mid - 1], rows, order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(rows, scratch[i], rows, scratch[j]) <= 0)) {
+                order[k] = scratch[i++];
+            } else {
+                order[k] = scratch[j++];
+            }
+        }
+    }
+
+    /**
+     * Index of the first merged row that sorts after the first row of the delta.
+     */
+    private int upperBound(Columns delta) {
+        LedgerRows rows = store.rows();
+        int low = 0;
+        int high = store.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(rows, mid, delta, 0) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(LedgerRows a, int i, LedgerRows b, int j) {
+        int byTime = Long.compare(a.timestampMicros(i), b.timestampMicros(j));
+        return byTime != 0 ? byTime : Long.compare(a.sequence(i), b.sequence(j));
+    }
+
+    /**
+     * Fixed-capacity column storage for ledger rows.
+     */
+    static final class Columns implements LedgerRows {
+        static final int BYTES_PER_ROW = 8 + 8 + 4 + 1 + 1;
+
+        final long[] timestamps;
+        final long[] sequences;
+        final int[] orderHandles;
+        final byte[] actionTypes;
+        final byte[] targets;
+
+        Columns(int capacity) {
+            this.timestamps = new long[capacity];
+            this.sequences = new long[capacity];
+            this.orderHandles = new int[capacity];
+            this.actionTypes = new byte[capacity];
+            this.targets = new byte[capacity];
+        }
+
+        int capacity() {
+            return timestamps.length;
+        }
+
+        @Override
+        public long timestampMicros(int row) {
+            return timestamps[row];
+        }
+
+        @Override
+        public long sequence(int row) {
+            return sequences[row];
+        }
+
+        @Override
+        public int orderHandle(int row) {
+            return orderHandles[row];
+        }
+
+        @Override
+        public byte actionType(int row) {
+            return actionTypes[row];
+        }
+
+        @Override
+        public byte target(int row) {
+            return targets[row];
+        }
+
+        /**
+         * New columns of the given capacity holding this one's first rows.
+         */
+        Columns copy(int capacity, int rows) {
+            Columns copy = new Columns(capacity);
+            copy(this, 0, copy, 0, rows);
+            return copy;
+        }
+
+        static void copy(Columns from, int fromIndex, Columns to, int toIndex, int rows) {
+            System.arraycopy(from.timestamps, fromIndex, to.timestamps, toIndex, rows);
+            System.arraycopy(from.sequences, fromIndex, to.sequences, toIndex, rows);
+            System.arraycopy(from.orderHandles, fromIndex, to.orderHandles, toIndex, rows);
+            System.arraycopy(from.actionTypes, fromIndex, to.actionTypes, toIndex, rows);
+            System.arraycopy(from.targets, fromIndex, to.targets, toIndex, rows);
+        }
+    }
+
+    /**
+     * Fixed-size block of a thread's buffer. Readers see rows up to the published count.
+     */
+    private static final class Chunk {
+        private final Columns columns = new Columns(CHUNK_ROWS);
+        private volatile int published;
+        private volatile Chunk next;
+    }
+
+    /**
+     * Actions recorded by one thread, as a chain of chunks. Only the owning thread appends.
+     */
+    private static final class Buffer {
+        private final Thread owner = Thread.currentThread();
+        // Owner thread only
+        private Chunk tail = new Chunk();
+        // Guarded by the ledger's lock: the first chunk with rows not yet drained, and how far it was drained
+        private Chunk head = tail;
+        private int drained;
+
+        /**
+         * @return true if this filled the current chunk
+         */
+        private boolean append(long timestampMicros, long sequence, int orderHandle, byte actionType, byte target) {
+            Chunk chunk = tail;
+            int count = chunk.published;
+            if (count == CHUNK_ROWS) {
+                Chunk next = new Chunk();
+                chunk.next = next;
+                tail = next;
+                chunk = next;
+                count = 0;
+            }
+            Columns columns = chunk.columns;
+            columns.timestamps[count] = timestampMicros;
+            columns.sequences[count] = sequence;
+            columns.orderHandles[count] = orderHandle;
+            columns.actionTypes[count] = actionType;
+            columns.targets[count] = target;
+            chunk.published = count + 1;
+            return count + 1 == CHUNK_ROWS;
+        }
+    }
+}
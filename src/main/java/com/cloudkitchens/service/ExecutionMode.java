@@ -0,0 +1,11 @@
+package com.cloudkitchens.service;
+
+/**
+ * How KitchenService executes storage operations.
+ */
+public enum ExecutionMode {
+    /** Every operation runs on a cached thread pool; StorageManager's locks serialize conflicting ones. */
+    THREAD_POOL,
+    /** One dedicated thread owns all StorageManager state and executes operations from a queue. */
+    SINGLE_WRITER
+}
@@ -0,0 +1,64 @@
+package com.cloudkitchens.service;
+
+/**
+ * Ledger rows in heap columns. Rows below the size are never rewritten in place, so views stay immutable:
+ * replacing rows writes to fresh columns and earlier views keep the old ones.
+ */
+class HeapLedgerStore implements LedgerStore {
+    private ActionLedger.Columns columns = new ActionLedger.Columns(0);
+    private int size;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public LedgerRows rows() {
+        return columns;
+    }
+
+    @Override
+    public void append(ActionLedger.Columns rows) {
+        int newSize = size + rows.capacity();
+        if (newSize > columns.capacity()) {
+            columns = columns.copy(Math.max(newSize, columns.capacity() * 2), size);
+        }
+        ActionLedger.Columns.copy(rows, 0, columns, size, rows.capacity());
+        size = newSize;
+    }
+
+    @Override
+    public ActionLedger.Columns read(int from, int count) {
+        ActionLedger.Columns copy = new ActionLedger.Columns(count);
+        ActionLedger.Columns.copy(columns, from, copy, 0, count);
+        return copy;
+    }
+
+    @Override
+    public void replaceFrom(int from, ActionLedger.Columns rows) {
+        int newSize = from + rows.capacity();
+        ActionLedger.Columns target = columns.copy(Math.max(newSize, columns.capacity()), from);
+        ActionLedger.Columns.copy(rows, 0, target, from, rows.capacity());
+        columns = target;
+        size = newSize;
+    }
+
+    @Override
+    public long heapBytes() {
+        return (long) columns.capacity() * ActionLedger.Columns.BYTES_PER_ROW;
+    }
+
+    @Override
+    public long mappedBytes() {
+        return 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,80 @@
+package com.cloudkitchens.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Order id table on the heap: handles are dense indexes into an array of the id strings.
+ * Looking up a known id takes no lock; only the first sighting of an id does.
+ */
+class HeapOrderIdTable implements OrderIdTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    // Rough heap cost of a stored id besides its characters: String and array header
+    private static final int NAME_OVERHEAD_BYTES = 24 + 16;
+    // Rough heap cost of a live lookup entry: map node and table slot, boxed handle
+    private static final int LOOKUP_OVERHEAD_BYTES = 32 + 8 + 16;
+
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    // Written under the lock; a handle is only handed out after its name is in place
+    private volatile String[] names = new String[INITIAL_CAPACITY];
+    private int size;
+    private long nameChars;
+
+    @Override
+    public int intern(String orderId) {
+        Integer handle = handles.get(orderId);
+        if (handle != null) {
+            return handle;
+        }
+        synchronized (this) {
+            handle = handles.get(orderId);
+            if (handle != null) {
+                return handle;
+            }
+            String[] current = names;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = orderId;
+            names = current;
+            nameChars += orderId.length();
+            handles.put(orderId, size);
+            return size++;
+        }
+    }
+
+    @Override
+    public String get(int handle) {
+        return names[handle];
+    }
+
+    @Override
+    public void release(String orderId) {
+        handles.remove(orderId);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized long estimateHeapBytes() {
+        return (long) names.length * 4 + (long) size * NAME_OVERHEAD_BYTES + nameChars * 2
+               + (long) handles.size() * LOOKUP_OVERHEAD_BYTES;
+    }
+
+    @Override
+    public long mappedBytes() {
+        return 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,34 @@
+package com.cloudkitchens.service;
+
+/**
+ * Source of time for the kitchen, and the scheduler for work that must happen at a given time.
+ * All times are absolute microseconds on the clock's own timeline.
+ */
+public interface KitchenClock {
+
+    /**
+     * Current time in microseconds.
+     */
+    long nowMicros();
+
+    /**
+     * Block until the clock reaches the given time.
+     */
+    void sleepUntil(long timestampMicros) throws InterruptedException;
+
+    /**
+     * Run a task once the clock reaches the given time.
+     */
+    void schedule(long timestampMicros, Runnable task);
+
+    /**
+     * Whether time advances on its own. When false the caller drives time, and work submitted to the
+     * kitchen runs inline so that events are processed in a deterministic order.
+     */
+    boolean isRealTime();
+
+    /**
+     * Stop running scheduled tasks and release any threads.
+     */
+    void shutdown();
+}
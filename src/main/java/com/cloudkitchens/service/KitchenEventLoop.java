@@ -0,0 +1,102 @@
+package com.cloudkitchens.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Single-writer event loop: one dedicated thread executes every submitted command in submission order.
+ * Producers enqueue onto a lock-free multi-producer queue and only unpark the loop thread when it is
+ * idle, so under load commands are handed over without lock handoffs or context switches.
+ */
+public class KitchenEventLoop {
+    private static final Logger logger = LoggerFactory.getLogger(KitchenEventLoop.class);
+
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean idle = new AtomicBoolean(false);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public KitchenEventLoop(String name) {
+        this.thread = new Thread(this::run, name);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a command for execution on the loop thread.
+     *
+     * @return a future completed with the command's result, or exceptionally if it throws or the loop shut down
+     *         before running it
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> command) {
+        if (!running) {
+            throw new RejectedExecutionException("Event loop has been shut down");
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                future.complete(command.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        commands.offer(task);
+        // A shutdown after the check above may have let the loop exit before the command was queued;
+        // if the loop has not taken it, it never will
+        if (!running && commands.remove(task)) {
+            future.completeExceptionally(new RejectedExecutionException("Event loop has been shut down"));
+            return future;
+        }
+        if (idle.get() && idle.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+        return future;
+    }
+
+    /**
+     * Whether the calling thread is the loop thread.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stop accepting commands, run the ones already queued and wait for the loop thread to exit.
+     *
+     * @return false if the loop thread did not finish within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join(unit.toMillis(timeout));
+        return !thread.isAlive();
+    }
+
+    private void run() {
+        while (true) {
+            Runnable command = commands.poll();
+            if (command != null) {
+                command.run();
+                continue;
+            }
+            if (!running) {
+                break;
+            }
+            // Announce we are going idle, then re-check so a concurrent submit is never missed
+            idle.set(true);
+            if (commands.isEmpty() && running) {
+                LockSupport.park(this);
+            }
+            idle.set(false);
+        }
+        logger.info("Event loop {} stopped", thread.getName());
+    }
+}
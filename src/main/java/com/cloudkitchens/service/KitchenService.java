@@ -2,83 +2,255 @@ package com.cloudkitchens.service;
 
 import com.cloudkitchens.model.Action;
 import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.storage.CheckpointStats;
+import com.cloudkitchens.storage.RetentionStats;
 import com.cloudkitchens.storage.StorageManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class KitchenService {
     private static final Logger logger = LoggerFactory.getLogger(KitchenService.class);
     
+    // How often storage history beyond the retention period is compacted
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 5_000;
+    
+    // How often storage and the ledger are checkpointed when a checkpoint file is given
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 10_000;
+    
     private final StorageManager storageManager;
+    private final ExecutionMode executionMode;
+    private final KitchenEventLoop eventLoop; // only in SINGLE_WRITER mode
+    private final KitchenClock clock;
+    private final Random pickupRandom;
     private final ExecutorService executorService;
     private final ScheduledExecutorService scheduledExecutor;
-    private final List<Action> actionLedger;
-    private final Object ledgerLock = new Object();
+    private final ActionLedger actionLedger;
+    private final Path checkpointFile; // null when not checkpointing
+    // Held shared from a storage operation until its action is in the ledger, and exclusively by checkpoints
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // Held by one checkpoint at a time, from its snapshot until it is in place
+    private final Object checkpointMonitor = new Object();
     
     public KitchenService() {
-        this.storageManager = new StorageManager();
+        this(ExecutionMode.THREAD_POOL);
+    }
+    
+    public KitchenService(ExecutionMode executionMode) {
+        this(executionMode, new SystemClock(), new Random());
+    }
+    
+    /**
+     * @param clock time source for scheduled pickups; the service shuts it down on {@link #shutdown()}
+     * @param pickupRandom source of pickup delays; seed it to make pickups reproducible
+     */
+    public KitchenService(ExecutionMode executionMode, KitchenClock clock, Random pickupRandom) {
+        this(executionMode, clock, pickupRandom, new ActionLedger());
+    }
+    
+    /**
+     * @param actionLedger where actions are recorded; the service closes it on {@link #shutdown()}
+     */
+    public KitchenService(ExecutionMode executionMode, KitchenClock clock, Random pickupRandom, ActionLedger actionLedger) {
+        this(executionMode, clock, pickupRandom, actionLedger,
+             StorageManager.DEFAULT_RETENTION_MICROS, DEFAULT_COMPACTION_INTERVAL_MILLIS);
+    }
+    
+    public KitchenService(ExecutionMode executionMode, long retentionMicros, long compactionIntervalMillis) {
+        this(executionMode, new SystemClock(), new Random(), new ActionLedger(), retentionMicros, compactionIntervalMillis);
+    }
+    
+    /**
+     * @param executionMode whether operations run on a thread pool or on a single-writer event loop;
+     *                      ignored with a simulated clock, where operations run inline on the thread advancing it
+     * @param clock time source for scheduled pickups; the service shuts it down on {@link #shutdown()}
+     * @param pickupRandom source of pickup delays; seed it to make pickups reproducible
+     * @param actionLedger where actions are recorded; the service closes it on {@link #shutdown()}
+     * @param retentionMicros how far back storage history is kept for capacity queries
+     * @param compactionIntervalMillis how often history older than that is compacted in the background, in
+     *                                 virtual time with a simulated clock
+     */
+    public KitchenService(ExecutionMode executionMode, KitchenClock clock, Random pickupRandom, ActionLedger actionLedger,
+                          long retentionMicros, long compactionIntervalMillis) {
+        this(executionMode, clock, pickupRandom, actionLedger, new StorageManager(retentionMicros),
+             compactionIntervalMillis);
+    }
+    
+    /**
+     * @param storageManager storage to operate on, possibly with a decision journal or write-ahead log, or recovered
+     *                       from one; the service closes it on {@link #shutdown()}
+     */
+    public KitchenService(ExecutionMode executionMode, KitchenClock clock, Random pickupRandom, ActionLedger actionLedger,
+                          StorageManager storageManager, long compactionIntervalMillis) {
+        this(executionMode, clock, pickupRandom, actionLedger, storageManager, compactionIntervalMillis, null, 0);
+    }
+    
+    /**
+     * @param storageManager storage to operate on, with a write-ahead log if checkpointing
+     * @param checkpointFile where storage and the ledger are checkpointed in the background, so
+     *                       {@link StorageManager#recover} replays only the log written since; or null
+     * @param checkpointIntervalMillis how often to checkpoint, in virtual time with a simulated clock
+     */
+    public KitchenService(ExecutionMode executionMode, KitchenClock clock, Random pickupRandom, ActionLedger actionLedger,
+                          StorageManager storageManager, long compactionIntervalMillis, Path checkpointFile,
+                          long checkpointIntervalMillis) {
+        this.storageManager = storageManager;
+        this.checkpointFile = checkpointFile;
+        this.actionLedger = actionLedger;
+        this.executionMode = executionMode;
+        this.clock = clock;
+        this.pickupRandom = pickupRandom;
+        this.eventLoop = executionMode == ExecutionMode.SINGLE_WRITER && clock.isRealTime()
+            ? new KitchenEventLoop("kitchen-event-loop") : null;
         this.executorService = Executors.newCachedThreadPool();
-        this.scheduledExecutor = Executors.newScheduledThreadPool(4);
-        this.actionLedger = new ArrayList<>();
+        this.scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+        
+        if (clock instanceof SimulatedClock) {
+            // Virtual intervals, run on the thread driving the clock like every other operation
+            SimulatedClock simulatedClock = (SimulatedClock) clock;
+            simulatedClock.scheduleRepeating(TimeUnit.MILLISECONDS.toMicros(compactionIntervalMillis),
+                                             this::compactStorage);
+            if (checkpointFile != null) {
+                simulatedClock.scheduleRepeating(TimeUnit.MILLISECONDS.toMicros(checkpointIntervalMillis),
+                                                 this::checkpointStorage);
+            }
+        } else {
+            scheduledExecutor.scheduleAtFixedRate(this::compactStorage,
+                compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+            if (checkpointFile != null) {
+                scheduledExecutor.scheduleWithFixedDelay(this::checkpointStorage,
+                    checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Give storage the ids of every order still to come, when the whole list is known before the first placement.
+     */
+    public void registerOrders(List<Order> orders) {
+        List<String> orderIds = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            orderIds.add(order.getId());
+        }
+        storageManager.registerOrders(orderIds);
     }
     
     public CompletableFuture<Action> placeOrderAsync(Order order, long timestampMicros) {
-        return CompletableFuture.supplyAsync(() -> {
+        return execute(() -> {
             try {
-                Action action = storageManager.placeOrder(order, timestampMicros);
-                recordAction(action);
+                Action action = recorded(() -> storageManager.placeOrder(order, timestampMicros));
                 logger.info("Order placed: {} -> {}", order.getId(), action.getTarget().getValue());
                 return action;
             } catch (Exception e) {
                 logger.error("Failed to place order: {}", order.getId(), e);
                 throw new RuntimeException("Failed to place order: " + order.getId(), e);
             }
-        }, executorService);
+        });
     }
     
     public CompletableFuture<Action> pickupOrderAsync(String orderId, long timestampMicros) {
-        return CompletableFuture.supplyAsync(() -> {
+        return execute(() -> pickupOrder(orderId, timestampMicros));
+    }
+    
+    private Action pickupOrder(String orderId, long timestampMicros) {
+        try {
+            Action action = recorded(() -> storageManager.pickupOrder(orderId, timestampMicros));
+            if (action != null) {
+                logger.info("Order picked up: {} from {}", orderId, action.getTarget().getValue());
+            } else {
+                logger.warn("Order not found for pickup: {}", orderId);
+                // Discarded to make room for another order, which the ledger never saw
+                actionLedger.release(orderId);
+            }
+            return action;
+        } catch (Exception e) {
+            logger.error("Failed to pickup order: {}", orderId, e);
+            throw new RuntimeException("Failed to pickup order: " + orderId, e);
+        }
+    }
+    
+    public CompletableFuture<Action> moveOrderAsync(String orderId, StorageType targetStorage, long timestampMicros) {
+        return execute(() -> {
             try {
-                Action action = storageManager.pickupOrder(orderId, timestampMicros);
+                Action action = recorded(() -> storageManager.moveOrder(orderId, targetStorage, timestampMicros));
                 if (action != null) {
-                    recordAction(action);
-                    logger.info("Order picked up: {} from {}", orderId, action.getTarget().getValue());
+                    logger.info("Order moved: {} -> {}", orderId, targetStorage.getValue());
                 } else {
-                    logger.warn("Order not found for pickup: {}", orderId);
+                    logger.warn("Order could not be moved: {} -> {}", orderId, targetStorage.getValue());
                 }
                 return action;
             } catch (Exception e) {
-                logger.error("Failed to pickup order: {}", orderId, e);
-                throw new RuntimeException("Failed to pickup order: " + orderId, e);
+                logger.error("Failed to move order: {}", orderId, e);
+                throw new RuntimeException("Failed to move order: " + orderId, e);
             }
-        }, executorService);
+        });
     }
     
     public CompletableFuture<Void> schedulePickup(String orderId, long placementTime, long minDelayMicros, long maxDelayMicros) {
-        long delayMicros = minDelayMicros + (long) (Math.random() * (maxDelayMicros - minDelayMicros));
+        long delayMicros = minDelayMicros + (long) (pickupRandom.nextDouble() * (maxDelayMicros - minDelayMicros));
         long pickupTime = placementTime + delayMicros; // Calculate absolute pickup time
-        long delayMillis = delayMicros / 1000; // Convert to milliseconds for scheduling
         
-        logger.info("Scheduling pickup for order {} at absolute time {} (delay {}ms)", orderId, pickupTime, delayMillis);
+        logger.info("Scheduling pickup for order {} at absolute time {} (delay {}ms)", orderId, pickupTime, delayMicros / 1000);
         
-        // Register the scheduled pickup so capacity checks can account for it
-        storageManager.registerScheduledPickup(orderId, pickupTime);
+        // Register the scheduled pickup so capacity checks can account for it, before the pickup can run
+        CompletableFuture<Void> registration;
+        if (eventLoop != null) {
+            registration = eventLoop.submit(() -> {
+                storageManager.registerScheduledPickup(orderId, pickupTime);
+                return null;
+            });
+        } else {
+            storageManager.registerScheduledPickup(orderId, pickupTime);
+            registration = CompletableFuture.completedFuture(null);
+        }
         
+        return registration.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                logger.error("Failed to register pickup for order: {}", orderId, throwable);
+            }
+        }).thenCompose(ignored -> pickupAt(orderId, pickupTime));
+    }
+    
+    /**
+     * Schedule the pickups of orders left in a storage manager recovered from its write-ahead log, at their
+     * registered times; orders placed without one get a new pickup delay from now.
+     */
+    public List<CompletableFuture<Void>> resumePickups(long minDelayMicros, long maxDelayMicros) {
+        List<CompletableFuture<Void>> pickups = new ArrayList<>();
+        long now = clock.nowMicros();
+        for (StorageLocation location : storageManager.getAllOrders()) {
+            String orderId = location.getOrder().getId();
+            Long pickupTime = storageManager.getScheduledPickup(orderId);
+            pickups.add(pickupTime != null ? pickupAt(orderId, pickupTime)
+                                           : schedulePickup(orderId, now, minDelayMicros, maxDelayMicros));
+        }
+        logger.info("Resumed {} pickups", pickups.size());
+        return pickups;
+    }
+    
+    private CompletableFuture<Void> pickupAt(String orderId, long pickupTime) {
         CompletableFuture<Void> future = new CompletableFuture<>();
         
-        scheduledExecutor.schedule(() -> {
+        clock.schedule(pickupTime, () -> {
             try {
-                pickupOrderAsync(orderId, pickupTime).thenAccept(action -> {
+                // Off the clock's single dispatch thread, so commit waits and checkpoints do not hold up other timers
+                execute(() -> pickupOrder(orderId, pickupTime)).thenAccept(action -> {
                     if (action != null) {
                         logger.info("Scheduled pickup completed for order: {}", orderId);
                     }
@@ -92,41 +264,139 @@ public class KitchenService {
                 logger.error("Error in scheduled pickup for order: {}", orderId, e);
                 future.completeExceptionally(e);
             }
-        }, delayMillis, TimeUnit.MILLISECONDS);
+        });
         
         return future;
     }
     
-    private void recordAction(Action action) {
-        synchronized (ledgerLock) {
-            actionLedger.add(action);
+    /**
+     * Run a storage operation according to the execution mode.
+     */
+    private <T> CompletableFuture<T> execute(Supplier<T> operation) {
+        if (!clock.isRealTime()) {
+            // Simulated time: run on the thread driving the clock so event order is deterministic
+            return runInline(operation);
         }
+        if (eventLoop != null) {
+            return eventLoop.submit(operation);
+        }
+        return CompletableFuture.supplyAsync(operation, executorService);
     }
     
-    public List<Action> getActionLedger() {
-        synchronized (ledgerLock) {
-            List<Action> sortedActions = new ArrayList<>(actionLedger);
-            // Sort by timestamp to ensure monotonic order
-            Collections.sort(sortedActions, new Comparator<Action>() {
-                @Override
-                public int compare(Action a, Action b) {
-                    return Long.compare(a.getTimestampMicros(), b.getTimestampMicros());
-                }
-            });
-            return sortedActions;
+    private static <T> CompletableFuture<T> runInline(Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(operation.get());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+    
+    private void compactStorage() {
+        // Also bound how long actions wait in the ledger's per-thread buffers
+        try {
+            actionLedger.flush();
+        } catch (RuntimeException e) {
+            logger.error("Action ledger flush failed", e);
+        }
+        execute(storageManager::compact).whenComplete((stats, throwable) -> {
+            // Never rethrow, so the periodic task keeps running
+            if (throwable != null) {
+                logger.error("Storage compaction failed", throwable);
+            } else {
+                logger.info("Storage compaction: {}", stats);
+            }
+        });
+    }
+    
+    /**
+     * Run a storage operation and record its action, if any, with no checkpoint in between.
+     */
+    private Action recorded(Supplier<Action> operation) {
+        checkpointLock.readLock().lock();
+        try {
+            Action action = operation.get();
+            if (action != null) {
+                actionLedger.record(action);
+            }
+            return action;
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Checkpoint storage and the ledger now. Storage operations wait until the ledger is written to the checkpoint,
+     * so it holds exactly the actions of the storage state in it, but not while the checkpoint is synced to disk.
+     *
+     * @throws IllegalStateException if the service has no checkpoint file
+     */
+    public CheckpointStats checkpoint() throws IOException {
+        if (checkpointFile == null) {
+            throw new IllegalStateException("No checkpoint file");
+        }
+        // The write lock is let go before the file is synced, so it no longer keeps checkpoints apart
+        synchronized (checkpointMonitor) {
+            Lock writeLock = checkpointLock.writeLock();
+            writeLock.lock();
+            LedgerView ledger;
+            try {
+                ledger = actionLedger.snapshot();
+            } catch (RuntimeException e) {
+                writeLock.unlock();
+                throw e;
+            }
+            return storageManager.checkpoint(checkpointFile, ledger, writeLock::unlock);
         }
     }
     
+    private void checkpointStorage() {
+        // Never rethrow, so the periodic task keeps running
+        try {
+            logger.info("Storage checkpoint: {}", checkpoint());
+        } catch (Exception e) {
+            logger.error("Storage checkpoint failed", e);
+        }
+    }
+    
+    /**
+     * Immutable view of all actions so far in timestamp order; actions at the same timestamp stay in the order they happened.
+     */
+    public LedgerView getActionLedger() {
+        return actionLedger.snapshot();
+    }
+    
+    public LedgerFootprint getLedgerFootprint() {
+        return actionLedger.getFootprint();
+    }
+    
     public java.util.Map<com.cloudkitchens.model.StorageType, Integer> getStorageStatus() {
         return storageManager.getStorageStatus();
     }
     
+    public RetentionStats getRetentionStats() {
+        return storageManager.getRetentionStats();
+    }
+    
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+    
+    public KitchenClock getClock() {
+        return clock;
+    }
+    
     public void shutdown() {
         logger.info("Shutting down KitchenService...");
+        clock.shutdown();
         executorService.shutdown();
         scheduledExecutor.shutdown();
         
         try {
+            if (eventLoop != null && !eventLoop.shutdown(5, TimeUnit.SECONDS)) {
+                logger.warn("Event loop did not stop within 5 seconds");
+            }
             if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
                 executorService.shutdownNow();
             }
@@ -139,6 +409,17 @@ public class KitchenService {
             scheduledExecutor.shutdownNow();
         }
         
+        try {
+            actionLedger.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close action ledger", e);
+        }
+        try {
+            storageManager.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close storage logs", e);
+        }
+        
         logger.info("KitchenService shutdown complete");
     }
 }
@@ -0,0 +1,75 @@
+package com.cloudkitchens.service;
+
+/**
+ * Estimated memory held by the action ledger: heap, plus file mappings for a memory-mapped ledger.
+ */
+public class LedgerFootprint {
+    private final int actions;
+    private final long ledgerBytes;
+    private final long bufferBytes;
+    private final int orderIds;
+    private final long orderIdBytes;
+    private final long mappedBytes;
+
+    public LedgerFootprint(int actions, long ledgerBytes, long bufferBytes, int orderIds, long orderIdBytes,
+                           long mappedBytes) {
+        this.actions = actions;
+        this.ledgerBytes = ledgerBytes;
+        this.bufferBytes = bufferBytes;
+        this.orderIds = orderIds;
+        this.orderIdBytes = orderIdBytes;
+        this.mappedBytes = mappedBytes;
+    }
+
+    public int getActions() {
+        return actions;
+    }
+
+    /**
+     * Heap bytes held by the merged, ordered rows, including spare capacity.
+     */
+    public long getLedgerBytes() {
+        return ledgerBytes;
+    }
+
+    /**
+     * Bytes held by the per-thread append buffers.
+     */
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+
+    public int getOrderIds() {
+        return orderIds;
+    }
+
+    /**
+     * Heap bytes held by the order id table.
+     */
+    public long getOrderIdBytes() {
+        return orderIdBytes;
+    }
+
+    /**
+     * Bytes of file mapped for a memory-mapped ledger, outside the heap.
+     */
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    public long getHeapBytes() {
+        return ledgerBytes + bufferBytes + orderIdBytes;
+    }
+
+    public double getHeapBytesPerAction() {
+        return actions == 0 ? 0 : (double) getHeapBytes() / actions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LedgerFootprint{actions=%d, ledger=%dB, buffers=%dB, orderIds=%d (%dB), mapped=%dB, " +
+                             "heapPerAction=%.1fB}",
+                             actions, ledgerBytes, bufferBytes, orderIds, orderIdBytes, mappedBytes,
+                             getHeapBytesPerAction());
+    }
+}
@@ -0,0 +1,17 @@
+package com.cloudkitchens.service;
+
+/**
+ * Read access to ledger rows by index.
+ */
+interface LedgerRows {
+
+    long timestampMicros(int row);
+
+    long sequence(int row);
+
+    int orderHandle(int row);
+
+    byte actionType(int row);
+
+    byte target(int row);
+}
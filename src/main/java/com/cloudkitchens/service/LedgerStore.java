@@ -0,0 +1,41 @@
+package com.cloudkitchens.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Storage for the merged, timestamp-ordered ledger rows. Only the ledger writes to it, holding its lock.
+ */
+interface LedgerStore extends Closeable {
+
+    int size();
+
+    /**
+     * Rows for a view of the first {@link #size()} rows.
+     */
+    LedgerRows rows();
+
+    void append(ActionLedger.Columns rows);
+
+    /**
+     * Copy of count rows starting at from.
+     */
+    ActionLedger.Columns read(int from, int count);
+
+    /**
+     * Replace every row from the given index on with the given rows.
+     */
+    void replaceFrom(int from, ActionLedger.Columns rows);
+
+    /**
+     * Force rows written so far to disk, if the store has a file.
+     */
+    void flush();
+
+    long heapBytes();
+
+    long mappedBytes();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,62 @@
+package com.cloudkitchens.service;
+
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.StorageType;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Timestamp-ordered view of the action ledger at one point in time.
+ * Fields can be read per index without materializing anything; {@link #get(int)} builds an Action on demand.
+ */
+public final class LedgerView extends AbstractList<Action> implements RandomAccess {
+    private static final ActionType[] ACTION_TYPES = ActionType.values();
+    private static final StorageType[] STORAGE_TYPES = StorageType.values();
+
+    private final LedgerRows rows;
+    private final int size;
+    private final OrderIdTable orderIds;
+
+    LedgerView(LedgerRows rows, int size, OrderIdTable orderIds) {
+        this.rows = rows;
+        this.size = size;
+        this.orderIds = orderIds;
+    }
+
+    public long getTimestampMicros(int index) {
+        return rows.timestampMicros(checkIndex(index));
+    }
+
+    public String getOrderId(int index) {
+        return orderIds.get(rows.orderHandle(checkIndex(index)));
+    }
+
+    public ActionType getActionType(int index) {
+        return ACTION_TYPES[rows.actionType(checkIndex(index))];
+    }
+
+    public StorageType getTarget(int index) {
+        return STORAGE_TYPES[rows.target(checkIndex(index))];
+    }
+
+    @Override
+    public Action get(int index) {
+        checkIndex(index);
+        return new Action(rows.timestampMicros(index), orderIds.get(rows.orderHandle(index)),
+                          ACTION_TYPES[rows.actionType(index)], STORAGE_TYPES[rows.target(index)]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return index;
+    }
+}
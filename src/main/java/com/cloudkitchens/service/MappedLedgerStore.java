@@ -0,0 +1,271 @@
+package com.cloudkitchens.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Ledger rows as fixed-width records in a memory-mapped file, so the rows take no heap however many there are.
+ * The file is mapped in fixed-size regions as it grows. Slot 0 holds a header whose row count is updated after
+ * the rows it covers are written, so the file left behind by a crashed process can be read back. The mapping is
+ * forced to disk only by {@link #flush()} and {@link #close()}: if the machine itself fails, rows written since the
+ * last flush may be lost, and the header may count rows that never reached the disk.
+ * Views read the live mapping: when a snapshot merges in late actions, the rows after them move.
+ * Such a merge first writes the re-sorted tail past the end of the rows, then points the header at it in one write,
+ * and only then copies it into place; a reader that finds the header pointing at a tail reads the rows from there,
+ * so a crash at any point leaves either the rows before the merge or those after it.
+ */
+final class MappedLedgerStore implements LedgerStore, LedgerRows {
+    static final int RECORD_BYTES = 24;
+
+    private static final int MAGIC = 0x4B4C4447; // "KLDG"
+    private static final int VERSION = 1;
+    private static final int REGION_SLOT_BITS = 20;
+    private static final int REGION_SLOTS = 1 << REGION_SLOT_BITS;
+    private static final long REGION_BYTES = (long) RECORD_BYTES * REGION_SLOTS;
+
+    // Header fields, in slot 0
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int ROWS_OFFSET = 8;
+    private static final int RECORD_BYTES_OFFSET = 16;
+    // Slot describing a merged tail not yet copied into place, or 0
+    private static final int PENDING_TAIL_OFFSET = 20;
+
+    // Fields of a pending tail's descriptor slot; the tail's rows follow it
+    private static final int TAIL_FROM_OFFSET = 0;
+    private static final int TAIL_ROWS_OFFSET = 4;
+
+    // Record fields
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int ORDER_OFFSET = 16;
+    private static final int ACTION_OFFSET = 20;
+    private static final int TARGET_OFFSET = 21;
+
+    private final FileChannel channel; // null when opened read-only
+    private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+    private int size;
+    // Read-only stores of a file left mid-merge: rows from tailFrom on are read from the slots after tailSlot
+    private int tailFrom = Integer.MAX_VALUE;
+    private int tailSlot;
+
+    private MappedLedgerStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Create an empty ledger file, replacing any existing one.
+     */
+    static MappedLedgerStore create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedLedgerStore store = new MappedLedgerStore(channel);
+        store.ensureSlots(1);
+        MappedByteBuffer header = store.regions.get(0);
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(RECORD_BYTES_OFFSET, RECORD_BYTES);
+        header.putLong(ROWS_OFFSET, 0);
+        return store;
+    }
+
+    /**
+     * Open an existing ledger file read-only.
+     */
+    static MappedLedgerStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < RECORD_BYTES) {
+                throw new IOException("Not an action ledger file: " + file);
+            }
+            MappedLedgerStore store = new MappedLedgerStore(null);
+            for (long position = 0; position < length; position += REGION_BYTES) {
+                store.regions.add(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                              Math.min(REGION_BYTES, length - position)));
+            }
+            MappedByteBuffer header = store.regions.get(0);
+            if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION
+                || header.getInt(RECORD_BYTES_OFFSET) != RECORD_BYTES) {
+                throw new IOException("Not an action ledger file: " + file);
+            }
+            long rows = header.getLong(ROWS_OFFSET);
+            if (rows < 0 || rows >= Integer.MAX_VALUE || (rows + 1) * RECORD_BYTES > length) {
+                throw new IOException("Corrupt action ledger file: " + file + " claims " + rows + " rows");
+            }
+            store.size = (int) rows;
+            int pendingSlot = header.getInt(PENDING_TAIL_OFFSET);
+            if (pendingSlot != 0) {
+                // The writer stopped during a merge, after the merged tail was complete
+                if (pendingSlot < 0 || (long) (pendingSlot + 1) * RECORD_BYTES > length) {
+                    throw new IOException("Corrupt action ledger file: " + file + " has a tail at slot " + pendingSlot);
+                }
+                MappedByteBuffer descriptor = store.region(pendingSlot);
+                int from = descriptor.getInt(offset(pendingSlot) + TAIL_FROM_OFFSET);
+                int count = descriptor.getInt(offset(pendingSlot) + TAIL_ROWS_OFFSET);
+                if (from < 0 || count < 0 || from > rows || (long) from + count >= pendingSlot
+                    || ((long) pendingSlot + count + 1) * RECORD_BYTES > length) {
+                    throw new IOException("Corrupt action ledger file: " + file + " has a tail of " + count +
+                                          " rows from " + from);
+                }
+                store.size = from + count;
+                store.tailFrom = from;
+                store.tailSlot = pendingSlot;
+            }
+            return store;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public LedgerRows rows() {
+        return this;
+    }
+
+    @Override
+    public void append(ActionLedger.Columns rows) {
+        int count = rows.capacity();
+        ensureSlots((long) size + count + 1);
+        write(rows, size + 1);
+        size += count;
+        regions.get(0).putLong(ROWS_OFFSET, size);
+    }
+
+    @Override
+    public ActionLedger.Columns read(int from, int count) {
+        ActionLedger.Columns copy = new ActionLedger.Columns(count);
+        for (int i = 0; i < count; i++) {
+            copy.timestamps[i] = timestampMicros(from + i);
+            copy.sequences[i] = sequence(from + i);
+            copy.orderHandles[i] = orderHandle(from + i);
+            copy.actionTypes[i] = actionType(from + i);
+            copy.targets[i] = target(from + i);
+        }
+        return copy;
+    }
+
+    @Override
+    public void replaceFrom(int from, ActionLedger.Columns rows) {
+        int count = rows.capacity();
+        // The tail goes past the rows it will become, so copying it into place does not overwrite it
+        int pendingSlot = Math.max(size, from + count) + 1;
+        ensureSlots((long) pendingSlot + count + 1);
+        MappedByteBuffer descriptor = region(pendingSlot);
+        descriptor.putInt(offset(pendingSlot) + TAIL_FROM_OFFSET, from);
+        descriptor.putInt(offset(pendingSlot) + TAIL_ROWS_OFFSET, count);
+        write(rows, pendingSlot + 1);
+        MappedByteBuffer header = regions.get(0);
+        header.putInt(PENDING_TAIL_OFFSET, pendingSlot);
+        write(rows, from + 1);
+        size = from + count;
+        header.putLong(ROWS_OFFSET, size);
+        header.putInt(PENDING_TAIL_OFFSET, 0);
+    }
+
+    @Override
+    public long timestampMicros(int row) {
+        return region(slot(row)).getLong(offset(slot(row)) + TIMESTAMP_OFFSET);
+    }
+
+    @Override
+    public long sequence(int row) {
+        return region(slot(row)).getLong(offset(slot(row)) + SEQUENCE_OFFSET);
+    }
+
+    @Override
+    public int orderHandle(int row) {
+        return region(slot(row)).getInt(offset(slot(row)) + ORDER_OFFSET);
+    }
+
+    @Override
+    public byte actionType(int row) {
+        return region(slot(row)).get(offset(slot(row)) + ACTION_OFFSET);
+    }
+
+    @Override
+    public byte target(int row) {
+        return region(slot(row)).get(offset(slot(row)) + TARGET_OFFSET);
+    }
+
+    @Override
+    public long heapBytes() {
+        // Only the region handles live on the heap
+        return regions.size() * 64L;
+    }
+
+    @Override
+    public long mappedBytes() {
+        long bytes = 0;
+        for (MappedByteBuffer region : regions) {
+            bytes += region.capacity();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void flush() {
+        if (channel != null) {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+        }
+    }
+
+    private void ensureSlots(long slots) {
+        if (slots > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Action ledger file is full");
+        }
+        if (channel == null) {
+            throw new IllegalStateException("Action ledger file is open read-only");
+        }
+        try {
+            while ((long) regions.size() * REGION_SLOTS < slots) {
+                regions.add(channel.map(FileChannel.MapMode.READ_WRITE, regions.size() * REGION_BYTES, REGION_BYTES));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to grow action ledger file", e);
+        }
+    }
+
+    private void write(ActionLedger.Columns rows, int firstSlot) {
+        for (int i = 0; i < rows.capacity(); i++) {
+            int slot = firstSlot + i;
+            MappedByteBuffer region = region(slot);
+            int offset = offset(slot);
+            region.putLong(offset + TIMESTAMP_OFFSET, rows.timestamps[i]);
+            region.putLong(offset + SEQUENCE_OFFSET, rows.sequences[i]);
+            region.putInt(offset + ORDER_OFFSET, rows.orderHandles[i]);
+            region.put(offset + ACTION_OFFSET, rows.actionTypes[i]);
+            region.put(offset + TARGET_OFFSET, rows.targets[i]);
+        }
+    }
+
+    private int slot(int row) {
+        return row < tailFrom ? row + 1 : tailSlot + 1 + row - tailFrom;
+    }
+
+    private MappedByteBuffer region(int slot) {
+        return regions.get(slot >>> REGION_SLOT_BITS);
+    }
+
+    private static int offset(int slot) {
+        return (slot & (REGION_SLOTS - 1)) * RECORD_BYTES;
+    }
+}
@@ -0,0 +1,197 @@
+package com.cloudkitchens.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Order id table in a memory-mapped file. Each id is appended once as a length-prefixed UTF-8 entry and its
+ * handle is the entry's file offset. Only ids of orders still in the kitchen are kept on the heap, for lookup.
+ */
+final class MappedOrderIdTable implements OrderIdTable {
+    private static final int MAGIC = 0x4B4F4944; // "KOID"
+    private static final int VERSION = 1;
+    private static final int REGION_BITS = 24;
+    private static final int REGION_BYTES = 1 << REGION_BITS;
+    private static final int MAX_ID_BYTES = 0xFFFF;
+    // Rough heap cost of a live lookup entry besides its characters: map node and table slot, boxed handle
+    private static final int LOOKUP_OVERHEAD_BYTES = 32 + 8 + 16;
+
+    // Header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int USED_OFFSET = 16;
+    private static final int HEADER_BYTES = 24;
+
+    private final FileChannel channel; // null when opened read-only
+    private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+    private final Map<String, Integer> live = new ConcurrentHashMap<>();
+    // Guarded by this
+    private long used = HEADER_BYTES;
+    private int count;
+
+    private MappedOrderIdTable(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Create an empty id file, replacing any existing one.
+     */
+    static MappedOrderIdTable create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedOrderIdTable table = new MappedOrderIdTable(channel);
+        table.ensureRegion(0);
+        MappedByteBuffer header = table.regions.get(0);
+        header.putInt(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(COUNT_OFFSET, 0);
+        header.putLong(USED_OFFSET, HEADER_BYTES);
+        return table;
+    }
+
+    /**
+     * Open an existing id file read-only.
+     */
+    static MappedOrderIdTable open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                throw new IOException("Not an order id file: " + file);
+            }
+            MappedOrderIdTable table = new MappedOrderIdTable(null);
+            for (long position = 0; position < length; position += REGION_BYTES) {
+                table.regions.add(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                              Math.min(REGION_BYTES, length - position)));
+            }
+            MappedByteBuffer header = table.regions.get(0);
+            if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IOException("Not an order id file: " + file);
+            }
+            table.count = header.getInt(COUNT_OFFSET);
+            table.used = header.getLong(USED_OFFSET);
+            return table;
+        }
+    }
+
+    @Override
+    public int intern(String orderId) {
+        Integer handle = live.get(orderId);
+        if (handle != null) {
+            return handle;
+        }
+        synchronized (this) {
+            handle = live.get(orderId);
+            if (handle != null) {
+                return handle;
+            }
+            byte[] bytes = orderId.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_ID_BYTES) {
+                throw new IllegalArgumentException("Order id too long: " + bytes.length + " bytes");
+            }
+            int entryBytes = 2 + bytes.length;
+            long position = used;
+            if ((position & (REGION_BYTES - 1)) + entryBytes > REGION_BYTES) {
+                // Entries never straddle regions
+                position = (position | (REGION_BYTES - 1)) + 1;
+            }
+            if (position + entryBytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Order id file is full");
+            }
+            MappedByteBuffer region = ensureRegion((int) (position >>> REGION_BITS));
+            ByteBuffer entry = region.duplicate();
+            entry.position((int) (position & (REGION_BYTES - 1)));
+            entry.putShort((short) bytes.length);
+            entry.put(bytes);
+
+            used = position + entryBytes;
+            count++;
+            MappedByteBuffer header = regions.get(0);
+            header.putInt(COUNT_OFFSET, count);
+            header.putLong(USED_OFFSET, used);
+            live.put(orderId, (int) position);
+            return (int) position;
+        }
+    }
+
+    @Override
+    public String get(int handle) {
+        ByteBuffer entry = regions.get(handle >>> REGION_BITS).duplicate();
+        entry.position(handle & (REGION_BYTES - 1));
+        byte[] bytes = new byte[entry.getShort() & 0xFFFF];
+        entry.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void release(String orderId) {
+        live.remove(orderId);
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public long estimateHeapBytes() {
+        long bytes = regions.size() * 64L;
+        for (String orderId : live.keySet()) {
+            bytes += LOOKUP_OVERHEAD_BYTES + 24 + 16 + orderId.length() * 2L;
+        }
+        return bytes;
+    }
+
+    @Override
+    public long mappedBytes() {
+        long bytes = 0;
+        for (MappedByteBuffer region : regions) {
+            bytes += region.capacity();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void flush() {
+        if (channel != null) {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Region by index, mapping regions up to it if needed. Caller holds the lock.
+     */
+    private MappedByteBuffer ensureRegion(int index) {
+        if (channel == null) {
+            throw new IllegalStateException("Order id file is open read-only");
+        }
+        try {
+            while (regions.size() <= index) {
+                regions.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) regions.size() * REGION_BYTES, REGION_BYTES));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to grow order id file", e);
+        }
+        return regions.get(index);
+    }
+}
@@ -0,0 +1,39 @@
+package com.cloudkitchens.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interns order ids as int handles, so each id string is stored once however many actions refer to it.
+ */
+interface OrderIdTable extends Closeable {
+
+    int intern(String orderId);
+
+    /**
+     * Order id for a handle returned by {@link #intern(String)}. Handles stay valid after the id is released.
+     */
+    String get(int handle);
+
+    /**
+     * Stop tracking an id that will see no more actions. If it does come back it gets a new handle.
+     */
+    void release(String orderId);
+
+    /**
+     * Number of ids stored.
+     */
+    int size();
+
+    /**
+     * Force ids interned so far to disk, if the table has a file.
+     */
+    void flush();
+
+    long estimateHeapBytes();
+
+    long mappedBytes();
+
+    @Override
+    void close() throws IOException;
+}
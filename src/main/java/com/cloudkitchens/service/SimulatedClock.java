@@ -0,0 +1,118 @@
+package com.cloudkitchens.service;
+
+import java.util.PriorityQueue;
+
+/**
+ * Discrete-event clock: virtual time only moves when the caller advances it, and scheduled tasks
+ * run on the advancing thread in timestamp order (ties in scheduling order), as fast as the CPU allows.
+ * Advancing to a time first runs every task due at or before it, so work scheduled for a timestamp
+ * happens before whatever the caller does at that same timestamp. Repeating tasks run at virtual
+ * intervals the same way, but do not keep the clock busy.
+ */
+public class SimulatedClock implements KitchenClock {
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long nowMicros;
+    private long nextSequence;
+    private int pendingOnce; // scheduled tasks that are not repeats
+
+    public SimulatedClock(long startMicros) {
+        this.nowMicros = startMicros;
+    }
+
+    @Override
+    public synchronized long nowMicros() {
+        return nowMicros;
+    }
+
+    @Override
+    public void sleepUntil(long timestampMicros) {
+        runUntil(timestampMicros, false);
+        synchronized (this) {
+            nowMicros = Math.max(nowMicros, timestampMicros);
+        }
+    }
+
+    @Override
+    public synchronized void schedule(long timestampMicros, Runnable task) {
+        events.add(new Event(timestampMicros, nextSequence++, task, 0));
+        pendingOnce++;
+    }
+
+    /**
+     * Run a task every interval of virtual time, the first time one interval from now, until shutdown.
+     * Repeats are housekeeping rather than pending work: {@link #runUntilIdle()} returns once only they are left.
+     */
+    public synchronized void scheduleRepeating(long intervalMicros, Runnable task) {
+        if (intervalMicros <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalMicros);
+        }
+        events.add(new Event(nowMicros + intervalMicros, nextSequence++, task, intervalMicros));
+    }
+
+    /**
+     * Run scheduled tasks, including any they schedule, until none are left other than repeating ones.
+     *
+     * @return the number of tasks run
+     */
+    public int runUntilIdle() {
+        return runUntil(Long.MAX_VALUE, true);
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        events.clear();
+        pendingOnce = 0;
+    }
+
+    /**
+     * @param untilIdle whether to stop as soon as only repeating tasks are left
+     */
+    private int runUntil(long timestampMicros, boolean untilIdle) {
+        int ran = 0;
+        while (true) {
+            Event event;
+            synchronized (this) {
+                event = events.peek();
+                if (event == null || event.timestampMicros > timestampMicros || (untilIdle && pendingOnce == 0)) {
+                    return ran;
+                }
+                events.poll();
+                nowMicros = Math.max(nowMicros, event.timestampMicros);
+                if (event.intervalMicros > 0) {
+                    events.add(new Event(event.timestampMicros + event.intervalMicros, nextSequence++, event.task,
+                                         event.intervalMicros));
+                } else {
+                    pendingOnce--;
+                }
+            }
+            // Run outside the lock so the task can schedule follow-up events
+            event.task.run();
+            ran++;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final long timestampMicros;
+        private final long sequence;
+        private final Runnable task;
+        private final long intervalMicros; // 0 unless the task repeats
+
+        Event(long timestampMicros, long sequence, Runnable task, long intervalMicros) {
+            this.timestampMicros = timestampMicros;
+            this.sequence = sequence;
+            this.task = task;
+            this.intervalMicros = intervalMicros;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(timestampMicros, other.timestampMicros);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.cloudkitchens.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock time. Scheduled tasks are kept in a millisecond timing wheel; the tasks due on each tick
+ * run together, in deadline order, on a single dispatch thread, so they should be short.
+ */
+public class SystemClock implements KitchenClock {
+    private static final long TICK_MICROS = 1_000;
+
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "clock-dispatcher"));
+    private final TimingWheel timingWheel = new TimingWheel("clock-timing-wheel", TICK_MICROS, this::nowMicros, dispatcher);
+
+    @Override
+    public long nowMicros() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    @Override
+    public void sleepUntil(long timestampMicros) throws InterruptedException {
+        long remainingMillis = (timestampMicros - nowMicros()) / 1000;
+        if (remainingMillis > 0) {
+            Thread.sleep(remainingMillis);
+        }
+    }
+
+    @Override
+    public void schedule(long timestampMicros, Runnable task) {
+        timingWheel.schedule(timestampMicros, task);
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return true;
+    }
+
+    /**
+     * Scheduling activity and how late scheduled tasks started.
+     */
+    public TimerStats getTimerStats() {
+        return timingWheel.getStats();
+    }
+
+    @Override
+    public void shutdown() {
+        timingWheel.stop();
+        dispatcher.shutdown();
+        try {
+            if (!dispatcher.awaitTermination(5, TimeUnit.SECONDS)) {
+                dispatcher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatcher.shutdownNow();
+        }
+    }
+}
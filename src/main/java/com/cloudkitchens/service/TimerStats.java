@@ -0,0 +1,83 @@
+package com.cloudkitchens.service;
+
+/**
+ * Snapshot of a timing wheel's activity and how late its timers fired.
+ */
+public class TimerStats {
+    private final long fired;
+    private final long cancelled;
+    private final int pending;
+    private final long batches;
+    private final long largestBatch;
+    private final long totalLatenessMicros;
+    private final long maxLatenessMicros;
+    private final long[] latenessHistogram;
+
+    public TimerStats(long fired, long cancelled, int pending, long batches, long largestBatch,
+                      long totalLatenessMicros, long maxLatenessMicros, long[] latenessHistogram) {
+        this.fired = fired;
+        this.cancelled = cancelled;
+        this.pending = pending;
+        this.batches = batches;
+        this.largestBatch = largestBatch;
+        this.totalLatenessMicros = totalLatenessMicros;
+        this.maxLatenessMicros = maxLatenessMicros;
+        this.latenessHistogram = latenessHistogram.clone();
+    }
+
+    public long getFired() {
+        return fired;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Number of ticks that fired at least one timer.
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getLargestBatch() {
+        return largestBatch;
+    }
+
+    public long getMeanLatenessMicros() {
+        return fired == 0 ? 0 : totalLatenessMicros / fired;
+    }
+
+    public long getMaxLatenessMicros() {
+        return maxLatenessMicros;
+    }
+
+    /**
+     * Upper bound on the lateness of the given fraction of timers, to the nearest power of two.
+     *
+     * @param quantile between 0 and 1, e.g. 0.99
+     */
+    public long getLatenessPercentileMicros(double quantile) {
+        long target = (long) Math.ceil(quantile * fired);
+        long seen = 0;
+        for (int bucket = 0; bucket < latenessHistogram.length; bucket++) {
+            seen += latenessHistogram[bucket];
+            if (seen >= target && seen > 0) {
+                return bucket == 0 ? 0 : Math.min(maxLatenessMicros, (1L << bucket) - 1);
+            }
+        }
+        return maxLatenessMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimerStats{fired=%d, cancelled=%d, pending=%d, batches=%d, largestBatch=%d, " +
+                             "lateness mean=%dus p50<=%dus p99<=%dus max=%dus}",
+                             fired, cancelled, pending, batches, largestBatch, getMeanLatenessMicros(),
+                             getLatenessPercentileMicros(0.5), getLatenessPercentileMicros(0.99), maxLatenessMicros);
+    }
+}
@@ -0,0 +1,270 @@
+package com.cloudkitchens.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical timing wheel: O(1) schedule and cancel for large numbers of timers.
+ * Four levels of 64 slots each cover 64^4 ticks; a timer lives in the level matching how far away
+ * it is and cascades down a level each time the level below wraps, as in the Linux kernel timer wheel.
+ * Timers further out than the top level are parked in it and re-filed when it cascades.
+ * A single ticker thread advances the wheel; all timers that expire on the same tick are handed
+ * to the dispatcher as one batch and run in deadline order. Fire lateness is recorded per timer.
+ */
+public class TimingWheel {
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN_TICKS = 1L << (BITS * LEVELS);
+    private static final int SKEW_BUCKETS = 64;
+
+    private final long tickMicros;
+    private final LongSupplier clock;
+    private final Executor dispatcher;
+    // Sentinel heads of the circular doubly linked slot lists, indexed [level][slot]
+    private final Timeout[][] wheel = new Timeout[LEVELS][SLOTS];
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    // Guarded by this
+    private long currentTick;
+    private int pending;
+
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final AtomicLong totalLatenessMicros = new AtomicLong();
+    private final AtomicLong maxLatenessMicros = new AtomicLong();
+    // Bucket i counts timers that fired between 2^(i-1) and 2^i - 1 microseconds late (bucket 0: on time)
+    private final AtomicLongArray latenessHistogram = new AtomicLongArray(SKEW_BUCKETS);
+
+    /**
+     * @param tickMicros timer resolution
+     * @param clock current time in microseconds, on the same timeline as deadlines
+     * @param dispatcher runs each tick's batch of expired timers
+     */
+    public TimingWheel(String name, long tickMicros, LongSupplier clock, Executor dispatcher) {
+        if (tickMicros <= 0) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickMicros);
+        }
+        this.tickMicros = tickMicros;
+        this.clock = clock;
+        this.dispatcher = dispatcher;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timeout head = new Timeout(0, null);
+                head.next = head;
+                head.prev = head;
+                wheel[level][slot] = head;
+            }
+        }
+        this.currentTick = clock.getAsLong() / tickMicros;
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Run a task at the given time, or on the next tick if that time has passed. O(1)
+     */
+    public Timeout schedule(long deadlineMicros, Runnable task) {
+        Timeout timeout = new Timeout(deadlineMicros, task);
+        synchronized (this) {
+            if (!running) {
+                throw new IllegalStateException("Timing wheel has been stopped");
+            }
+            file(timeout);
+            pending++;
+        }
+        return timeout;
+    }
+
+    /**
+     * Stop the ticker thread. Timers that have not fired yet are dropped.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public TimerStats getStats() {
+        long[] histogram = new long[SKEW_BUCKETS];
+        for (int i = 0; i < SKEW_BUCKETS; i++) {
+            histogram[i] = latenessHistogram.get(i);
+        }
+        return new TimerStats(fired.get(), cancelled.get(), getPendingCount(), batches.get(), largestBatch.get(),
+                              totalLatenessMicros.get(), maxLatenessMicros.get(), histogram);
+    }
+
+    private void run() {
+        while (running) {
+            List<Timeout> expired = advance(clock.getAsLong() / tickMicros);
+            if (!expired.isEmpty()) {
+                dispatch(expired);
+            }
+            long untilNextTick = tickMicros - Math.floorMod(clock.getAsLong(), tickMicros);
+            LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(untilNextTick));
+        }
+        logger.info("Timing wheel {} stopped", ticker.getName());
+    }
+
+    /**
+     * Advance through every tick up to and including targetTick, collecting the timers that expire.
+     */
+    private synchronized List<Timeout> advance(long targetTick) {
+        List<Timeout> expired = new ArrayList<>();
+        if (pending == 0) {
+            // Nothing filed anywhere, so there is nothing to cascade or fire on the way
+            currentTick = Math.max(currentTick, targetTick + 1);
+            return expired;
+        }
+        while (currentTick <= targetTick) {
+            int slot = (int) (currentTick & MASK);
+            if (slot == 0) {
+                // The level below wrapped: re-file the next slot of each higher level
+                for (int level = 1; level < LEVELS; level++) {
+                    int index = (int) ((currentTick >>> (BITS * level)) & MASK);
+                    cascade(level, index);
+                    if (index != 0) {
+                        break;
+                    }
+                }
+            }
+            Timeout head = wheel[0][slot];
+            while (head.next != head) {
+                Timeout timeout = head.next;
+                unlink(timeout);
+                pending--;
+                expired.add(timeout);
+            }
+            currentTick++;
+        }
+        return expired;
+    }
+
+    private void cascade(int level, int index) {
+        Timeout head = wheel[level][index];
+        while (head.next != head) {
+            Timeout timeout = head.next;
+            unlink(timeout);
+            file(timeout);
+        }
+    }
+
+    /**
+     * Place a timer in the level and slot for its deadline relative to the current tick. Caller holds the lock.
+     */
+    private void file(Timeout timeout) {
+        long deadlineTick = Math.max(ceilDiv(timeout.deadlineMicros, tickMicros), currentTick);
+        long delta = deadlineTick - currentTick;
+        if (delta >= MAX_SPAN_TICKS) {
+            // Beyond the wheel: park in the furthest top-level slot and re-file when it cascades
+            deadlineTick = currentTick + MAX_SPAN_TICKS - 1;
+            delta = MAX_SPAN_TICKS - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((deadlineTick >>> (BITS * level)) & MASK);
+        Timeout head = wheel[level][slot];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+    }
+
+    private void dispatch(List<Timeout> expired) {
+        batches.incrementAndGet();
+        largestBatch.accumulateAndGet(expired.size(), Math::max);
+        expired.sort((a, b) -> Long.compare(a.deadlineMicros, b.deadlineMicros));
+        dispatcher.execute(() -> {
+            for (Timeout timeout : expired) {
+                recordLateness(clock.getAsLong() - timeout.deadlineMicros);
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Timer task failed", e);
+                }
+            }
+        });
+    }
+
+    private void recordLateness(long latenessMicros) {
+        long late = Math.max(0, latenessMicros);
+        fired.incrementAndGet();
+        totalLatenessMicros.addAndGet(late);
+        maxLatenessMicros.accumulateAndGet(late, Math::max);
+        latenessHistogram.incrementAndGet(late == 0 ? 0 : 64 - Long.numberOfLeadingZeros(late));
+    }
+
+    private static void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.next = null;
+        timeout.prev = null;
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return -Math.floorDiv(-value, divisor);
+    }
+
+    /**
+     * Handle to a scheduled timer.
+     */
+    public final class Timeout {
+        private final long deadlineMicros;
+        private final Runnable task;
+        // Guarded by the wheel's lock; null once fired or cancelled
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(long deadlineMicros, Runnable task) {
+            this.deadlineMicros = deadlineMicros;
+            this.task = task;
+        }
+
+        public long getDeadlineMicros() {
+            return deadlineMicros;
+        }
+
+        /**
+         * Cancel the timer if it has not fired yet. O(1)
+         *
+         * @return false if the timer already fired or was cancelled
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (next == null) {
+                    return false;
+                }
+                unlink(this);
+                pending--;
+            }
+            cancelled.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.cloudkitchens.storage;
+
+/**
+ * What one {@link StorageManager#checkpoint} wrote, and how long it took.
+ */
+public class CheckpointStats {
+    private final int ordersInStorage;
+    private final int retainedPlacements;
+    private final int retainedScheduledPickups;
+    private final int retainedTimelineEvents;
+    private final int ledgerActions;
+    private final long fileBytes;
+    private final long walBytes;
+    private final long pauseNanos;
+    private final long totalNanos;
+
+    public CheckpointStats(int ordersInStorage, int retainedPlacements, int retainedScheduledPickups,
+                           int retainedTimelineEvents, int ledgerActions, long fileBytes, long walBytes,
+                           long pauseNanos, long totalNanos) {
+        this.ordersInStorage = ordersInStorage;
+        this.retainedPlacements = retainedPlacements;
+        this.retainedScheduledPickups = retainedScheduledPickups;
+        this.retainedTimelineEvents = retainedTimelineEvents;
+        this.ledgerActions = ledgerActions;
+        this.fileBytes = fileBytes;
+        this.walBytes = walBytes;
+        this.pauseNanos = pauseNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    public int getOrdersInStorage() {
+        return ordersInStorage;
+    }
+
+    public int getRetainedPlacements() {
+        return retainedPlacements;
+    }
+
+    public int getRetainedScheduledPickups() {
+        return retainedScheduledPickups;
+    }
+
+    public int getRetainedTimelineEvents() {
+        return retainedTimelineEvents;
+    }
+
+    public int getLedgerActions() {
+        return ledgerActions;
+    }
+
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * Length of the write-ahead log the checkpoint covers; recovery replays only the records after it.
+     */
+    public long getWalBytes() {
+        return walBytes;
+    }
+
+    /**
+     * Time until the state and the ledger were written: storage operations wait for the state, and a caller that
+     * holds back its own operations to keep the ledger fixed waits for both.
+     */
+    public long getPauseNanos() {
+        return pauseNanos;
+    }
+
+    /**
+     * Time until the checkpoint was on disk and in place, the pause included.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CheckpointStats{inStorage=%d, placements=%d, scheduledPickups=%d, timelineEvents=%d, " +
+                             "ledgerActions=%d, bytes=%d, walBytes=%d, pause=%.1fms, total=%.1fms}",
+                             ordersInStorage, retainedPlacements, retainedScheduledPickups, retainedTimelineEvents,
+                             ledgerActions, fileBytes, walBytes, pauseNanos / 1e6, totalNanos / 1e6);
+    }
+}
@@ -0,0 +1,171 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageLocation;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap of storage locations keyed by absolute spoil deadline.
+ * Every location records its own position in the heap, so removal and key updates are O(log n)
+ * instead of the O(n) search PriorityQueue.remove needs. Keys do not change over time, so the
+ * minimum is always the order that spoils first. Ties are broken by insertion sequence, which callers
+ * splitting one logical queue across several heaps can supply themselves to keep a single ordering.
+ * A location can be in at most one heap at a time. Not thread-safe.
+ */
+public class DeadlineHeap {
+    private StorageLocation[] locations = new StorageLocation[16];
+    private long[] deadlines = new long[16];
+    private long[] sequences = new long[16];
+    private int size;
+    private long nextSequence;
+
+    /**
+     * Add a location with its spoil deadline. O(log n)
+     */
+    public void add(StorageLocation location, long deadlineMicros) {
+        add(location, deadlineMicros, nextSequence++);
+    }
+
+    /**
+     * Add a location with its spoil deadline and an explicit tie-break sequence. O(log n)
+     */
+    public void add(StorageLocation location, long deadlineMicros, long sequence) {
+        if (location.getHeapIndex() != -1) {
+            throw new IllegalStateException("Location is already queued: " + location);
+        }
+        if (size == locations.length) {
+            int capacity = size * 2;
+            locations = Arrays.copyOf(locations, capacity);
+            deadlines = Arrays.copyOf(deadlines, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+        }
+        int index = size++;
+        set(index, location, deadlineMicros, sequence);
+        siftUp(index);
+    }
+
+    /**
+     * Remove a location. O(log n)
+     *
+     * @return false if the location is not in this heap
+     */
+    public boolean remove(StorageLocation location) {
+        int index = location.getHeapIndex();
+        if (index < 0 || index >= size || locations[index] != location) {
+            return false;
+        }
+        int last = --size;
+        if (index != last) {
+            set(index, locations[last], deadlines[last], sequences[last]);
+            locations[last] = null;
+            if (!siftUp(index)) {
+                siftDown(index);
+            }
+        } else {
+            locations[last] = null;
+        }
+        location.setHeapIndex(-1);
+        return true;
+    }
+
+    /**
+     * Change the deadline of a queued location, keeping its tie-break position. O(log n)
+     */
+    public void update(StorageLocation location, long deadlineMicros) {
+        int index = location.getHeapIndex();
+        if (index < 0 || index >= size || locations[index] != location) {
+            throw new IllegalArgumentException("Location is not in this heap: " + location);
+        }
+        deadlines[index] = deadlineMicros;
+        if (!siftUp(index)) {
+            siftDown(index);
+        }
+    }
+
+    /**
+     * The location with the earliest deadline, or null if empty. O(1)
+     */
+    public StorageLocation peek() {
+        return size == 0 ? null : locations[0];
+    }
+
+    /**
+     * The earliest deadline, or Long.MAX_VALUE if empty. O(1)
+     */
+    public long peekDeadline() {
+        return size == 0 ? Long.MAX_VALUE : deadlines[0];
+    }
+
+    /**
+     * Tie-break sequence of the earliest location, or Long.MAX_VALUE if empty. O(1)
+     */
+    public long peekSequence() {
+        return size == 0 ? Long.MAX_VALUE : sequences[0];
+    }
+
+    /**
+     * The location at a heap position (0 until size), in no particular order.
+     */
+    public StorageLocation get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return locations[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private boolean siftUp(int index) {
+        int start = index;
+        StorageLocation location = locations[index];
+        long deadline = deadlines[index];
+        long sequence = sequences[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(deadline, sequence, deadlines[parent], sequences[parent])) {
+                break;
+            }
+            set(index, locations[parent], deadlines[parent], sequences[parent]);
+            index = parent;
+        }
+        set(index, location, deadline, sequence);
+        return index != start;
+    }
+
+    private void siftDown(int index) {
+        StorageLocation location = locations[index];
+        long deadline = deadlines[index];
+        long sequence = sequences[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && less(deadlines[right], sequences[right], deadlines[child], sequences[child])) {
+                child = right;
+            }
+            if (!less(deadlines[child], sequences[child], deadline, sequence)) {
+                break;
+            }
+            set(index, locations[child], deadlines[child], sequences[child]);
+            index = child;
+        }
+        set(index, location, deadline, sequence);
+    }
+
+    private void set(int index, StorageLocation location, long deadline, long sequence) {
+        locations[index] = location;
+        deadlines[index] = deadline;
+        sequences[index] = sequence;
+        location.setHeapIndex(index);
+    }
+
+    private static boolean less(long deadlineA, long sequenceA, long deadlineB, long sequenceB) {
+        return deadlineA < deadlineB || (deadlineA == deadlineB && sequenceA < sequenceB);
+    }
+}
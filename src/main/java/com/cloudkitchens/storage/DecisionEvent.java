@@ -0,0 +1,158 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageType;
+
+/**
+ * One storage decision read back from a {@link DecisionJournal}.
+ */
+public class DecisionEvent {
+
+    /**
+     * Record kinds; the ordinal is the kind byte in the journal, so only append new kinds.
+     */
+    public enum Kind {
+        ORDER_ID,
+        CAPACITY_CHECK,
+        PLACE,
+        MOVE_CHOICE,
+        DISCARD_CHOICE,
+        MOVE,
+        PICKUP,
+        DISCARD
+    }
+
+    private final long sequence;
+    private final long timestampMicros;
+    private final Kind kind;
+    private final String orderId;
+    private final StorageType storage;
+    private final StorageType target;
+    private final int flag;
+    private final int size;
+    private final int capacity;
+    private final long spoilsInMicros;
+
+    public DecisionEvent(long sequence, long timestampMicros, Kind kind, String orderId, StorageType storage,
+                         StorageType target, int flag, int size, int capacity, long spoilsInMicros) {
+        this.sequence = sequence;
+        this.timestampMicros = timestampMicros;
+        this.kind = kind;
+        this.orderId = orderId;
+        this.storage = storage;
+        this.target = target;
+        this.flag = flag;
+        this.size = size;
+        this.capacity = capacity;
+        this.spoilsInMicros = spoilsInMicros;
+    }
+
+    /**
+     * Position of the record in the journal, order id records included.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Storage checked, placed into, chosen from, picked up from or discarded from; the source of a move.
+     */
+    public StorageType getStorage() {
+        return storage;
+    }
+
+    /**
+     * Destination of a move or move choice, otherwise null.
+     */
+    public StorageType getTarget() {
+        return target;
+    }
+
+    /**
+     * For a capacity check, whether there was room.
+     */
+    public boolean hasCapacity() {
+        return flag == 1;
+    }
+
+    /**
+     * For a discard, whether the order was found spoiled at pickup rather than discarded to make room.
+     */
+    public boolean isSpoiledDiscard() {
+        return flag == DecisionJournal.DISCARD_SPOILED;
+    }
+
+    /**
+     * Effective size of the storage for capacity checks and placements; orders on the shelf for choices.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Time until the order spoils where it is, negative once spoiled. Zero for capacity checks.
+     */
+    public long getSpoilsInMicros() {
+        return spoilsInMicros;
+    }
+
+    /**
+     * One timeline line, such as {@code 1700000000123456 abc12 discard-choice shelf (12 on shelf), spoils in 3.2s}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder().append(timestampMicros).append(' ').append(orderId).append(' ');
+        switch (kind) {
+            case CAPACITY_CHECK:
+                line.append("capacity-check ").append(storage.getValue()).append(' ').append(size).append('/')
+                    .append(capacity).append(hasCapacity() ? ", has room" : ", full");
+                return line.toString();
+            case PLACE:
+                line.append("place ").append(storage.getValue()).append(" (now ").append(size).append('/')
+                    .append(capacity).append(')');
+                break;
+            case MOVE_CHOICE:
+                line.append("move-choice ").append(storage.getValue()).append(" -> ").append(target.getValue())
+                    .append(" (").append(size).append(" on ").append(storage.getValue()).append(')');
+                break;
+            case DISCARD_CHOICE:
+                line.append("discard-choice ").append(storage.getValue()).append(" (").append(size).append(" on ")
+                    .append(storage.getValue()).append(')');
+                break;
+            case MOVE:
+                line.append("move ").append(storage.getValue()).append(" -> ").append(target.getValue());
+                break;
+            case PICKUP:
+                line.append("pickup ").append(storage.getValue());
+                break;
+            case DISCARD:
+                line.append("discard ").append(storage.getValue())
+                    .append(isSpoiledDiscard() ? " (spoiled at pickup)" : " (to make room)");
+                break;
+            default:
+                line.append(kind);
+                return line.toString();
+        }
+        if (spoilsInMicros > 0) {
+            line.append(String.format(", spoils in %.1fs", spoilsInMicros / 1e6));
+        } else {
+            line.append(String.format(", spoiled %.1fs ago", -spoilsInMicros / 1e6));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,339 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.StorageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Binary journal of storage decisions for post-mortems: capacity checks, placements, move and discard choices
+ * with the chosen order's freshness, moves, pickups and discards. Each decision is one fixed-size record, written
+ * into a preallocated ring buffer by the deciding thread and appended to the journal file by one background
+ * thread, so recording a decision costs a few stores and no formatting. Order ids are written once, as
+ * {@link DecisionEvent.Kind#ORDER_ID} records, and referred to by int handle after that.
+ * Writers wait for the flusher when the ring is full rather than drop records.
+ * Read a journal back with {@link DecisionJournalReader}.
+ */
+public final class DecisionJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DecisionJournal.class);
+
+    static final int MAGIC = 0x4B444A4C; // "KDJL"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 32;
+    public static final int DEFAULT_RING_SLOTS = 1 << 16;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    // Record fields
+    static final int TIMESTAMP_OFFSET = 0;
+    static final int ORDER_OFFSET = 8;
+    static final int KIND_OFFSET = 12;
+    static final int STORAGE_OFFSET = 13;   // ORDER_ID: bytes of the id in this record
+    static final int TARGET_OFFSET = 14;    // ORDER_ID: 1 on the last record of the id
+    static final int FLAG_OFFSET = 15;
+    static final int SIZE_OFFSET = 16;      // ORDER_ID: id bytes from here to the end of the record
+    static final int CAPACITY_OFFSET = 20;
+    static final int SPOILS_IN_OFFSET = 24;
+    static final int ID_CHUNK_BYTES = RECORD_BYTES - SIZE_OFFSET;
+
+    // Flag values
+    static final byte NO_STORAGE = -1;
+    static final byte DISCARD_TO_MAKE_ROOM = 0;
+    static final byte DISCARD_SPOILED = 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer ring;
+    private final int mask;
+    // Sequence of the record in each slot once it is fully written; -1 before the first
+    private final AtomicLongArray published;
+    // Records claimed so far; close() adds CLOSED, so claims after it see a negative count and fail
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long flushed;
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    private final AtomicInteger nextHandle = new AtomicInteger();
+    private final AtomicLong stalls = new AtomicLong();
+    private final Thread flusher;
+    // Records claimed before close(), which the flusher writes out before it stops; -1 while open
+    private volatile long closedAt = -1;
+    private volatile IOException failure;
+
+    private DecisionJournal(FileChannel channel, int ringSlots) {
+        this.channel = channel;
+        this.ring = ByteBuffer.allocateDirect(ringSlots * RECORD_BYTES);
+        this.mask = ringSlots - 1;
+        this.published = new AtomicLongArray(ringSlots);
+        for (int i = 0; i < ringSlots; i++) {
+            published.set(i, -1);
+        }
+        this.flusher = new Thread(this::run, "decision-journal");
+        flusher.setDaemon(true);
+    }
+
+    public static DecisionJournal create(Path file) throws IOException {
+        return create(file, DEFAULT_RING_SLOTS);
+    }
+
+    /**
+     * Create an empty journal file, replacing any existing one, and start its flusher thread.
+     *
+     * @param ringSlots records buffered in memory; a power of two
+     */
+    public static DecisionJournal create(Path file, int ringSlots) throws IOException {
+        if (ringSlots <= 0 || Integer.bitCount(ringSlots) != 1 || ringSlots > (1 << 24)) {
+            throw new IllegalArgumentException("Ring slots must be a power of two up to 2^24: " + ringSlots);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        DecisionJournal journal = new DecisionJournal(channel, ringSlots);
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * A capacity check of a storage before placing or moving an order into it.
+     */
+    void capacityCheck(long timestampMicros, String orderId, StorageType storageType, int size, int capacity,
+                       boolean hasCapacity) {
+        record(timestampMicros, handle(orderId, timestampMicros), DecisionEvent.Kind.CAPACITY_CHECK,
+               storageType, null, (byte) (hasCapacity ? 1 : 0), size, capacity, 0);
+    }
+
+    void place(long timestampMicros, StorageLocation location, int size, int capacity) {
+        record(timestampMicros, handle(location.getOrder().getId(), timestampMicros), DecisionEvent.Kind.PLACE,
+               location.getStorageType(), null, (byte) 0, size, capacity,
+               location.getSpoilDeadlineMicros() - timestampMicros);
+    }
+
+    /**
+     * The order chosen to make room by moving it from the shelf, out of {@code candidates} on the shelf.
+     */
+    void moveChoice(long timestampMicros, StorageLocation chosen, StorageType target, int candidates) {
+        record(timestampMicros, handle(chosen.getOrder().getId(), timestampMicros), DecisionEvent.Kind.MOVE_CHOICE,
+               chosen.getStorageType(), target, (byte) 0, candidates, 0,
+               chosen.getSpoilDeadlineMicros() - timestampMicros);
+    }
+
+    /**
+     * The order chosen to make room by discarding it, out of {@code candidates} on the shelf.
+     */
+    void discardChoice(long timestampMicros, StorageLocation chosen, int candidates) {
+        record(timestampMicros, handle(chosen.getOrder().getId(), timestampMicros), DecisionEvent.Kind.DISCARD_CHOICE,
+               chosen.getStorageType(), null, (byte) 0, candidates, 0,
+               chosen.getSpoilDeadlineMicros() - timestampMicros);
+    }
+
+    /**
+     * @param to the order's new location
+     */
+    void move(long timestampMicros, StorageType from, StorageLocation to) {
+        record(timestampMicros, handle(to.getOrder().getId(), timestampMicros), DecisionEvent.Kind.MOVE,
+               from, to.getStorageType(), (byte) 0, 0, 0, to.getSpoilDeadlineMicros() - timestampMicros);
+    }
+
+    void pickup(long timestampMicros, StorageLocation location) {
+        record(timestampMicros, handle(location.getOrder().getId(), timestampMicros), DecisionEvent.Kind.PICKUP,
+               location.getStorageType(), null, (byte) 0, 0, 0, location.getSpoilDeadlineMicros() - timestampMicros);
+        handles.remove(location.getOrder().getId());
+    }
+
+    /**
+     * @param spoiled whether the order was found spoiled at pickup rather than discarded to make room
+     */
+    void discard(long timestampMicros, StorageLocation location, boolean spoiled) {
+        record(timestampMicros, handle(location.getOrder().getId(), timestampMicros), DecisionEvent.Kind.DISCARD,
+               location.getStorageType(), null, spoiled ? DISCARD_SPOILED : DISCARD_TO_MAKE_ROOM, 0, 0,
+               location.getSpoilDeadlineMicros() - timestampMicros);
+        handles.remove(location.getOrder().getId());
+    }
+
+    /**
+     * Records written to the ring so far, order id records included.
+     */
+    public long getRecords() {
+        long records = closedAt;
+        return records >= 0 ? records : claimed.get();
+    }
+
+    /**
+     * Times a writer found the ring full and had to wait for the flusher.
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    /**
+     * Write out every buffered record, stop the flusher and close the file.
+     *
+     * @throws IOException if writing the journal failed, now or earlier in the background
+     */
+    @Override
+    public void close() throws IOException {
+        long records;
+        do {
+            records = claimed.get();
+            if (records < 0) {
+                return;
+            }
+        } while (!claimed.compareAndSet(records, records | CLOSED));
+        closedAt = records;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure == null) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+        }
+        logger.info("Decision journal closed: {} records, {} ring-full stalls", records, stalls.get());
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Handle for an order id, writing the id to the journal the first time it is seen. An id is forgotten once
+     * its order is picked up or discarded.
+     */
+    private int handle(String orderId, long timestampMicros) {
+        Integer handle = handles.get(orderId);
+        if (handle != null) {
+            return handle;
+        }
+        // The id goes into the ring before its handle is shared, so every record using the handle comes after it.
+        // Claims can wait for the flusher, so they are not made under the map's lock; a thread that loses the race
+        // leaves an id record for a handle nothing uses
+        int newHandle = nextHandle.getAndIncrement();
+        byte[] bytes = orderId.getBytes(StandardCharsets.UTF_8);
+        int from = 0;
+        do {
+            int length = Math.min(ID_CHUNK_BYTES, bytes.length - from);
+            long sequence = claim();
+            int offset = (int) (sequence & mask) * RECORD_BYTES;
+            ring.putLong(offset + TIMESTAMP_OFFSET, timestampMicros);
+            ring.putInt(offset + ORDER_OFFSET, newHandle);
+            ring.put(offset + KIND_OFFSET, (byte) DecisionEvent.Kind.ORDER_ID.ordinal());
+            ring.put(offset + STORAGE_OFFSET, (byte) length);
+            ring.put(offset + TARGET_OFFSET, (byte) (from + length == bytes.length ? 1 : 0));
+            for (int i = 0; i < length; i++) {
+                ring.put(offset + SIZE_OFFSET + i, bytes[from + i]);
+            }
+            publish(sequence);
+            from += length;
+        } while (from < bytes.length);
+        handle = handles.putIfAbsent(orderId, newHandle);
+        return handle != null ? handle : newHandle;
+    }
+
+    private void record(long timestampMicros, int handle, DecisionEvent.Kind kind, StorageType storageType,
+                        StorageType target, byte flag, int size, int capacity, long spoilsInMicros) {
+        long sequence = claim();
+        int offset = (int) (sequence & mask) * RECORD_BYTES;
+        ring.putLong(offset + TIMESTAMP_OFFSET, timestampMicros);
+        ring.putInt(offset + ORDER_OFFSET, handle);
+        ring.put(offset + KIND_OFFSET, (byte) kind.ordinal());
+        ring.put(offset + STORAGE_OFFSET, storageType != null ? (byte) storageType.ordinal() : NO_STORAGE);
+        ring.put(offset + TARGET_OFFSET, target != null ? (byte) target.ordinal() : NO_STORAGE);
+        ring.put(offset + FLAG_OFFSET, flag);
+        ring.putInt(offset + SIZE_OFFSET, size);
+        ring.putInt(offset + CAPACITY_OFFSET, capacity);
+        ring.putLong(offset + SPOILS_IN_OFFSET, spoilsInMicros);
+        publish(sequence);
+    }
+
+    /**
+     * Claim the next ring slot, waiting while it still holds a record the flusher has not written. A claim either
+     * comes before close() and is written out, or after it and fails.
+     */
+    private long claim() {
+        long sequence = claimed.getAndIncrement();
+        if (sequence < 0) {
+            throw new IllegalStateException("Decision journal is closed");
+        }
+        if (sequence - flushed > mask) {
+            stalls.incrementAndGet();
+            do {
+                if (failure != null) {
+                    throw new UncheckedIOException("Decision journal failed", failure);
+                }
+                LockSupport.unpark(flusher);
+                LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS / 10);
+            } while (sequence - flushed > mask);
+        }
+        return sequence;
+    }
+
+    private void publish(long sequence) {
+        published.lazySet((int) (sequence & mask), sequence);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long from = flushed;
+                long to = from;
+                while (to - from <= mask && published.get((int) (to & mask)) == to) {
+                    to++;
+                }
+                if (to > from) {
+                    write(from, to);
+                    flushed = to;
+                } else if (from == closedAt) {
+                    return;
+                } else {
+                    LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to write decision journal", e);
+            failure = e;
+        }
+    }
+
+    /**
+     * Append the records with sequences in [from, to) to the file; the range may wrap around the ring.
+     */
+    private void write(long from, long to) throws IOException {
+        int start = (int) (from & mask);
+        int count = (int) (to - from);
+        int firstPart = Math.min(count, mask + 1 - start);
+        writeSlots(start, firstPart);
+        if (firstPart < count) {
+            writeSlots(0, count - firstPart);
+        }
+    }
+
+    private void writeSlots(int slot, int count) throws IOException {
+        ByteBuffer slice = ring.duplicate();
+        slice.limit((slot + count) * RECORD_BYTES).position(slot * RECORD_BYTES);
+        while (slice.hasRemaining()) {
+            channel.write(slice);
+        }
+    }
+}
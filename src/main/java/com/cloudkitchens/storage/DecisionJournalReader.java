@@ -0,0 +1,124 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a {@link DecisionJournal} back as a timeline of decisions. A journal left behind by a crashed process
+ * reads up to its last complete record.
+ *
+ * Usage: DecisionJournalReader <journal> [order id]
+ */
+public class DecisionJournalReader {
+    private static final int BATCH_RECORDS = 4096;
+
+    /**
+     * Print the timeline of a journal, or only the decisions about one order.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: DecisionJournalReader <journal> [order id]");
+            System.exit(1);
+        }
+        String orderId = args.length > 1 ? args[1] : null;
+        for (DecisionEvent event : read(Paths.get(args[0]))) {
+            if (orderId == null || orderId.equals(event.getOrderId())) {
+                System.out.println(event);
+            }
+        }
+    }
+
+    /**
+     * Every decision in the journal, in the order they were recorded. Order id records are resolved, not returned.
+     */
+    public static List<DecisionEvent> read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            ByteBuffer header = ByteBuffer.wrap(readFully(in, DecisionJournal.HEADER_BYTES));
+            if (header.remaining() < DecisionJournal.HEADER_BYTES || header.getInt() != DecisionJournal.MAGIC
+                || header.getInt() != DecisionJournal.VERSION || header.getInt() != DecisionJournal.RECORD_BYTES) {
+                throw new IOException("Not a decision journal: " + file);
+            }
+
+            List<DecisionEvent> events = new ArrayList<>();
+            Map<Integer, String> ids = new HashMap<>();
+            Map<Integer, ByteArrayOutputStream> partialIds = new HashMap<>();
+            StorageType[] storageTypes = StorageType.values();
+            DecisionEvent.Kind[] kinds = DecisionEvent.Kind.values();
+            long sequence = 0;
+            while (true) {
+                byte[] batch = readFully(in, BATCH_RECORDS * DecisionJournal.RECORD_BYTES);
+                // A trailing partial record was cut off mid-write
+                int records = batch.length / DecisionJournal.RECORD_BYTES;
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                for (int i = 0; i < records; i++, sequence++) {
+                    int offset = i * DecisionJournal.RECORD_BYTES;
+                    int handle = buffer.getInt(offset + DecisionJournal.ORDER_OFFSET);
+                    int kindCode = buffer.get(offset + DecisionJournal.KIND_OFFSET);
+                    if (kindCode < 0 || kindCode >= kinds.length) {
+                        throw new IOException("Corrupt decision journal " + file + ": unknown kind " + kindCode +
+                                              " in record " + sequence);
+                    }
+                    DecisionEvent.Kind kind = kinds[kindCode];
+                    if (kind == DecisionEvent.Kind.ORDER_ID) {
+                        int length = buffer.get(offset + DecisionJournal.STORAGE_OFFSET);
+                        ByteArrayOutputStream id = partialIds.computeIfAbsent(handle, h -> new ByteArrayOutputStream());
+                        id.write(batch, offset + DecisionJournal.SIZE_OFFSET, length);
+                        if (buffer.get(offset + DecisionJournal.TARGET_OFFSET) == 1) {
+                            ids.put(handle, new String(partialIds.remove(handle).toByteArray(), StandardCharsets.UTF_8));
+                        }
+                        continue;
+                    }
+                    String orderId = ids.get(handle);
+                    if (orderId == null) {
+                        throw new IOException("Corrupt decision journal " + file + ": unknown order handle " + handle +
+                                              " in record " + sequence);
+                    }
+                    byte storage = buffer.get(offset + DecisionJournal.STORAGE_OFFSET);
+                    byte target = buffer.get(offset + DecisionJournal.TARGET_OFFSET);
+                    events.add(new DecisionEvent(sequence,
+                                                 buffer.getLong(offset + DecisionJournal.TIMESTAMP_OFFSET),
+                                                 kind, orderId,
+                                                 storage >= 0 ? storageTypes[storage] : null,
+                                                 target >= 0 ? storageTypes[target] : null,
+                                                 buffer.get(offset + DecisionJournal.FLAG_OFFSET),
+                                                 buffer.getInt(offset + DecisionJournal.SIZE_OFFSET),
+                                                 buffer.getInt(offset + DecisionJournal.CAPACITY_OFFSET),
+                                                 buffer.getLong(offset + DecisionJournal.SPOILS_IN_OFFSET)));
+                }
+                if (batch.length < BATCH_RECORDS * DecisionJournal.RECORD_BYTES) {
+                    return events;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read up to {@code length} bytes, fewer only at the end of the stream.
+     */
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                byte[] shorter = new byte[read];
+                System.arraycopy(bytes, 0, shorter, 0, read);
+                return shorter;
+            }
+            read += n;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,67 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * Step-by-step trace of storage decisions, one {@code event=name key=value ...} line per step, logged at INFO to the
+ * {@code com.cloudkitchens.trace} logger. Off unless the JVM is started with {@code -Dkitchen.trace=true}.
+ * Guard call sites with {@code if (DecisionTrace.ENABLED)}: the flag is a static final, so the JIT removes
+ * disabled call sites entirely, arguments included.
+ */
+public final class DecisionTrace {
+    public static final boolean ENABLED = Boolean.getBoolean("kitchen.trace");
+
+    private static final Logger logger = LoggerFactory.getLogger("com.cloudkitchens.trace");
+
+    private DecisionTrace() {
+    }
+
+    /**
+     * @param fields alternating keys and values
+     */
+    public static void event(String event, Object... fields) {
+        if (!ENABLED || !logger.isInfoEnabled()) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(64 + fields.length * 12).append("event=").append(event);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+        }
+        logger.info(line.toString());
+    }
+
+    /**
+     * Orders in a storage as {@code [id(temp), ...]}.
+     */
+    static String contents(Collection<StorageLocation> locations) {
+        StringBuilder list = new StringBuilder().append('[');
+        for (StorageLocation location : locations) {
+            if (list.length() > 1) {
+                list.append(", ");
+            }
+            list.append(location.getOrder().getId()).append('(')
+                .append(location.getOrder().getTemperature().getValue()).append(')');
+        }
+        return list.append(']').toString();
+    }
+
+    /**
+     * Scheduled pickup time of each order in a storage as {@code [id->micros, ...]}.
+     */
+    static String pickups(Collection<StorageLocation> locations, OrderTable orders) {
+        StringBuilder list = new StringBuilder().append('[');
+        for (StorageLocation location : locations) {
+            if (list.length() > 1) {
+                list.append(", ");
+            }
+            long pickupTime = orders.pickup(location.getOrderHandle());
+            list.append(location.getOrder().getId()).append("->")
+                .append(pickupTime != OrderTable.NO_PICKUP ? String.valueOf(pickupTime) : "none");
+        }
+        return list.append(']').toString();
+    }
+}
@@ -1,175 +1,161 @@
 package com.cloudkitchens.storage;
 
-import com.cloudkitchens.model.Order;
 import com.cloudkitchens.model.StorageLocation;
 import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.model.Temperature;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Efficient discard strategy using priority queues for O(log n) complexity.
- * Maintains separate priority queues for each storage type, ordered by freshness value.
+ * Efficient discard strategy using indexed deadline heaps for O(log n) complexity.
+ * Each storage type is partitioned into one heap per order temperature, ordered by absolute spoil
+ * deadline, so the most urgent hot order on the shelf is a single peek and the order closest to
+ * spoiling is the earliest of three peeks.
+ * Not thread-safe: StorageManager calls it while holding the storage lock of every storage type
+ * whose heaps the call reads or changes, so it takes no locks of its own.
  */
 public class DiscardStrategy {
     
-    // Priority queues for each storage type, ordered by freshness value (ascending)
-    private final Map<StorageType, PriorityQueue<StorageLocation>> storageQueues;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Deadline heaps for each storage type and order temperature, ordered by spoil deadline (ascending)
+    private final Map<StorageType, Map<Temperature, DeadlineHeap>> storageQueues;
+    // Insertion sequence per storage type, shared by its temperature heaps so ties resolve in arrival order
+    private final long[] nextSequence = new long[StorageType.values().length];
+    private final DecisionJournal journal; // null when decisions are not journaled
     
     public DiscardStrategy() {
-        this.storageQueues = new ConcurrentHashMap<>();
-        storageQueues.put(StorageType.HEATER, new PriorityQueue<>(this::compareByFreshness));
-        storageQueues.put(StorageType.COOLER, new PriorityQueue<>(this::compareByFreshness));
-        storageQueues.put(StorageType.SHELF, new PriorityQueue<>(this::compareByFreshness));
+        this(null);
+    }
+    
+    /**
+     * @param journal receives every move and discard choice, or null
+     */
+    public DiscardStrategy(DecisionJournal journal) {
+        this.journal = journal;
+        this.storageQueues = new EnumMap<>(StorageType.class);
+        for (StorageType storageType : StorageType.values()) {
+            Map<Temperature, DeadlineHeap> temperatureQueues = new EnumMap<>(Temperature.class);
+            for (Temperature temperature : Temperature.values()) {
+                temperatureQueues.put(temperature, new DeadlineHeap());
+            }
+            storageQueues.put(storageType, temperatureQueues);
+        }
     }
 
     /**
-     * Add an order to the discard strategy tracking.
+     * Add an order to the discard strategy tracking. Time complexity: O(log n)
      */
     public void addOrder(StorageLocation location) {
-        lock.writeLock().lock();
-        try {
-            StorageType storageType = location.getStorageType();
-            storageQueues.get(storageType).offer(location);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        enqueue(location);
     }
 
     /**
-     * Remove an order from tracking (when picked up or moved).
+     * Remove an order from tracking (when picked up or moved). Time complexity: O(log n)
      */
     public void removeOrder(StorageLocation location) {
-        lock.writeLock().lock();
-        try {
-            StorageType storageType = location.getStorageType();
-            storageQueues.get(storageType).remove(location);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        getQueue(location).remove(location);
     }
 
     /**
      * Move an order from one storage type to another.
      */
     public void moveOrder(StorageLocation location, StorageType newStorageType) {
-        lock.writeLock().lock();
-        try {
-            StorageType oldStorageType = location.getStorageType();
-            storageQueues.get(oldStorageType).remove(location);
-            
-            // Create new location with updated storage type
-            StorageLocation newLocation = new StorageLocation(
-                location.getOrder(), 
-                newStorageType, 
-                location.getPlacedAtMicros()
-            );
-            storageQueues.get(newStorageType).offer(newLocation);
-        } finally {
-            lock.writeLock().unlock();
-        }
+        getQueue(location).remove(location);
+        
+        // Create new location with updated storage type
+        StorageLocation newLocation = new StorageLocation(
+            location.getOrder(), 
+            newStorageType, 
+            location.getPlacedAtMicros()
+        );
+        enqueue(newLocation);
     }
 
     /**
      * Find the best order to discard from the shelf when it's full.
-     * Returns the order with the lowest freshness value (least fresh).
-     * Time complexity: O(log n)
+     * Returns the order with the earliest spoil deadline (least fresh).
+     * Time complexity: O(1)
      */
     public StorageLocation findBestOrderToDiscard(long currentTimeMicros) {
-        lock.readLock().lock();
-        try {
-            PriorityQueue<StorageLocation> shelfQueue = storageQueues.get(StorageType.SHELF);
-            
-            if (shelfQueue.isEmpty()) {
-                return null;
+        DeadlineHeap earliest = null;
+        for (DeadlineHeap queue : storageQueues.get(StorageType.SHELF).values()) {
+            if (queue.isEmpty()) {
+                continue;
             }
-
-            // Find the order with the lowest freshness value
-            StorageLocation worstOrder = null;
-            double worstFreshness = Double.MAX_VALUE;
-            
-            for (StorageLocation location : shelfQueue) {
-                double freshness = FreshnessCalculator.calculateFreshnessValue(location, currentTimeMicros);
-                if (freshness < worstFreshness) {
-                    worstFreshness = freshness;
-                    worstOrder = location;
-                }
+            if (earliest == null || queue.peekDeadline() < earliest.peekDeadline() ||
+                (queue.peekDeadline() == earliest.peekDeadline() && queue.peekSequence() < earliest.peekSequence())) {
+                earliest = queue;
             }
-            
-            return worstOrder;
-        } finally {
-            lock.readLock().unlock();
         }
+        if (earliest == null) {
+            return null;
+        }
+        if (journal != null) {
+            journal.discardChoice(currentTimeMicros, earliest.peek(), shelfSize());
+        }
+        return earliest.peek();
     }
 
     /**
      * Find an order on the shelf that can be moved to ideal storage.
-     * Prioritizes orders that are close to spoiling.
+     * Prioritizes the matching order with the earliest spoil deadline (closest to spoiling).
+     * Time complexity: O(1)
      */
     public StorageLocation findOrderToMoveFromShelf(StorageType targetStorageType, long currentTimeMicros) {
-        lock.readLock().lock();
-        try {
-            PriorityQueue<StorageLocation> shelfQueue = storageQueues.get(StorageType.SHELF);
-            
-            // Find orders that match the target temperature
-            List<StorageLocation> candidates = new ArrayList<>();
-            for (StorageLocation location : shelfQueue) {
-                if (isIdealForStorage(location.getOrder(), targetStorageType)) {
-                    candidates.add(location);
-                }
-            }
-            
-            if (candidates.isEmpty()) {
-                return null;
-            }
-            
-            // Return the order with the lowest freshness value (most urgent to move)
-            return candidates.stream()
-                .min((a, b) -> Double.compare(
-                    FreshnessCalculator.calculateFreshnessValue(a, currentTimeMicros),
-                    FreshnessCalculator.calculateFreshnessValue(b, currentTimeMicros)
-                ))
-                .orElse(null);
-        } finally {
-            lock.readLock().unlock();
+        Temperature temperature = getIdealTemperature(targetStorageType);
+        StorageLocation chosen = storageQueues.get(StorageType.SHELF).get(temperature).peek();
+        if (chosen != null && journal != null) {
+            journal.moveChoice(currentTimeMicros, chosen, targetStorageType, shelfSize());
         }
+        return chosen;
     }
 
     /**
-     * Comparator for ordering storage locations by freshness value (ascending).
+     * Orders on the shelf.
      */
-    private int compareByFreshness(StorageLocation a, StorageLocation b) {
-        long currentTime = System.nanoTime() / 1000; // Convert to microseconds
-        double freshnessA = FreshnessCalculator.calculateFreshnessValue(a, currentTime);
-        double freshnessB = FreshnessCalculator.calculateFreshnessValue(b, currentTime);
-        return Double.compare(freshnessA, freshnessB);
+    private int shelfSize() {
+        int size = 0;
+        for (DeadlineHeap queue : storageQueues.get(StorageType.SHELF).values()) {
+            size += queue.size();
+        }
+        return size;
     }
 
     /**
-     * Check if an order is ideal for a specific storage type.
+     * Add a location to its temperature heap.
      */
-    private boolean isIdealForStorage(Order order, StorageType storageType) {
-        return (order.getTemperature().getValue().equals("hot") && storageType == StorageType.HEATER) ||
-               (order.getTemperature().getValue().equals("cold") && storageType == StorageType.COOLER) ||
-               (order.getTemperature().getValue().equals("room") && storageType == StorageType.SHELF);
+    private void enqueue(StorageLocation location) {
+        int storageIndex = location.getStorageType().ordinal();
+        getQueue(location).add(location, location.getSpoilDeadlineMicros(), nextSequence[storageIndex]++);
+    }
+
+    private DeadlineHeap getQueue(StorageLocation location) {
+        return storageQueues.get(location.getStorageType()).get(location.getOrder().getTemperature());
+    }
+
+    /**
+     * Get the order temperature a storage type is ideal for.
+     */
+    private Temperature getIdealTemperature(StorageType storageType) {
+        switch (storageType) {
+            case HEATER: return Temperature.HOT;
+            case COOLER: return Temperature.COLD;
+            case SHELF: return Temperature.ROOM;
+            default: throw new IllegalArgumentException("Unknown storage type: " + storageType);
+        }
     }
 
     /**
-     * Get the current count of orders in each storage type.
+     * Get the current count of orders in each storage type. Exact only while the caller holds every storage lock.
      */
     public Map<StorageType, Integer> getStorageCounts() {
-        lock.readLock().lock();
-        try {
-            Map<StorageType, Integer> counts = new HashMap<>();
-            for (Map.Entry<StorageType, PriorityQueue<StorageLocation>> entry : storageQueues.entrySet()) {
-                counts.put(entry.getKey(), entry.getValue().size());
+        Map<StorageType, Integer> counts = new HashMap<>();
+        for (Map.Entry<StorageType, Map<Temperature, DeadlineHeap>> entry : storageQueues.entrySet()) {
+            int count = 0;
+            for (DeadlineHeap queue : entry.getValue().values()) {
+                count += queue.size();
             }
-            return counts;
-        } finally {
-            lock.readLock().unlock();
+            counts.put(entry.getKey(), count);
         }
+        return counts;
     }
 }
@@ -1,8 +1,10 @@
 package com.cloudkitchens.storage;
 
-import com.cloudkitchens.model.Order;
 import com.cloudkitchens.model.StorageLocation;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Calculates freshness values for orders based on time and storage conditions.
  */
@@ -16,29 +18,27 @@ public class FreshnessCalculator {
      * @return Freshness value between 0.0 (completely spoiled) and 1.0 (perfectly fresh)
      */
     public static double calculateFreshnessValue(StorageLocation location, long currentTimeMicros) {
-        Order order = location.getOrder();
-        long ageMicros = currentTimeMicros - location.getPlacedAtMicros();
-        long ageSeconds = ageMicros / 1_000_000; // Convert microseconds to seconds
-        
-        // Apply degradation rate based on storage temperature
-        double degradationRate = location.isAtIdealTemperature() ? 1.0 : 2.0;
-        double effectiveAge = ageSeconds * degradationRate;
-        
-        // Calculate freshness ratio
-        double freshnessRatio = Math.max(0.0, (order.getFreshnessSeconds() - effectiveAge) / order.getFreshnessSeconds());
-        
-        return Math.max(0.0, Math.min(1.0, freshnessRatio));
+        int freshnessSeconds = location.getOrder().getFreshnessSeconds();
+        long remainingSeconds = remainingSeconds(location, currentTimeMicros);
+        if (remainingSeconds <= 0) {
+            return 0.0;
+        }
+        if (remainingSeconds >= freshnessSeconds) {
+            return 1.0;
+        }
+        return (double) remainingSeconds / freshnessSeconds;
     }
 
     /**
      * Check if an order has exceeded its freshness duration.
+     * A single comparison against the spoil deadline precomputed at placement.
      * 
      * @param location The storage location containing the order
      * @param currentTimeMicros Current time in microseconds
      * @return true if the order is spoiled (freshness <= 0)
      */
     public static boolean isSpoiled(StorageLocation location, long currentTimeMicros) {
-        return calculateFreshnessValue(location, currentTimeMicros) <= 0.0;
+        return currentTimeMicros >= location.getSpoilDeadlineMicros();
     }
 
     /**
@@ -49,13 +49,40 @@ public class FreshnessCalculator {
      * @return Remaining freshness time in seconds (can be negative if spoiled)
      */
     public static double getRemainingFreshnessSeconds(StorageLocation location, long currentTimeMicros) {
-        Order order = location.getOrder();
-        long ageMicros = currentTimeMicros - location.getPlacedAtMicros();
-        long ageSeconds = ageMicros / 1_000_000;
-        
-        double degradationRate = location.isAtIdealTemperature() ? 1.0 : 2.0;
-        double effectiveAge = ageSeconds * degradationRate;
-        
-        return order.getFreshnessSeconds() - effectiveAge;
+        return remainingSeconds(location, currentTimeMicros);
+    }
+
+    /**
+     * Calculate freshness values for many locations in one pass.
+     * 
+     * @param locations The storage locations to score
+     * @param currentTimeMicros Current time in microseconds
+     * @param values Receives the freshness value of locations.get(i) at index i; must be at least as long as locations
+     */
+    public static void calculateFreshnessValues(List<StorageLocation> locations, long currentTimeMicros, double[] values) {
+        if (values.length < locations.size()) {
+            throw new IllegalArgumentException("Expected at least " + locations.size() + " values, got " + values.length);
+        }
+        for (int i = 0; i < locations.size(); i++) {
+            values[i] = calculateFreshnessValue(locations.get(i), currentTimeMicros);
+        }
+    }
+
+    /**
+     * Count how many of the given locations are spoiled at a given time.
+     */
+    public static int countSpoiled(Collection<StorageLocation> locations, long currentTimeMicros) {
+        int spoiled = 0;
+        for (StorageLocation location : locations) {
+            if (currentTimeMicros >= location.getSpoilDeadlineMicros()) {
+                spoiled++;
+            }
+        }
+        return spoiled;
+    }
+
+    private static long remainingSeconds(StorageLocation location, long currentTimeMicros) {
+        long ageSeconds = (currentTimeMicros - location.getPlacedAtMicros()) / 1_000_000;
+        return location.getOrder().getFreshnessSeconds() - ageSeconds * location.getDegradationRate();
     }
 }
@@ -0,0 +1,433 @@
+package com.cloudkitchens.storage;
+
+/**
+ * Time-indexed occupancy history for a single storage type.
+ * Arrivals and departures are kept in a treap keyed by microsecond timestamp, where every node is
+ * augmented with subtree event counts and the minimum running occupancy inside the subtree.
+ * That makes point occupancy, range counts and "first time with a free slot" queries O(log n).
+ * Departures at a timestamp are applied before arrivals at the same timestamp are counted as a
+ * single net change, so an order picked up at T frees its slot for a placement at T.
+ * Events at or before a compaction point are folded into a base occupancy; queries must not
+ * ask about timestamps before that point.
+ * Not thread-safe; callers must hold the storage manager's lock.
+ */
+public class OccupancyTimeline {
+
+    /** Returned by {@link #findFirstFreeSlot} when the storage never drops below capacity. */
+    public static final long NO_FREE_SLOT = -1L;
+
+    private Node root;
+    private int eventCount;
+    private int baseOccupancy;
+    private long compactedThroughMicros = Long.MIN_VALUE;
+    private int randomState = 0x2545F491;
+
+    /**
+     * Record an order entering the storage at a timestamp.
+     */
+    public void addArrival(long timestampMicros) {
+        if (timestampMicros <= compactedThroughMicros) {
+            baseOccupancy++;
+            return;
+        }
+        root = insert(root, timestampMicros, 1, 0);
+        eventCount++;
+    }
+
+    /**
+     * Record an order leaving the storage at a timestamp.
+     */
+    public void addDeparture(long timestampMicros) {
+        if (timestampMicros <= compactedThroughMicros) {
+            baseOccupancy--;
+            return;
+        }
+        root = insert(root, timestampMicros, 0, 1);
+        eventCount++;
+    }
+
+    /**
+     * Withdraw a previously recorded departure. Departures already folded into the base
+     * occupancy are trusted to have been recorded.
+     *
+     * @return false if no departure was recorded at the timestamp
+     */
+    public boolean removeDeparture(long timestampMicros) {
+        if (timestampMicros <= compactedThroughMicros) {
+            baseOccupancy++;
+            return true;
+        }
+        Node node = find(timestampMicros);
+        if (node == null || node.departures == 0) {
+            return false;
+        }
+        root = adjust(root, timestampMicros, 0, -1);
+        eventCount--;
+        return true;
+    }
+
+    /**
+     * Number of orders in the storage at a timestamp.
+     */
+    public int occupancyAt(long timestampMicros) {
+        int occupancy = baseOccupancy;
+        Node node = root;
+        while (node != null) {
+            if (node.key <= timestampMicros) {
+                occupancy += net(node.left) + node.delta();
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return occupancy;
+    }
+
+    /**
+     * Number of retained arrivals with a timestamp in [fromMicros, toMicros].
+     */
+    public int countArrivalsBetween(long fromMicros, long toMicros) {
+        if (toMicros < fromMicros) {
+            return 0;
+        }
+        return arrivalsAtOrBefore(toMicros) - arrivalsAtOrBefore(fromMicros - 1);
+    }
+
+    /**
+     * Number of retained departures with a timestamp in [fromMicros, toMicros].
+     */
+    public int countDeparturesBetween(long fromMicros, long toMicros) {
+        if (toMicros < fromMicros) {
+            return 0;
+        }
+        return departuresAtOrBefore(toMicros) - departuresAtOrBefore(fromMicros - 1);
+    }
+
+    /**
+     * Find the earliest timestamp at or after the given one at which occupancy is below capacity,
+     * considering only events recorded so far.
+     *
+     * @return the timestamp, or {@link #NO_FREE_SLOT} if occupancy never drops below capacity
+     */
+    public long findFirstFreeSlot(long timestampMicros, int capacity) {
+        if (occupancyAt(timestampMicros) < capacity) {
+            return timestampMicros;
+        }
+        return findFirstAfter(root, baseOccupancy, timestampMicros, capacity);
+    }
+
+    /**
+     * Fold every event at or before the cutoff into the base occupancy and drop it.
+     * Occupancy at or after the cutoff is unaffected.
+     *
+     * @return the number of events dropped
+     */
+    public int compactThrough(long cutoffMicros) {
+        if (cutoffMicros <= compactedThroughMicros) {
+            return 0;
+        }
+        Node[] parts = split(root, cutoffMicros);
+        Node dropped = parts[0];
+        root = parts[1];
+        compactedThroughMicros = cutoffMicros;
+        int droppedEvents = arrivals(dropped) + departures(dropped);
+        baseOccupancy += net(dropped);
+        eventCount -= droppedEvents;
+        return droppedEvents;
+    }
+
+    /**
+     * Total number of arrival and departure events held.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Latest timestamp folded into the base occupancy, or Long.MIN_VALUE if never compacted.
+     */
+    public long getCompactedThroughMicros() {
+        return compactedThroughMicros;
+    }
+
+    /**
+     * Write the base occupancy and every held event, in timestamp order.
+     */
+    void writeTo(StorageCheckpoint.Writer out) {
+        out.putLong(compactedThroughMicros);
+        out.putInt(baseOccupancy);
+        out.putInt(countNodes(root));
+        writeNodes(root, out);
+    }
+
+    /**
+     * Replace this timeline's history with one written by {@link #writeTo}.
+     */
+    void readFrom(StorageCheckpoint.Reader in) {
+        compactedThroughMicros = in.getLong();
+        baseOccupancy = in.getInt();
+        root = null;
+        eventCount = 0;
+        for (int nodes = in.getInt(); nodes > 0; nodes--) {
+            long key = in.getLong();
+            int arrivals = in.getInt();
+            int departures = in.getInt();
+            root = insert(root, key, arrivals, departures);
+            eventCount += arrivals + departures;
+        }
+    }
+
+    private static int countNodes(Node node) {
+        return node == null ? 0 : 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    private static void writeNodes(Node node, StorageCheckpoint.Writer out) {
+        if (node == null) {
+            return;
+        }
+        writeNodes(node.left, out);
+        out.putLong(node.key);
+        out.putInt(node.arrivals);
+        out.putInt(node.departures);
+        writeNodes(node.right, out);
+    }
+
+    private int arrivalsAtOrBefore(long timestampMicros) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.key <= timestampMicros) {
+                count += arrivals(node.left) + node.arrivals;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private int departuresAtOrBefore(long timestampMicros) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.key <= timestampMicros) {
+                count += departures(node.left) + node.departures;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * First key strictly after the timestamp whose running occupancy is below capacity.
+     * Keys at or before the timestamp are skipped by walking a single root-to-leaf path;
+     * subtrees entirely after it are only entered when their minimum guarantees a hit.
+     */
+    private long findFirstAfter(Node node, int offset, long timestampMicros, int capacity) {
+        while (node != null) {
+            if (node.key <= timestampMicros) {
+                offset += net(node.left) + node.delta();
+                node = node.right;
+                continue;
+            }
+            long inLeft = findFirstAfter(node.left, offset, timestampMicros, capacity);
+            if (inLeft != NO_FREE_SLOT) {
+                return inLeft;
+            }
+            int atNode = offset + net(node.left) + node.delta();
+            if (atNode < capacity) {
+                return node.key;
+            }
+            if (node.right != null && atNode + node.right.minPrefix < capacity) {
+                return descendToFirstBelow(node.right, atNode, capacity);
+            }
+            return NO_FREE_SLOT;
+        }
+        return NO_FREE_SLOT;
+    }
+
+    private long descendToFirstBelow(Node node, int offset, int capacity) {
+        while (true) {
+            if (node.left != null && offset + node.left.minPrefix < capacity) {
+                node = node.left;
+                continue;
+            }
+            offset += net(node.left) + node.delta();
+            if (offset < capacity) {
+                return node.key;
+            }
+            node = node.right;
+        }
+    }
+
+    private Node find(long key) {
+        Node node = root;
+        while (node != null && node.key != key) {
+            node = key < node.key ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private Node insert(Node node, long key, int arrivals, int departures) {
+        if (node == null) {
+            Node created = new Node(key, nextPriority());
+            created.arrivals = arrivals;
+            created.departures = departures;
+            created.update();
+            return created;
+        }
+        if (key == node.key) {
+            node.arrivals += arrivals;
+            node.departures += departures;
+        } else if (key < node.key) {
+            node.left = insert(node.left, key, arrivals, departures);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, key, arrivals, departures);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    private Node adjust(Node node, long key, int arrivals, int departures) {
+        if (key < node.key) {
+            node.left = adjust(node.left, key, arrivals, departures);
+        } else if (key > node.key) {
+            node.right = adjust(node.right, key, arrivals, departures);
+        } else {
+            node.arrivals += arrivals;
+            node.departures += departures;
+            if (node.arrivals == 0 && node.departures == 0) {
+                return merge(node.left, node.right);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    /**
+     * Split a subtree into keys at or before the given key and keys after it.
+     */
+    private Node[] split(Node node, long key) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+        if (node.key <= key) {
+            Node[] parts = split(node.right, key);
+            node.right = parts[0];
+            node.update();
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, key);
+        node.left = parts[1];
+        node.update();
+        parts[1] = node;
+        return parts;
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        node.update();
+        pivot.update();
+        return pivot;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        node.update();
+        pivot.update();
+        return pivot;
+    }
+
+    /**
+     * Deterministic xorshift priorities keep the tree shape reproducible between runs.
+     */
+    private int nextPriority() {
+        int x = randomState;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        randomState = x;
+        return x;
+    }
+
+    private static int net(Node node) {
+        return node == null ? 0 : node.subtreeArrivals - node.subtreeDepartures;
+    }
+
+    private static int arrivals(Node node) {
+        return node == null ? 0 : node.subtreeArrivals;
+    }
+
+    private static int departures(Node node) {
+        return node == null ? 0 : node.subtreeDepartures;
+    }
+
+    private static final class Node {
+        final long key;
+        final int priority;
+        Node left;
+        Node right;
+
+        // Events at exactly this timestamp
+        int arrivals;
+        int departures;
+
+        // Aggregates over the whole subtree
+        int subtreeArrivals;
+        int subtreeDepartures;
+        int minPrefix; // lowest running occupancy change reached inside the subtree, in key order
+
+        Node(long key, int priority) {
+            this.key = key;
+            this.priority = priority;
+        }
+
+        int delta() {
+            return arrivals - departures;
+        }
+
+        void update() {
+            subtreeArrivals = arrivals + OccupancyTimeline.arrivals(left) + OccupancyTimeline.arrivals(right);
+            subtreeDepartures = departures + OccupancyTimeline.departures(left) + OccupancyTimeline.departures(right);
+            int throughNode = net(left) + delta();
+            int min = throughNode;
+            if (left != null) {
+                min = Math.min(min, left.minPrefix);
+            }
+            if (right != null) {
+                min = Math.min(min, throughNode + right.minPrefix);
+            }
+            minPrefix = min;
+        }
+    }
+}
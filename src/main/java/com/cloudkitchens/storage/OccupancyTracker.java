@@ -0,0 +1,122 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Incrementally maintained occupancy counts for each storage type.
+ * Every order occupies its storage over a half-open interval [arrival, departure), where the departure
+ * is its scheduled pickup or the moment it was moved out or discarded. The occupancy at a timestamp is
+ * the number of arrivals at or before it minus the number of departures at or before it, so pickups at
+ * the same timestamp are processed before placements, matching the challenge server.
+ * Each storage type keeps its events in an {@link OccupancyTimeline}.
+ * Not thread-safe; callers must hold the storage manager's lock.
+ */
+public class OccupancyTracker {
+
+    private final Map<StorageType, OccupancyTimeline> timelines = new EnumMap<>(StorageType.class);
+
+    public OccupancyTracker() {
+        for (StorageType storageType : StorageType.values()) {
+            timelines.put(storageType, new OccupancyTimeline());
+        }
+    }
+
+    /**
+     * Record an order entering the given storage at a timestamp.
+     */
+    public void recordArrival(StorageType storageType, long timestampMicros) {
+        timelines.get(storageType).addArrival(timestampMicros);
+    }
+
+    /**
+     * Record an order leaving the given storage at a timestamp.
+     */
+    public void recordDeparture(StorageType storageType, long timestampMicros) {
+        timelines.get(storageType).addDeparture(timestampMicros);
+    }
+
+    /**
+     * Withdraw a previously recorded departure (e.g. the order left earlier than its scheduled pickup).
+     */
+    public void cancelDeparture(StorageType storageType, long timestampMicros) {
+        if (!timelines.get(storageType).removeDeparture(timestampMicros)) {
+            throw new IllegalStateException("No departure recorded for " + storageType + " at " + timestampMicros);
+        }
+    }
+
+    /**
+     * Number of orders in the given storage at a timestamp. Time complexity: O(log n)
+     */
+    public int getOccupancyAt(StorageType storageType, long timestampMicros) {
+        return timelines.get(storageType).occupancyAt(timestampMicros);
+    }
+
+    /**
+     * Earliest timestamp at or after the given one at which the storage has a free slot,
+     * based on the pickups scheduled so far. Time complexity: O(log n)
+     *
+     * @return the timestamp, or {@link OccupancyTimeline#NO_FREE_SLOT}
+     */
+    public long findFirstFreeSlot(StorageType storageType, long timestampMicros, int capacity) {
+        return timelines.get(storageType).findFirstFreeSlot(timestampMicros, capacity);
+    }
+
+    /**
+     * Number of orders that entered the given storage in [fromMicros, toMicros]. Time complexity: O(log n)
+     */
+    public int countArrivalsBetween(StorageType storageType, long fromMicros, long toMicros) {
+        return timelines.get(storageType).countArrivalsBetween(fromMicros, toMicros);
+    }
+
+    /**
+     * Number of orders that left the given storage in [fromMicros, toMicros]. Time complexity: O(log n)
+     */
+    public int countDeparturesBetween(StorageType storageType, long fromMicros, long toMicros) {
+        return timelines.get(storageType).countDeparturesBetween(fromMicros, toMicros);
+    }
+
+    /**
+     * Drop all events at or before the cutoff. Occupancy at or after the cutoff is unaffected.
+     *
+     * @return the number of events dropped
+     */
+    public int compactThrough(long cutoffMicros) {
+        int dropped = 0;
+        for (OccupancyTimeline timeline : timelines.values()) {
+            dropped += timeline.compactThrough(cutoffMicros);
+        }
+        return dropped;
+    }
+
+    /**
+     * Write every storage type's timeline, in StorageType declaration order.
+     */
+    void writeTo(StorageCheckpoint.Writer out) {
+        for (OccupancyTimeline timeline : timelines.values()) {
+            timeline.writeTo(out);
+        }
+    }
+
+    /**
+     * Replace every timeline with those written by {@link #writeTo}.
+     */
+    void readFrom(StorageCheckpoint.Reader in) {
+        for (OccupancyTimeline timeline : timelines.values()) {
+            timeline.readFrom(in);
+        }
+    }
+
+    /**
+     * Total number of events retained across all storage types.
+     */
+    public int getRetainedEventCount() {
+        int count = 0;
+        for (OccupancyTimeline timeline : timelines.values()) {
+            count += timeline.getEventCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,302 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.StorageLocation;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * StorageManager's per-order state in arrays indexed by a dense int handle given to each order id: where the order
+ * is stored, its latest placement and its scheduled pickup. An operation hashes the order id once, to find its
+ * handle; everything after that is an array access. Handles of orders that compaction forgets are reused, as are
+ * handles that have held no state for the retention period, such as those of ids registered but never placed.
+ *
+ * Ids are looked up without a lock in an open-addressing table; a lookup that finds nothing is repeated under the
+ * table's lock, which also guards handing out and releasing handles. The state arrays come in chunks that never
+ * move once allocated, so growing the table cannot lose a write. Each order's state is guarded by the lock of the
+ * storage holding it, as the maps this replaces were.
+ */
+final class OrderTable {
+    static final int NOT_FOUND = -1;
+    static final long NO_PICKUP = Long.MIN_VALUE;
+    private static final long NOT_IDLE = Long.MIN_VALUE;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_SLOTS = 1024;
+
+    // Written under this table's lock, read without it
+    private volatile Chunk[] chunks = new Chunk[16];
+    // Handle + 1 for each id, 0 for an empty slot; linear probing, kept at most half full
+    private volatile int[] slots = new int[INITIAL_SLOTS];
+    // Guarded by this table's lock
+    private int handleLimit;
+    private int size;
+    private int[] free = new int[16];
+    private int freeCount;
+
+    /**
+     * @return the order's handle, or {@link #NOT_FOUND} if the id has none
+     */
+    int find(String orderId) {
+        int handle = lookup(slots, orderId);
+        if (handle != NOT_FOUND) {
+            return handle;
+        }
+        synchronized (this) {
+            return lookup(slots, orderId);
+        }
+    }
+
+    /**
+     * @return the order's handle, given one if it has none yet
+     */
+    int intern(String orderId) {
+        int handle = lookup(slots, orderId);
+        if (handle != NOT_FOUND) {
+            return handle;
+        }
+        synchronized (this) {
+            return internLocked(orderId);
+        }
+    }
+
+    /**
+     * Give handles to ids of orders still to come, sizing the table for all of them at once.
+     */
+    synchronized void internAll(Collection<String> orderIds) {
+        int needed = size + orderIds.size();
+        int[] table = slots;
+        if (needed * 2 > table.length) {
+            slots = rehash(table, Integer.highestOneBit(needed * 2 - 1) << 1);
+        }
+        for (String orderId : orderIds) {
+            internLocked(orderId);
+        }
+    }
+
+    /**
+     * The order's handle, given the one it was looked up under before the caller took a storage lock: compaction
+     * may have released that handle since, and cannot while the caller holds the lock.
+     */
+    int confirm(int handle, String orderId) {
+        String id = id(handle);
+        return id == orderId || orderId.equals(id) ? handle : intern(orderId);
+    }
+
+    /**
+     * Forget an order id whose state is all cleared, so its handle can be given to another.
+     */
+    synchronized void release(int handle) {
+        Chunk chunk = chunks[handle >>> CHUNK_BITS];
+        int index = handle & CHUNK_MASK;
+        String orderId = chunk.ids[index];
+        if (orderId == null || chunk.locations[index] != null || chunk.placements[index] != null
+            || chunk.pickups[index] != NO_PICKUP) {
+            throw new IllegalStateException("Order handle still in use: " + handle);
+        }
+        remove(slots, orderId, handle);
+        chunk.ids[index] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = handle;
+        size--;
+    }
+
+    /**
+     * Release a handle with no location, placement or pickup once it has been seen that way at or before the
+     * cutoff. The first call to find it so only notes the time, since it may have just been given out.
+     *
+     * @param nowMicros the time to note for a handle first found holding nothing
+     * @return whether the handle was released
+     */
+    synchronized boolean releaseIfIdle(int handle, long nowMicros, long cutoffMicros) {
+        Chunk chunk = chunks[handle >>> CHUNK_BITS];
+        int index = handle & CHUNK_MASK;
+        if (chunk.ids[index] == null || chunk.locations[index] != null || chunk.placements[index] != null
+            || chunk.pickups[index] != NO_PICKUP) {
+            chunk.idleSince[index] = NOT_IDLE;
+            return false;
+        }
+        if (chunk.idleSince[index] == NOT_IDLE) {
+            chunk.idleSince[index] = nowMicros;
+            return false;
+        }
+        if (chunk.idleSince[index] > cutoffMicros) {
+            return false;
+        }
+        release(handle);
+        return true;
+    }
+
+    /**
+     * Handles given out so far, free ones included: every handle is below this.
+     */
+    synchronized int handleLimit() {
+        return handleLimit;
+    }
+
+    /**
+     * Order ids with a handle.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the id the handle was given to, or null if it is free
+     */
+    String id(int handle) {
+        Chunk[] current = chunks;
+        int chunkIndex = handle >>> CHUNK_BITS;
+        // A handle read without a lock may be newer than the chunks seen here
+        Chunk chunk = chunkIndex < current.length ? current[chunkIndex] : null;
+        return chunk != null ? chunk.ids[handle & CHUNK_MASK] : null;
+    }
+
+    /**
+     * @return where the order is stored, or null if it is not in storage
+     */
+    StorageLocation location(int handle) {
+        return chunks[handle >>> CHUNK_BITS].locations[handle & CHUNK_MASK];
+    }
+
+    void setLocation(int handle, StorageLocation location) {
+        chunks[handle >>> CHUNK_BITS].locations[handle & CHUNK_MASK] = location;
+    }
+
+    /**
+     * @return the order's latest placement, kept after it leaves storage until compaction, or null
+     */
+    StorageLocation placement(int handle) {
+        return chunks[handle >>> CHUNK_BITS].placements[handle & CHUNK_MASK];
+    }
+
+    void setPlacement(int handle, StorageLocation placement) {
+        chunks[handle >>> CHUNK_BITS].placements[handle & CHUNK_MASK] = placement;
+    }
+
+    /**
+     * @return the order's scheduled pickup time, or {@link #NO_PICKUP}
+     */
+    long pickup(int handle) {
+        return chunks[handle >>> CHUNK_BITS].pickups[handle & CHUNK_MASK];
+    }
+
+    void setPickup(int handle, long pickupTimestampMicros) {
+        chunks[handle >>> CHUNK_BITS].pickups[handle & CHUNK_MASK] = pickupTimestampMicros;
+    }
+
+    private int internLocked(String orderId) {
+        int handle = lookup(slots, orderId);
+        if (handle != NOT_FOUND) {
+            return handle;
+        }
+        handle = freeCount > 0 ? free[--freeCount] : allocate();
+        Chunk chunk = chunks[handle >>> CHUNK_BITS];
+        chunk.idleSince[handle & CHUNK_MASK] = NOT_IDLE;
+        // The id goes in before the slot that leads to it
+        chunk.ids[handle & CHUNK_MASK] = orderId;
+        int[] table = slots;
+        if ((size + 1) * 2 > table.length) {
+            table = rehash(table, table.length * 2);
+            slots = table;
+        }
+        insert(table, orderId, handle);
+        size++;
+        return handle;
+    }
+
+    private int allocate() {
+        int handle = handleLimit;
+        if (handle == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Out of order handles");
+        }
+        int chunkIndex = handle >>> CHUNK_BITS;
+        Chunk[] current = chunks;
+        if (chunkIndex == current.length || current[chunkIndex] == null) {
+            Chunk[] grown = chunkIndex == current.length ? Arrays.copyOf(current, current.length * 2) : current.clone();
+            grown[chunkIndex] = new Chunk();
+            chunks = grown;
+        }
+        handleLimit++;
+        return handle;
+    }
+
+    private int lookup(int[] table, String orderId) {
+        int mask = table.length - 1;
+        for (int i = home(orderId, mask); ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) {
+                return NOT_FOUND;
+            }
+            // Without the lock the id may not be visible yet, or the slot may be stale; the locked retry settles it
+            String id = id(entry - 1);
+            if (id == orderId || orderId.equals(id)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void insert(int[] table, String orderId, int handle) {
+        int mask = table.length - 1;
+        int i = home(orderId, mask);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = handle + 1;
+    }
+
+    /**
+     * Remove an entry and shift the entries after it back, so no probe sequence is broken by the gap.
+     */
+    private void remove(int[] table, String orderId, int handle) {
+        int mask = table.length - 1;
+        int gap = home(orderId, mask);
+        while (table[gap] != handle + 1) {
+            gap = (gap + 1) & mask;
+        }
+        table[gap] = 0;
+        for (int i = (gap + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = home(id(table[i] - 1), mask);
+            // Move the entry into the gap unless its home lies cyclically after the gap, up to where it is
+            boolean stays = gap < i ? home > gap && home <= i : home > gap || home <= i;
+            if (!stays) {
+                table[gap] = table[i];
+                table[i] = 0;
+                gap = i;
+            }
+        }
+    }
+
+    private int[] rehash(int[] table, int length) {
+        int[] grown = new int[length];
+        for (int entry : table) {
+            if (entry != 0) {
+                insert(grown, id(entry - 1), entry - 1);
+            }
+        }
+        return grown;
+    }
+
+    private static int home(String orderId, int mask) {
+        int hash = orderId.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static final class Chunk {
+        final String[] ids = new String[CHUNK_SIZE];
+        final StorageLocation[] locations = new StorageLocation[CHUNK_SIZE];
+        final StorageLocation[] placements = new StorageLocation[CHUNK_SIZE];
+        final long[] pickups = new long[CHUNK_SIZE];
+        // When compaction first found the handle holding nothing, or NOT_IDLE; guarded by the table's lock
+        final long[] idleSince = new long[CHUNK_SIZE];
+
+        Chunk() {
+            Arrays.fill(pickups, NO_PICKUP);
+            Arrays.fill(idleSince, NOT_IDLE);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.Action;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A storage manager rebuilt from its write-ahead log, and possibly a checkpoint, by {@link StorageManager#recover},
+ * with the actions the logged run returned to its callers.
+ */
+public class RecoveredStorage {
+    private final StorageManager storageManager;
+    private final List<Action> actions;
+    private final long checkpointWalBytes;
+    private final int records;
+    private final long droppedBytes;
+    private final long recoveryNanos;
+
+    public RecoveredStorage(StorageManager storageManager, List<Action> actions, long checkpointWalBytes, int records,
+                            long droppedBytes, long recoveryNanos) {
+        this.storageManager = storageManager;
+        this.actions = Collections.unmodifiableList(actions);
+        this.checkpointWalBytes = checkpointWalBytes;
+        this.records = records;
+        this.droppedBytes = droppedBytes;
+        this.recoveryNanos = recoveryNanos;
+    }
+
+    public StorageManager getStorageManager() {
+        return storageManager;
+    }
+
+    /**
+     * Actions that went into the action ledger of the logged run, in the order they happened.
+     * Moves and discards made while placing another order are replayed but not included.
+     */
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    /**
+     * Length of the log covered by the checkpoint recovery started from, or 0 if the whole log was replayed.
+     */
+    public long getCheckpointWalBytes() {
+        return checkpointWalBytes;
+    }
+
+    /**
+     * Log records replayed, after the checkpoint if there was one.
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * Bytes cut off the end of the log because the last record was torn or corrupt.
+     */
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RecoveredStorage{checkpointWalBytes=%d, records=%d, actions=%d, inStorage=%d, " +
+                             "droppedBytes=%d, time=%.1fms}",
+                             checkpointWalBytes, records, actions.size(), storageManager.getAllOrders().size(),
+                             droppedBytes, recoveryNanos / 1e6);
+    }
+}
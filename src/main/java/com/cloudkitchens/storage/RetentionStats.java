@@ -0,0 +1,77 @@
+package com.cloudkitchens.storage;
+
+/**
+ * Snapshot of the storage manager's retained history and its most recent compaction pass.
+ */
+public class RetentionStats {
+    private final int retainedPlacements;
+    private final int retainedScheduledPickups;
+    private final int retainedTimelineEvents;
+    private final int retainedOrderIds;
+    private final long compactedThroughMicros;
+    private final int droppedLastPass;
+    private final long lastCompactionNanos;
+    private final long totalCompactions;
+
+    public RetentionStats(int retainedPlacements, int retainedScheduledPickups, int retainedTimelineEvents,
+                          int retainedOrderIds, long compactedThroughMicros, int droppedLastPass,
+                          long lastCompactionNanos, long totalCompactions) {
+        this.retainedPlacements = retainedPlacements;
+        this.retainedScheduledPickups = retainedScheduledPickups;
+        this.retainedTimelineEvents = retainedTimelineEvents;
+        this.retainedOrderIds = retainedOrderIds;
+        this.compactedThroughMicros = compactedThroughMicros;
+        this.droppedLastPass = droppedLastPass;
+        this.lastCompactionNanos = lastCompactionNanos;
+        this.totalCompactions = totalCompactions;
+    }
+
+    public int getRetainedPlacements() {
+        return retainedPlacements;
+    }
+
+    public int getRetainedScheduledPickups() {
+        return retainedScheduledPickups;
+    }
+
+    public int getRetainedTimelineEvents() {
+        return retainedTimelineEvents;
+    }
+
+    /**
+     * Order ids holding a handle: those in storage, those with retained history, and idle ones not yet released.
+     */
+    public int getRetainedOrderIds() {
+        return retainedOrderIds;
+    }
+
+    /**
+     * Latest timestamp whose history has been compacted away, or Long.MIN_VALUE if never compacted.
+     */
+    public long getCompactedThroughMicros() {
+        return compactedThroughMicros;
+    }
+
+    /**
+     * Number of placements, scheduled pickups and timeline events dropped by the last pass.
+     */
+    public int getDroppedLastPass() {
+        return droppedLastPass;
+    }
+
+    public long getLastCompactionNanos() {
+        return lastCompactionNanos;
+    }
+
+    public long getTotalCompactions() {
+        return totalCompactions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RetentionStats{placements=%d, scheduledPickups=%d, timelineEvents=%d, orderIds=%d, " +
+                             "compactedThrough=%d, droppedLastPass=%d, lastCompaction=%dus, compactions=%d}",
+                             retainedPlacements, retainedScheduledPickups, retainedTimelineEvents, retainedOrderIds,
+                             compactedThroughMicros, droppedLastPass, lastCompactionNanos / 1000, totalCompactions);
+    }
+}
@@ -0,0 +1,230 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * File format of StorageManager checkpoints: a header naming the write-ahead log and the log length the checkpoint
+ * covers, then a body of primitives written and read in the same order by {@link StorageManager}. The file is
+ * written and read through a memory mapping. A CRC-32 of the body detects a checkpoint that was not written in full.
+ */
+final class StorageCheckpoint {
+    private static final int MAGIC = 0x4B434B50; // "KCKP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    private static final int INITIAL_MAP_BYTES = 1 << 20;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    // Header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int LOG_ID_OFFSET = 8;
+    private static final int WAL_BYTES_OFFSET = 16;
+    private static final int BODY_BYTES_OFFSET = 24;
+    private static final int CRC_OFFSET = 32;
+
+    private static final Temperature[] TEMPERATURES = Temperature.values();
+
+    private StorageCheckpoint() {
+    }
+
+    /**
+     * Writes a checkpoint body into a file mapped in growing regions, then the header once the body is complete.
+     */
+    static final class Writer implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private boolean finished;
+
+        Writer(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_MAP_BYTES);
+            buffer.position(HEADER_BYTES);
+        }
+
+        void putByte(int value) {
+            ensureRoom(1).put((byte) value);
+        }
+
+        void putInt(int value) {
+            ensureRoom(4).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensureRoom(8).putLong(value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_STRING_BYTES) {
+                throw new IllegalArgumentException("Too long for a checkpoint: " + value.substring(0, 64) + "...");
+            }
+            ensureRoom(2 + bytes.length).putShort((short) bytes.length).put(bytes);
+        }
+
+        void putOrder(Order order) {
+            putString(order.getId());
+            putString(order.getName() != null ? order.getName() : "");
+            putByte(order.getTemperature().ordinal());
+            ensureRoom(8 + 4).putDouble(order.getPrice()).putInt(order.getFreshnessSeconds());
+        }
+
+        /**
+         * Write the header, cut the file to the body and force it to disk.
+         *
+         * @return the length of the file
+         */
+        long finish(long logId, long walBytes) throws IOException {
+            int end = buffer.position();
+            ByteBuffer body = buffer.duplicate();
+            body.position(HEADER_BYTES).limit(end);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            buffer.putInt(MAGIC_OFFSET, MAGIC).putInt(VERSION_OFFSET, VERSION).putLong(LOG_ID_OFFSET, logId)
+                .putLong(WAL_BYTES_OFFSET, walBytes).putLong(BODY_BYTES_OFFSET, end - HEADER_BYTES)
+                .putInt(CRC_OFFSET, (int) crc.getValue());
+            buffer.force();
+            channel.truncate(end);
+            channel.force(true);
+            finished = true;
+            return end;
+        }
+
+        /**
+         * Close the file; one that was not finished is deleted.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (!finished) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        /**
+         * Map a larger region of the file if the current one cannot take the given number of bytes. The bytes
+         * already written stay in the file, so the new mapping sees them.
+         */
+        private MappedByteBuffer ensureRoom(int bytes) {
+            if (buffer.remaining() >= bytes) {
+                return buffer;
+            }
+            int position = buffer.position();
+            long size = Math.max((long) buffer.capacity() * 2, (long) position + bytes);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Checkpoint larger than 2 GB");
+            }
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to grow checkpoint " + file, e);
+            }
+            buffer.position(position);
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads a checkpoint body in the order it was written, from a read-only mapping of the file.
+     */
+    static final class Reader {
+        private final MappedByteBuffer buffer;
+        private final long logId;
+        private final long walBytes;
+
+        private Reader(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            this.logId = buffer.getLong(LOG_ID_OFFSET);
+            this.walBytes = buffer.getLong(WAL_BYTES_OFFSET);
+            buffer.position(HEADER_BYTES);
+        }
+
+        /**
+         * Map a checkpoint and check that it is complete.
+         *
+         * @throws IOException if the file is not a checkpoint or its body does not match its checksum
+         */
+        static Reader open(Path file) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                    throw new IOException("Not a storage checkpoint: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION
+                || buffer.getLong(BODY_BYTES_OFFSET) != buffer.capacity() - HEADER_BYTES) {
+                throw new IOException("Not a storage checkpoint: " + file);
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(CRC_OFFSET)) {
+                throw new IOException("Corrupt storage checkpoint: " + file);
+            }
+            return new Reader(buffer);
+        }
+
+        /**
+         * Id of the write-ahead log the checkpoint belongs to.
+         */
+        long getLogId() {
+            return logId;
+        }
+
+        /**
+         * Length of the write-ahead log whose records the checkpoint includes.
+         */
+        long getWalBytes() {
+            return walBytes;
+        }
+
+        long getFileBytes() {
+            return buffer.capacity();
+        }
+
+        int getByte() {
+            return buffer.get();
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        long getLong() {
+            return buffer.getLong();
+        }
+
+        String getString() {
+            byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Order getOrder() {
+            String id = getString();
+            String name = getString();
+            Temperature temperature = TEMPERATURES[buffer.get()];
+            double price = buffer.getDouble();
+            int freshnessSeconds = buffer.getInt();
+            return new Order(id, name, temperature, price, freshnessSeconds);
+        }
+    }
+}
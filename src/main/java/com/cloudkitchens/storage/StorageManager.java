@@ -4,16 +4,25 @@ import com.cloudkitchens.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Thread-safe storage manager for the kitchen fulfillment system.
  * Handles placement, movement, pickup, and discard operations with proper concurrency control.
+ * Each storage type has its own lock, so operations on different storage types run in parallel.
+ * Operations spanning several storage types take their locks in StorageType declaration order
+ * (heater, cooler, shelf) to avoid deadlocks.
  */
-public class StorageManager {
+public class StorageManager implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(StorageManager.class);
     
     // Storage capacities
@@ -21,24 +30,79 @@ public class StorageManager {
     private static final int COOLER_CAPACITY = 6;
     private static final int SHELF_CAPACITY = 12;
     
+    // How far back capacity queries may reach; older history is dropped by compact()
+    public static final long DEFAULT_RETENTION_MICROS = 60_000_000; // 60 seconds
+    
     // Storage containers
-    private final Map<String, StorageLocation> orderLocations = new ConcurrentHashMap<>();
     private final Map<StorageType, List<StorageLocation>> storage = new ConcurrentHashMap<>();
-    private final DiscardStrategy discardStrategy = new DiscardStrategy();
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final DiscardStrategy discardStrategy;
+    private final DecisionJournal journal; // null when decisions are not journaled
+    private final WriteAheadLog wal; // null when state changes are not logged
+    // Set while replaying a write-ahead log, so the replayed changes are not logged again
+    private boolean replaying;
+    // One lock per storage type, guarding that type's storage list, occupancy timeline, discard heaps
+    // and the entries of the orders it holds
+    private final Map<StorageType, ReadWriteLock> locks = new EnumMap<>(StorageType.class);
+    
+    // Each order's location while in storage, its latest placement and its scheduled pickup, by order handle.
+    // Placements and pickups are kept after the order leaves, to allow state reconstruction, until compact()
+    // drops them
+    private final OrderTable orders = new OrderTable();
     
-    // Track scheduled pickup timestamps (orderId -> pickup timestamp)
-    // Note: We keep these even after pickup to allow state reconstruction at any timestamp
-    private final Map<String, Long> scheduledPickups = new ConcurrentHashMap<>();
+    // Per-storage-type occupancy counts, updated on every place, move, pickup and discard
+    private final OccupancyTracker occupancy = new OccupancyTracker();
     
-    // Track all placements ever made (orderId -> StorageLocation with placement timestamp)
-    // This allows us to reconstruct storage state at any timestamp
-    private final Map<String, StorageLocation> allPlacements = new ConcurrentHashMap<>();
+    // Retention bookkeeping (compaction statistics are guarded by holding every storage lock)
+    private final long retentionMicros;
+    private final AtomicLong latestTimestampMicros = new AtomicLong(Long.MIN_VALUE);
+    private long compactedThroughMicros = Long.MIN_VALUE;
+    private int droppedLastPass;
+    private long lastCompactionNanos;
+    private long totalCompactions;
     
     public StorageManager() {
+        this(DEFAULT_RETENTION_MICROS);
+    }
+    
+    /**
+     * @param retentionMicros how far before the latest operation capacity queries may reach;
+     *                        history older than that is dropped by {@link #compact()}
+     */
+    public StorageManager(long retentionMicros) {
+        this(retentionMicros, null);
+    }
+    
+    /**
+     * @param retentionMicros how far before the latest operation capacity queries may reach;
+     *                        history older than that is dropped by {@link #compact()}
+     * @param journal receives every capacity check, placement, move, pickup and discard, and the discard
+     *                strategy's choices, or null; closed by {@link #close()}
+     */
+    public StorageManager(long retentionMicros, DecisionJournal journal) {
+        this(retentionMicros, journal, null);
+    }
+    
+    /**
+     * @param retentionMicros how far before the latest operation capacity queries may reach;
+     *                        history older than that is dropped by {@link #compact()}
+     * @param journal receives every storage decision, or null; closed by {@link #close()}
+     * @param wal receives every state change, to rebuild the state with {@link #recover}, or null;
+     *            closed by {@link #close()}
+     */
+    public StorageManager(long retentionMicros, DecisionJournal journal, WriteAheadLog wal) {
+        if (retentionMicros < 0) {
+            throw new IllegalArgumentException("Retention must not be negative: " + retentionMicros);
+        }
+        this.retentionMicros = retentionMicros;
+        this.journal = journal;
+        this.wal = wal;
+        this.discardStrategy = new DiscardStrategy(journal);
         storage.put(StorageType.HEATER, new ArrayList<>());
         storage.put(StorageType.COOLER, new ArrayList<>());
         storage.put(StorageType.SHELF, new ArrayList<>());
+        for (StorageType storageType : StorageType.values()) {
+            locks.put(storageType, new ReentrantReadWriteLock());
+        }
     }
 
     /**
@@ -46,98 +110,137 @@ public class StorageManager {
      * This allows capacity checks to account for future pickups.
      */
     public void registerScheduledPickup(String orderId, long pickupTimestampMicros) {
-        scheduledPickups.put(orderId, pickupTimestampMicros);
+        int handle = orders.find(orderId);
+        StorageLocation location = lockOrderStorage(handle, orderId, null);
+        if (location != null) {
+            try {
+                updateScheduledPickup(handle, location, pickupTimestampMicros);
+                log(WriteAheadLog.Op.SCHEDULE_PICKUP, 0, null, pickupTimestampMicros, orderId, null);
+            } finally {
+                unlockStorage(location.getStorageType(), null);
+            }
+            commit();
+            return;
+        }
+        
+        // Not in storage (yet): hold every lock so a concurrent placement cannot miss the pickup
+        lockAllStorage();
+        try {
+            handle = orders.intern(orderId);
+            location = orders.location(handle);
+            if (location != null) {
+                updateScheduledPickup(handle, location, pickupTimestampMicros);
+            } else {
+                orders.setPickup(handle, pickupTimestampMicros);
+            }
+            log(WriteAheadLog.Op.SCHEDULE_PICKUP, 0, null, pickupTimestampMicros, orderId, null);
+        } finally {
+            unlockAllStorage();
+        }
+        commit();
+    }
+    
+    private void updateScheduledPickup(int handle, StorageLocation location, long pickupTimestampMicros) {
+        // The order is still in storage: its occupancy now ends at the scheduled pickup
+        long previousDeparture = getRecordedDeparture(handle);
+        if (previousDeparture != OrderTable.NO_PICKUP) {
+            occupancy.cancelDeparture(location.getStorageType(), previousDeparture);
+        }
+        orders.setPickup(handle, pickupTimestampMicros);
+        occupancy.recordDeparture(location.getStorageType(), getRecordedDeparture(handle));
     }
     
     /**
      * Place a new order in storage following the placement logic.
      * Returns the action taken (place, move, or discard).
+     * Only the ideal storage is locked until it turns out to be full; the shelf lock is then added.
      */
     public Action placeOrder(Order order, long timestampMicros) {
-        lock.writeLock().lock();
+        Action action = place(order, timestampMicros);
+        commit();
+        return action;
+    }
+    
+    private Action place(Order order, long timestampMicros) {
+        // Defensive validation: ensure order temperature is valid
+        if (order.getTemperature() == null) {
+            throw new IllegalArgumentException("Order temperature cannot be null for order: " + order.getId());
+        }
+        
+        int handle = orders.intern(order.getId());
+        StorageType idealStorage = getIdealStorage(order.getTemperature());
+        lockStorage(idealStorage, null);
+        boolean shelfLocked = idealStorage == StorageType.SHELF;
         try {
+            handle = orders.confirm(handle, order.getId());
             // Check if order already exists (shouldn't happen, but defensive check)
-            if (orderLocations.containsKey(order.getId())) {
+            StorageLocation existing = orders.location(handle);
+            if (existing != null) {
                 String error = String.format("ERROR: Order %s already exists in storage at %s", 
-                                           order.getId(), orderLocations.get(order.getId()).getStorageType());
+                                           order.getId(), existing.getStorageType());
                 logger.error(error);
                 throw new IllegalStateException(error);
             }
             
-            logger.info("=== PLACING ORDER: {} (temperature: {}) ===", order.getId(), order.getTemperature());
-            logger.info("Current storage state: HEATER={}/{}, COOLER={}/{}, SHELF={}/{}",
-                       storage.get(StorageType.HEATER).size(), HEATER_CAPACITY,
-                       storage.get(StorageType.COOLER).size(), COOLER_CAPACITY,
-                       storage.get(StorageType.SHELF).size(), SHELF_CAPACITY);
-            
-            // Log all orders currently in storage for debugging (INFO level for visibility)
-            if (storage.get(StorageType.HEATER).size() > 0) {
-                logger.info("Orders in HEATER: {}", 
-                            storage.get(StorageType.HEATER).stream()
-                                .map(loc -> loc.getOrder().getId() + "(" + loc.getOrder().getTemperature().getValue() + ")")
-                                .collect(java.util.stream.Collectors.joining(", ")));
-            }
-            if (storage.get(StorageType.COOLER).size() > 0) {
-                logger.info("Orders in COOLER: {}", 
-                            storage.get(StorageType.COOLER).stream()
-                                .map(loc -> loc.getOrder().getId() + "(" + loc.getOrder().getTemperature().getValue() + ")")
-                                .collect(java.util.stream.Collectors.joining(", ")));
-            }
-            if (storage.get(StorageType.SHELF).size() > 0) {
-                logger.info("Orders in SHELF: {}", 
-                            storage.get(StorageType.SHELF).stream()
-                                .map(loc -> loc.getOrder().getId() + "(" + loc.getOrder().getTemperature().getValue() + ")")
-                                .collect(java.util.stream.Collectors.joining(", ")));
+            observeTimestamp(timestampMicros);
+            if (DecisionTrace.ENABLED) {
+                // Sizes of storages we do not hold the lock for are approximate
+                DecisionTrace.event("place.begin", "order", order.getId(), "temp", order.getTemperature().getValue(),
+                                    "t", timestampMicros, "ideal", idealStorage.getValue(),
+                                    "heater", storage.get(StorageType.HEATER).size() + "/" + HEATER_CAPACITY,
+                                    "cooler", storage.get(StorageType.COOLER).size() + "/" + COOLER_CAPACITY,
+                                    "shelf", storage.get(StorageType.SHELF).size() + "/" + SHELF_CAPACITY);
+                traceStorageContents(idealStorage);
             }
             
-            // Defensive validation: ensure order temperature is valid
-            if (order.getTemperature() == null) {
-                throw new IllegalArgumentException("Order temperature cannot be null for order: " + order.getId());
-            }
-            
-            StorageType idealStorage = getIdealStorage(order.getTemperature());
-            logger.info("Ideal storage for {} (temp: {}) is: {}", order.getId(), order.getTemperature(), idealStorage);
-            
             // Try ideal storage first
             // Check capacity at the placement timestamp (excluding orders with pickups scheduled before this timestamp)
             boolean idealHasCapacity = hasCapacityAtTimestamp(idealStorage, timestampMicros);
-            int idealSize = getEffectiveSizeAtTimestamp(idealStorage, timestampMicros);
-            int idealCapacity = getCapacity(idealStorage);
-            logger.info("Ideal storage {} capacity check at timestamp {}: effective size={}/{}, hasCapacity={}", 
-                       idealStorage, timestampMicros, idealSize, idealCapacity, idealHasCapacity);
-            
-            // Log scheduled pickups for orders in ideal storage for debugging
-            if (storage.get(idealStorage).size() > 0) {
-                logger.info("Scheduled pickups for orders in {}: {}", idealStorage,
-                    storage.get(idealStorage).stream()
-                        .map(loc -> {
-                            Long pickupTime = scheduledPickups.get(loc.getOrder().getId());
-                            return loc.getOrder().getId() + "->" + (pickupTime != null ? pickupTime : "none");
-                        })
-                        .collect(java.util.stream.Collectors.joining(", ")));
+            if (journal != null) {
+                journalCapacityCheck(order.getId(), idealStorage, timestampMicros, idealHasCapacity);
+            }
+            if (DecisionTrace.ENABLED) {
+                DecisionTrace.event("place.ideal", "order", order.getId(), "storage", idealStorage.getValue(),
+                                    "size", getEffectiveSizeAtTimestamp(idealStorage, timestampMicros),
+                                    "capacity", getCapacity(idealStorage), "hasCapacity", idealHasCapacity,
+                                    "pickups", DecisionTrace.pickups(storage.get(idealStorage), orders));
             }
             
             if (idealHasCapacity) {
-                logger.info("✓ Placing order {} (temp: {}) in ideal storage: {}", 
-                           order.getId(), order.getTemperature(), idealStorage);
-                return placeInStorage(order, idealStorage, timestampMicros);
+                return placeInStorage(handle, order, idealStorage, timestampMicros);
+            }
+            if (DecisionTrace.ENABLED) {
+                DecisionTrace.event("place.ideal_full", "order", order.getId(), "storage", idealStorage.getValue(),
+                                    "nextFree", occupancy.findFirstFreeSlot(idealStorage, timestampMicros,
+                                                                            getCapacity(idealStorage)));
             }
-            logger.info("✗ Ideal storage {} is FULL (size: {}/{})", idealStorage, idealSize, idealCapacity);
             
             // For room temperature orders, ideal storage IS the shelf, so if it's full, go to discard
             if (order.getTemperature() == Temperature.ROOM) {
                 // Shelf is full, discard an order and place the new one
                 StorageLocation orderToDiscard = discardStrategy.findBestOrderToDiscard(timestampMicros);
                 if (orderToDiscard != null) {
-                    discardOrder(orderToDiscard.getOrder().getId(), timestampMicros);
-                    return placeInStorage(order, StorageType.SHELF, timestampMicros);
+                    discardOrder(orderToDiscard.getOrderHandle(), orderToDiscard.getOrder().getId(), timestampMicros,
+                                 false);
+                    return placeInStorage(handle, order, StorageType.SHELF, timestampMicros);
                 }
                 throw new IllegalStateException("Unable to place order: " + order.getId());
             }
             
+            // Hot/cold orders overflow to the shelf; the heater and cooler locks precede the shelf lock
+            locks.get(StorageType.SHELF).writeLock().lock();
+            shelfLocked = true;
+            if (DecisionTrace.ENABLED) {
+                traceStorageContents(StorageType.SHELF);
+            }
+            
             // For hot/cold orders, try shelf if ideal storage is full
-            if (hasCapacityAtTimestamp(StorageType.SHELF, timestampMicros)) {
-                return placeInStorage(order, StorageType.SHELF, timestampMicros);
+            boolean shelfHasCapacity = hasCapacityAtTimestamp(StorageType.SHELF, timestampMicros);
+            if (journal != null) {
+                journalCapacityCheck(order.getId(), StorageType.SHELF, timestampMicros, shelfHasCapacity);
+            }
+            if (shelfHasCapacity) {
+                return placeInStorage(handle, order, StorageType.SHELF, timestampMicros);
             }
             
             // Shelf is full, try to move orders from shelf to ideal storage (only for hot/cold)
@@ -145,20 +248,26 @@ public class StorageManager {
             // After a successful move, the shelf now has room, so place the new order on the shelf.
             if (tryMoveFromShelfToIdeal(order.getTemperature(), timestampMicros)) {
                 // After moving, we made room on the shelf, so place the new order there
-                logger.info("After moving an order from shelf to ideal storage, placing new order on shelf");
-                return placeInStorage(order, StorageType.SHELF, timestampMicros);
+                if (DecisionTrace.ENABLED) {
+                    DecisionTrace.event("place.shelf_after_move", "order", order.getId());
+                }
+                return placeInStorage(handle, order, StorageType.SHELF, timestampMicros);
             }
             
             // Still no room, discard an order and place the new one
             StorageLocation orderToDiscard = discardStrategy.findBestOrderToDiscard(timestampMicros);
             if (orderToDiscard != null) {
-                discardOrder(orderToDiscard.getOrder().getId(), timestampMicros);
-                return placeInStorage(order, StorageType.SHELF, timestampMicros);
+                discardOrder(orderToDiscard.getOrderHandle(), orderToDiscard.getOrder().getId(), timestampMicros,
+                             false);
+                return placeInStorage(handle, order, StorageType.SHELF, timestampMicros);
             }
             
             throw new IllegalStateException("Unable to place order: " + order.getId());
         } finally {
-            lock.writeLock().unlock();
+            if (shelfLocked && idealStorage != StorageType.SHELF) {
+                locks.get(StorageType.SHELF).writeLock().unlock();
+            }
+            unlockStorage(idealStorage, null);
         }
     }
 
@@ -166,36 +275,59 @@ public class StorageManager {
      * Pick up an order. Returns null if order not found or spoiled.
      */
     public Action pickupOrder(String orderId, long timestampMicros) {
-        lock.writeLock().lock();
+        Action action = pickup(orderId, timestampMicros);
+        commit();
+        return action;
+    }
+    
+    private Action pickup(String orderId, long timestampMicros) {
+        observeTimestamp(timestampMicros);
+        StorageLocation location = lockOrderStorage(orders.find(orderId), orderId, null);
+        if (location == null) {
+            logger.warn("Order not found for pickup: {}", orderId);
+            return null;
+        }
         try {
-            StorageLocation location = orderLocations.get(orderId);
-            if (location == null) {
-                logger.warn("Order not found for pickup: {}", orderId);
-                return null;
-            }
-            
-            // Note: We keep the scheduled pickup timestamp in scheduledPickups even after pickup
+            // Note: We keep the scheduled pickup timestamp in the order table even after pickup
             // This allows us to correctly calculate effective size at future timestamps
             // The order will be removed from storage, but we can still check its scheduled pickup
             // timestamp to determine if it should be counted at a given timestamp
             
             // Check if order is spoiled
             if (FreshnessCalculator.isSpoiled(location, timestampMicros)) {
-                logger.info("Order spoiled, discarding: {}", orderId);
+                if (DecisionTrace.ENABLED) {
+                    DecisionTrace.event("pickup.spoiled", "order", orderId, "t", timestampMicros,
+                                        "storage", location.getStorageType().getValue());
+                }
+                endOccupancy(location, timestampMicros);
                 discardStrategy.removeOrder(location);
                 storage.get(location.getStorageType()).remove(location);
-                orderLocations.remove(orderId);
+                orders.setLocation(location.getOrderHandle(), null);
+                log(WriteAheadLog.Op.DISCARD, WriteAheadLog.RETURNED | WriteAheadLog.AT_PICKUP,
+                    location.getStorageType(), timestampMicros, orderId, null);
+                if (journal != null) {
+                    journal.discard(timestampMicros, location, true);
+                }
                 return new Action(timestampMicros, orderId, ActionType.DISCARD, location.getStorageType());
             }
             
             // Pick up the order
-            logger.info("Picking up order: {}", orderId);
+            if (DecisionTrace.ENABLED) {
+                DecisionTrace.event("pickup", "order", orderId, "t", timestampMicros,
+                                    "storage", location.getStorageType().getValue());
+            }
+            endOccupancy(location, timestampMicros);
             discardStrategy.removeOrder(location);
             storage.get(location.getStorageType()).remove(location);
-            orderLocations.remove(orderId);
+            orders.setLocation(location.getOrderHandle(), null);
+            log(WriteAheadLog.Op.PICKUP, WriteAheadLog.RETURNED, location.getStorageType(), timestampMicros, orderId,
+                null);
+            if (journal != null) {
+                journal.pickup(timestampMicros, location);
+            }
             return new Action(timestampMicros, orderId, ActionType.PICKUP, location.getStorageType());
         } finally {
-            lock.writeLock().unlock();
+            unlockStorage(location.getStorageType(), null);
         }
     }
 
@@ -214,7 +346,7 @@ public class StorageManager {
         }
         
         // Move the order
-        moveOrder(orderToMove.getOrder().getId(), idealStorage, timestampMicros);
+        moveOrder(orderToMove.getOrderHandle(), orderToMove.getOrder().getId(), idealStorage, timestampMicros, false);
         return true;
     }
 
@@ -222,20 +354,30 @@ public class StorageManager {
      * Move an order to a different storage type.
      */
     public Action moveOrder(String orderId, StorageType newStorageType, long timestampMicros) {
-        lock.writeLock().lock();
+        Action action = moveOrder(orders.find(orderId), orderId, newStorageType, timestampMicros, true);
+        commit();
+        return action;
+    }
+    
+    /**
+     * @param handle the order's handle, or {@link OrderTable#NOT_FOUND}
+     * @param returned whether the action goes back to the caller, rather than being made while placing another order
+     */
+    private Action moveOrder(int handle, String orderId, StorageType newStorageType, long timestampMicros,
+                             boolean returned) {
+        StorageLocation currentLocation = lockOrderStorage(handle, orderId, newStorageType);
+        if (currentLocation == null) {
+            logger.warn("Order not found for move: {}", orderId);
+            return null;
+        }
         try {
-            StorageLocation currentLocation = orderLocations.get(orderId);
-            if (currentLocation == null) {
-                logger.warn("Order not found for move: {}", orderId);
-                return null;
-            }
-            
             if (!hasCapacity(newStorageType)) {
                 logger.warn("Target storage full for move: {}", newStorageType);
                 return null;
             }
             
             // Remove from current storage
+            endOccupancy(currentLocation, timestampMicros);
             storage.get(currentLocation.getStorageType()).remove(currentLocation);
             discardStrategy.removeOrder(currentLocation);
             
@@ -245,24 +387,35 @@ public class StorageManager {
                 newStorageType, 
                 currentLocation.getPlacedAtMicros()
             );
+            newLocation.setOrderHandle(handle);
             
             // Add to new storage
             storage.get(newStorageType).add(newLocation);
-            orderLocations.put(orderId, newLocation);
-            // Update allPlacements to reflect the move - use the move timestamp as the new placement timestamp
+            orders.setLocation(handle, newLocation);
+            // Update the order's placement to reflect the move - use the move timestamp as the new placement timestamp
             // for the new storage type (the order is now "placed" in the new storage at the move time)
             StorageLocation movedLocation = new StorageLocation(
                 currentLocation.getOrder(),
                 newStorageType,
                 timestampMicros  // Use move timestamp as placement timestamp in new storage
             );
-            allPlacements.put(orderId, movedLocation);
+            movedLocation.setOrderHandle(handle);
+            orders.setPlacement(handle, movedLocation);
+            startOccupancy(handle, newStorageType, timestampMicros);
             discardStrategy.addOrder(newLocation);
+            log(WriteAheadLog.Op.MOVE, returned ? WriteAheadLog.RETURNED : 0, newStorageType, timestampMicros, orderId,
+                null);
+            if (journal != null) {
+                journal.move(timestampMicros, currentLocation.getStorageType(), newLocation);
+            }
             
-            logger.info("Moved order {} from {} to {}", orderId, currentLocation.getStorageType(), newStorageType);
+            if (DecisionTrace.ENABLED) {
+                DecisionTrace.event("move", "order", orderId, "t", timestampMicros,
+                                    "from", currentLocation.getStorageType().getValue(), "to", newStorageType.getValue());
+            }
             return new Action(timestampMicros, orderId, ActionType.MOVE, newStorageType);
         } finally {
-            lock.writeLock().unlock();
+            unlockStorage(currentLocation.getStorageType(), newStorageType);
         }
     }
 
@@ -270,29 +423,46 @@ public class StorageManager {
      * Discard an order.
      */
     public Action discardOrder(String orderId, long timestampMicros) {
-        lock.writeLock().lock();
+        Action action = discardOrder(orders.find(orderId), orderId, timestampMicros, true);
+        commit();
+        return action;
+    }
+    
+    /**
+     * @param handle the order's handle, or {@link OrderTable#NOT_FOUND}
+     * @param returned whether the action goes back to the caller, rather than being made while placing another order
+     */
+    private Action discardOrder(int handle, String orderId, long timestampMicros, boolean returned) {
+        StorageLocation location = lockOrderStorage(handle, orderId, null);
+        if (location == null) {
+            logger.warn("Order not found for discard: {}", orderId);
+            return null;
+        }
         try {
-            StorageLocation location = orderLocations.get(orderId);
-            if (location == null) {
-                logger.warn("Order not found for discard: {}", orderId);
-                return null;
-            }
-            
+            endOccupancy(location, timestampMicros);
             discardStrategy.removeOrder(location);
             storage.get(location.getStorageType()).remove(location);
-            orderLocations.remove(orderId);
+            orders.setLocation(handle, null);
+            log(WriteAheadLog.Op.DISCARD, returned ? WriteAheadLog.RETURNED : 0, location.getStorageType(),
+                timestampMicros, orderId, null);
+            if (journal != null) {
+                journal.discard(timestampMicros, location, false);
+            }
             
-            logger.info("Discarded order: {}", orderId);
+            if (DecisionTrace.ENABLED) {
+                DecisionTrace.event("discard", "order", orderId, "t", timestampMicros,
+                                    "storage", location.getStorageType().getValue());
+            }
             return new Action(timestampMicros, orderId, ActionType.DISCARD, location.getStorageType());
         } finally {
-            lock.writeLock().unlock();
+            unlockStorage(location.getStorageType(), null);
         }
     }
 
     /**
      * Place an order in specific storage.
      */
-    private Action placeInStorage(Order order, StorageType storageType, long timestampMicros) {
+    private Action placeInStorage(int handle, Order order, StorageType storageType, long timestampMicros) {
         // Validate that the order can be placed in this storage type
         if (storageType == StorageType.HEATER && order.getTemperature() != Temperature.HOT) {
             String error = String.format("VALIDATION ERROR: Cannot place non-hot order %s (temp: %s) in heater", 
@@ -310,8 +480,6 @@ public class StorageManager {
         // Safety check: ensure storage has capacity at this timestamp before placing
         int effectiveSize = getEffectiveSizeAtTimestamp(storageType, timestampMicros);
         int capacity = getCapacity(storageType);
-        logger.info("placeInStorage: Order {} -> {}, effective size at timestamp {}: {}/{}, capacity check: {}", 
-                   order.getId(), storageType, timestampMicros, effectiveSize, capacity, effectiveSize < capacity);
         
         if (effectiveSize >= capacity) {
             String error = String.format("CAPACITY ERROR: Cannot place order %s in %s at timestamp %d - storage at effective capacity (size: %d, capacity: %d)", 
@@ -321,6 +489,7 @@ public class StorageManager {
         }
         
         StorageLocation location = new StorageLocation(order, storageType, timestampMicros);
+        location.setOrderHandle(handle);
         
         // Double-check capacity right before adding (defensive programming)
         int effectiveSizeBeforeAdd = getEffectiveSizeAtTimestamp(storageType, timestampMicros);
@@ -332,24 +501,363 @@ public class StorageManager {
         }
         
         storage.get(storageType).add(location);
-        orderLocations.put(order.getId(), location);
-        allPlacements.put(order.getId(), location);  // Track all placements for state reconstruction
+        orders.setLocation(handle, location);
+        orders.setPlacement(handle, location);  // Track all placements for state reconstruction
+        startOccupancy(handle, storageType, timestampMicros);
         discardStrategy.addOrder(location);
+        log(WriteAheadLog.Op.PLACE, WriteAheadLog.RETURNED, storageType, timestampMicros, order.getId(), order);
+        if (journal != null) {
+            journal.place(timestampMicros, location, getEffectiveSizeAtTimestamp(storageType, timestampMicros), capacity);
+        }
 
-        int sizeAfterAdd = getEffectiveSizeAtTimestamp(storageType, timestampMicros);
-        logger.info("placeInStorage: Order {} successfully added to {}, effective size: {} -> {}",
-                   order.getId(), storageType, effectiveSizeBeforeAdd, sizeAfterAdd);
-        
-        logger.info("✓ Placed order {} (temp: {}) in {} (storage now {}/{})", 
-                   order.getId(), order.getTemperature(), storageType.getValue(), 
-                   storage.get(storageType).size(), capacity);
+        if (DecisionTrace.ENABLED) {
+            DecisionTrace.event("place", "order", order.getId(), "t", timestampMicros, "storage", storageType.getValue(),
+                                "size", effectiveSizeBeforeAdd + "->" + getEffectiveSizeAtTimestamp(storageType, timestampMicros),
+                                "capacity", capacity, "stored", storage.get(storageType).size());
+        }
         return new Action(timestampMicros, order.getId(), ActionType.PLACE, storageType);
     }
     
+    private void journalCapacityCheck(String orderId, StorageType storageType, long timestampMicros,
+                                      boolean hasCapacity) {
+        journal.capacityCheck(timestampMicros, orderId, storageType,
+                              getEffectiveSizeAtTimestamp(storageType, timestampMicros), getCapacity(storageType),
+                              hasCapacity);
+    }
+    
+    private void log(WriteAheadLog.Op op, int flags, StorageType storageType, long timestampMicros, String orderId,
+                     Order order) {
+        if (wal != null && !replaying) {
+            wal.append(op, flags, storageType, timestampMicros, orderId, order);
+        }
+    }
+    
+    /**
+     * Wait for the operation's log records to reach disk; called with no storage lock held.
+     */
+    private void commit() {
+        if (wal != null) {
+            wal.commit();
+        }
+    }
+    
+    /**
+     * Rebuild a storage manager by replaying a write-ahead log, then keep logging to it. Records after the last
+     * intact one, torn by a crash, are cut off.
+     *
+     * @param journal receives the replayed decisions and all later ones, or null
+     * @param commitWaits whether each later operation waits until its records are on disk
+     * @throws IllegalStateException if the log does not replay to the state it was written from
+     */
+    public static RecoveredStorage recover(Path walFile, long retentionMicros, DecisionJournal journal,
+                                           boolean commitWaits) throws IOException {
+        return recover(walFile, null, retentionMicros, journal, commitWaits);
+    }
+    
+    /**
+     * Rebuild a storage manager from the latest checkpoint written by {@link #checkpoint}, then replay only the
+     * write-ahead log records after it. A checkpoint that is missing, unreadable or written for another log is
+     * ignored with a warning, and the whole log is replayed.
+     *
+     * @param checkpointFile the checkpoint, or null to replay the whole log
+     * @see #recover(Path, long, DecisionJournal, boolean)
+     */
+    public static RecoveredStorage recover(Path walFile, Path checkpointFile, long retentionMicros,
+                                           DecisionJournal journal, boolean commitWaits) throws IOException {
+        long start = System.nanoTime();
+        StorageCheckpoint.Reader checkpoint = checkpointFile != null
+            ? openCheckpoint(checkpointFile, WriteAheadLog.readLogId(walFile)) : null;
+        WriteAheadLog.Contents contents = checkpoint != null
+            ? WriteAheadLog.read(walFile, checkpoint.getWalBytes()) : WriteAheadLog.read(walFile);
+        StorageManager storageManager = new StorageManager(retentionMicros, journal,
+                                                           WriteAheadLog.append(walFile, contents, commitWaits));
+        List<Action> actions = new ArrayList<>();
+        storageManager.replaying = true;
+        try {
+            if (checkpoint != null) {
+                storageManager.readState(checkpoint);
+                readLedger(checkpoint, actions);
+            }
+            for (WriteAheadLog.Record record : contents.records) {
+                Action action = storageManager.apply(record);
+                if ((record.flags & WriteAheadLog.RETURNED) != 0) {
+                    actions.add(action);
+                }
+            }
+        } finally {
+            storageManager.replaying = false;
+        }
+        return new RecoveredStorage(storageManager, actions, checkpoint != null ? checkpoint.getWalBytes() : 0,
+                                    contents.records.size(), contents.fileBytes - contents.validBytes,
+                                    System.nanoTime() - start);
+    }
+    
+    private static StorageCheckpoint.Reader openCheckpoint(Path checkpointFile, long logId) {
+        if (!Files.exists(checkpointFile)) {
+            return null;
+        }
+        try {
+            StorageCheckpoint.Reader checkpoint = StorageCheckpoint.Reader.open(checkpointFile);
+            if (checkpoint.getLogId() != logId) {
+                logger.warn("Ignoring checkpoint {}: it was written for another write-ahead log", checkpointFile);
+                return null;
+            }
+            return checkpoint;
+        } catch (IOException e) {
+            logger.warn("Ignoring checkpoint {}; replaying the whole write-ahead log", checkpointFile, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Write the state, and the ledger of the actions returned so far, to a checkpoint from which {@link #recover}
+     * replays only the write-ahead log records appended after it. Storage operations wait while the state is
+     * written. The previous checkpoint is replaced atomically once the new one and the log it covers are on disk.
+     *
+     * @param ledger every action this manager has returned, and no others; it must not change during the call
+     * @throws IllegalStateException if the manager has no write-ahead log
+     */
+    public CheckpointStats checkpoint(Path file, List<Action> ledger) throws IOException {
+        return checkpoint(file, ledger, () -> { });
+    }
+
+    /**
+     * {@link #checkpoint(Path, List)} for a caller that holds back its own operations so the ledger cannot change:
+     * once the ledger is in the file, and before the file is synced, {@code ledgerWritten} runs to let them go.
+     * It runs exactly once, also if the checkpoint fails.
+     */
+    public CheckpointStats checkpoint(Path file, List<Action> ledger, Runnable ledgerWritten) throws IOException {
+        boolean released = false;
+        try {
+            if (wal == null) {
+                throw new IllegalStateException("Checkpoints need a write-ahead log");
+            }
+            long start = System.nanoTime();
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            long walBytes;
+            long pauseNanos;
+            long fileBytes;
+            RetentionStats retained;
+            int inStorage;
+            try (StorageCheckpoint.Writer out = new StorageCheckpoint.Writer(temp)) {
+                lockAllStorage();
+                try {
+                    walBytes = wal.getBytes();
+                    writeState(out);
+                    retained = buildRetentionStats();
+                    inStorage = countStoredOrders();
+                } finally {
+                    unlockAllStorage();
+                }
+                writeLedger(out, ledger);
+                released = true;
+                ledgerWritten.run();
+                pauseNanos = System.nanoTime() - start;
+                fileBytes = out.finish(wal.getLogId(), walBytes);
+            }
+            // Never leave a checkpoint covering log records a crash could still lose
+            wal.awaitDurable(walBytes);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new CheckpointStats(inStorage, retained.getRetainedPlacements(),
+                                       retained.getRetainedScheduledPickups(), retained.getRetainedTimelineEvents(),
+                                       ledger.size(), fileBytes, walBytes, pauseNanos, System.nanoTime() - start);
+        } finally {
+            if (!released) {
+                ledgerWritten.run();
+            }
+        }
+    }
+    
+    /**
+     * Write everything recovery needs to carry on as this manager would. Caller holds every storage lock.
+     */
+    private void writeState(StorageCheckpoint.Writer out) {
+        out.putLong(latestTimestampMicros.get());
+        out.putLong(compactedThroughMicros);
+        // Orders in storage, in list order so the discard strategy breaks ties between them as before
+        for (StorageType storageType : StorageType.values()) {
+            List<StorageLocation> stored = storage.get(storageType);
+            out.putInt(stored.size());
+            for (StorageLocation location : stored) {
+                out.putOrder(location.getOrder());
+                out.putLong(location.getPlacedAtMicros());
+                // Later than the above once the order was moved
+                out.putLong(orders.placement(location.getOrderHandle()).getPlacedAtMicros());
+            }
+        }
+        int handleLimit = orders.handleLimit();
+        int departed = 0;
+        int pickups = 0;
+        for (int handle = 0; handle < handleLimit; handle++) {
+            if (orders.placement(handle) != null && orders.location(handle) == null) {
+                departed++;
+            }
+            if (orders.pickup(handle) != OrderTable.NO_PICKUP) {
+                pickups++;
+            }
+        }
+        // Placements of orders that have left, kept until compaction
+        out.putInt(departed);
+        for (int handle = 0; handle < handleLimit; handle++) {
+            StorageLocation placement = orders.placement(handle);
+            if (placement != null && orders.location(handle) == null) {
+                out.putOrder(placement.getOrder());
+                out.putByte(placement.getStorageType().ordinal());
+                out.putLong(placement.getPlacedAtMicros());
+            }
+        }
+        out.putInt(pickups);
+        for (int handle = 0; handle < handleLimit; handle++) {
+            long pickupTimestampMicros = orders.pickup(handle);
+            if (pickupTimestampMicros != OrderTable.NO_PICKUP) {
+                out.putString(orders.id(handle));
+                out.putLong(pickupTimestampMicros);
+            }
+        }
+        occupancy.writeTo(out);
+    }
+    
+    /**
+     * Load the state written by {@link #writeState} into a new manager no other thread uses yet.
+     */
+    private void readState(StorageCheckpoint.Reader in) {
+        StorageType[] storageTypes = StorageType.values();
+        latestTimestampMicros.set(in.getLong());
+        compactedThroughMicros = in.getLong();
+        for (StorageType storageType : storageTypes) {
+            for (int count = in.getInt(); count > 0; count--) {
+                Order order = in.getOrder();
+                int handle = orders.intern(order.getId());
+                StorageLocation location = new StorageLocation(order, storageType, in.getLong());
+                location.setOrderHandle(handle);
+                long placedAtMicros = in.getLong();
+                storage.get(storageType).add(location);
+                orders.setLocation(handle, location);
+                StorageLocation placement = location;
+                if (placedAtMicros != location.getPlacedAtMicros()) {
+                    placement = new StorageLocation(order, storageType, placedAtMicros);
+                    placement.setOrderHandle(handle);
+                }
+                orders.setPlacement(handle, placement);
+                discardStrategy.addOrder(location);
+            }
+        }
+        for (int count = in.getInt(); count > 0; count--) {
+            Order order = in.getOrder();
+            int handle = orders.intern(order.getId());
+            StorageLocation placement = new StorageLocation(order, storageTypes[in.getByte()], in.getLong());
+            placement.setOrderHandle(handle);
+            orders.setPlacement(handle, placement);
+        }
+        for (int count = in.getInt(); count > 0; count--) {
+            int handle = orders.intern(in.getString());
+            orders.setPickup(handle, in.getLong());
+        }
+        occupancy.readFrom(in);
+    }
+    
+    private static void writeLedger(StorageCheckpoint.Writer out, List<Action> ledger) {
+        out.putInt(ledger.size());
+        for (Action action : ledger) {
+            out.putLong(action.getTimestampMicros());
+            out.putString(action.getOrderId());
+            out.putByte(action.getActionType().ordinal());
+            out.putByte(action.getTarget().ordinal());
+        }
+    }
+    
+    private static void readLedger(StorageCheckpoint.Reader in, List<Action> actions) {
+        ActionType[] actionTypes = ActionType.values();
+        StorageType[] storageTypes = StorageType.values();
+        for (int count = in.getInt(); count > 0; count--) {
+            long timestampMicros = in.getLong();
+            String orderId = in.getString();
+            ActionType actionType = actionTypes[in.getByte()];
+            actions.add(new Action(timestampMicros, orderId, actionType, storageTypes[in.getByte()]));
+        }
+    }
+    
+    /**
+     * Redo one logged change through the same code that made it, on a manager no other thread uses yet.
+     */
+    private Action apply(WriteAheadLog.Record record) {
+        Action action;
+        switch (record.op) {
+            case SCHEDULE_PICKUP:
+                registerScheduledPickup(record.orderId, record.timestampMicros);
+                return null;
+            case PLACE:
+                observeTimestamp(record.timestampMicros);
+                action = placeInStorage(orders.intern(record.order.getId()), record.order, record.storageType,
+                                        record.timestampMicros);
+                break;
+            case MOVE:
+                action = moveOrder(orders.find(record.orderId), record.orderId, record.storageType,
+                                   record.timestampMicros, (record.flags & WriteAheadLog.RETURNED) != 0);
+                break;
+            case PICKUP:
+                action = pickup(record.orderId, record.timestampMicros);
+                break;
+            case DISCARD:
+                action = (record.flags & WriteAheadLog.AT_PICKUP) != 0
+                    ? pickup(record.orderId, record.timestampMicros)
+                    : discardOrder(orders.find(record.orderId), record.orderId, record.timestampMicros,
+                                   (record.flags & WriteAheadLog.RETURNED) != 0);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected write-ahead log record: " + record.op);
+        }
+        if (action == null || !action.getActionType().name().equals(record.op.name())
+            || action.getTarget() != record.storageType) {
+            throw new IllegalStateException(String.format("Write-ahead log does not replay: %s %s %s at %d became %s",
+                                                          record.op, record.orderId, record.storageType,
+                                                          record.timestampMicros, action));
+        }
+        return action;
+    }
+    
+    /**
+     * Scheduled pickup time of an order, or null if none was registered.
+     */
+    public Long getScheduledPickup(String orderId) {
+        lockAllStorage();
+        try {
+            int handle = orders.find(orderId);
+            long pickupTimestampMicros = handle != OrderTable.NOT_FOUND ? orders.pickup(handle) : OrderTable.NO_PICKUP;
+            return pickupTimestampMicros != OrderTable.NO_PICKUP ? pickupTimestampMicros : null;
+        } finally {
+            unlockAllStorage();
+        }
+    }
+    
+    /**
+     * Give handles to the ids of orders still to come, when the whole order list is known before the first
+     * placement: the order table is then sized once, and no order's first operation has to add its id.
+     */
+    public void registerOrders(Collection<String> orderIds) {
+        orders.internAll(orderIds);
+    }
+    
+    /**
+     * Close the write-ahead log and decision journal, if any, once storage operations have stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (wal != null) {
+                wal.close();
+            }
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+    
     /**
      * Get the capacity of a storage type.
      */
-    private int getCapacity(StorageType storageType) {
+    public static int getCapacity(StorageType storageType) {
         switch (storageType) {
             case HEATER: return HEATER_CAPACITY;
             case COOLER: return COOLER_CAPACITY;
@@ -361,7 +869,7 @@ public class StorageManager {
     /**
      * Get the ideal storage type for a temperature.
      */
-    private StorageType getIdealStorage(Temperature temperature) {
+    public static StorageType getIdealStorage(Temperature temperature) {
         switch (temperature) {
             case HOT: return StorageType.HEATER;
             case COLD: return StorageType.COOLER;
@@ -387,53 +895,132 @@ public class StorageManager {
      * Get the effective size of storage at a given timestamp, excluding orders with pickups scheduled before that timestamp.
      */
     private int getEffectiveSizeAtTimestamp(StorageType storageType, long timestampMicros) {
-        // Count orders that will be in storage at the given timestamp.
-        // We need to reconstruct the state at this timestamp by checking:
-        // 1. Orders that were placed before or at this timestamp
-        // 2. Orders whose pickups are scheduled after this timestamp (or have no scheduled pickup)
         // The server validates actions in chronological order, and at the same timestamp,
-        // pickups are processed BEFORE placements, so we exclude orders with pickups
-        // scheduled at the exact same timestamp or earlier.
-        int count = 0;
-        java.util.List<String> includedOrders = new java.util.ArrayList<>();
-        java.util.List<String> excludedOrders = new java.util.ArrayList<>();
-        
-        // Check all orders that were ever placed in this storage type
-        for (StorageLocation location : allPlacements.values()) {
-            // Only consider orders placed in this storage type
-            if (location.getStorageType() != storageType) {
-                continue;
-            }
-            
-            String orderId = location.getOrder().getId();
-            long placementTimestamp = location.getPlacedAtMicros();
-            
-            // Only count orders placed before or at this timestamp
-            if (placementTimestamp > timestampMicros) {
-                continue; // Order was placed after this timestamp, don't count it
+        // pickups are processed BEFORE placements, so orders whose occupancy ends at the exact
+        // same timestamp or earlier are not counted (see OccupancyTracker).
+        return occupancy.getOccupancyAt(storageType, timestampMicros);
+    }
+    
+    /**
+     * Advance the latest operation timestamp that bounds how far back capacity queries reach.
+     */
+    private void observeTimestamp(long timestampMicros) {
+        long latest = latestTimestampMicros.get();
+        while (timestampMicros > latest && !latestTimestampMicros.compareAndSet(latest, timestampMicros)) {
+            latest = latestTimestampMicros.get();
+        }
+    }
+    
+    /**
+     * Write-lock the storage currently holding an order, plus an optional second storage type.
+     * Retries if the order is moved before the locks are obtained.
+     *
+     * @param handle the order's handle, or {@link OrderTable#NOT_FOUND}
+     * @return the order's location with the locks held, or null (no locks held) if it is not in storage
+     */
+    private StorageLocation lockOrderStorage(int handle, String orderId, StorageType otherStorageType) {
+        if (handle == OrderTable.NOT_FOUND) {
+            return null;
+        }
+        while (true) {
+            StorageLocation location = orders.location(handle);
+            if (location == null) {
+                return null;
             }
-            
-            Long pickupTimestamp = scheduledPickups.get(orderId);
-            // Count the order only if:
-            // 1. It doesn't have a scheduled pickup, OR
-            // 2. The scheduled pickup is STRICTLY AFTER the placement timestamp
-            // At the same timestamp, pickups happen BEFORE placements, so we exclude orders
-            // whose pickups are scheduled at the same timestamp or earlier.
-            // We only count orders whose pickups are scheduled AFTER the placement timestamp.
-            if (pickupTimestamp == null || pickupTimestamp > timestampMicros) {
-                count++;
-                includedOrders.add(orderId + "(placed@" + placementTimestamp + (pickupTimestamp != null ? ", pickup@" + pickupTimestamp + ")" : ", no pickup)"));
-            } else {
-                // Order has pickup scheduled at or before this timestamp - exclude it
-                excludedOrders.add(orderId + "(placed@" + placementTimestamp + ", pickup@" + pickupTimestamp + " <= placement@" + timestampMicros + ")");
+            lockStorage(location.getStorageType(), otherStorageType);
+            if (orders.location(handle) == location) {
+                // Compaction may have given the handle to another order since it was looked up
+                if (location.getOrder().getId().equals(orderId)) {
+                    return location;
+                }
+                unlockStorage(location.getStorageType(), otherStorageType);
+                return null;
             }
+            unlockStorage(location.getStorageType(), otherStorageType);
         }
-        
-        logger.info("Effective size calculation for {} at timestamp {}: count={}, included={}, excluded={}",
-                   storageType, timestampMicros, count, String.join(", ", includedOrders), 
-                   excludedOrders.isEmpty() ? "none" : String.join(", ", excludedOrders));
-        
-        return count;
+    }
+    
+    /**
+     * Write-lock one or two storage types in StorageType declaration order.
+     */
+    private void lockStorage(StorageType first, StorageType second) {
+        if (second == null || second == first) {
+            locks.get(first).writeLock().lock();
+        } else if (first.ordinal() < second.ordinal()) {
+            locks.get(first).writeLock().lock();
+            locks.get(second).writeLock().lock();
+        } else {
+            locks.get(second).writeLock().lock();
+            locks.get(first).writeLock().lock();
+        }
+    }
+    
+    private void unlockStorage(StorageType first, StorageType second) {
+        if (second != null && second != first) {
+            locks.get(second).writeLock().unlock();
+        }
+        locks.get(first).writeLock().unlock();
+    }
+    
+    private void lockAllStorage() {
+        for (StorageType storageType : StorageType.values()) {
+            locks.get(storageType).writeLock().lock();
+        }
+    }
+    
+    private void unlockAllStorage() {
+        StorageType[] storageTypes = StorageType.values();
+        for (int i = storageTypes.length - 1; i >= 0; i--) {
+            locks.get(storageTypes[i]).writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Trace the orders in a storage type. The caller must hold that storage's lock.
+     */
+    private void traceStorageContents(StorageType storageType) {
+        DecisionTrace.event("storage.contents", "storage", storageType.getValue(),
+                            "orders", DecisionTrace.contents(storage.get(storageType)));
+    }
+    
+    /**
+     * Start tracking an order's occupancy of a storage type from the given timestamp.
+     * Must be called after the order's placement has been updated.
+     */
+    private void startOccupancy(int handle, StorageType storageType, long timestampMicros) {
+        occupancy.recordArrival(storageType, timestampMicros);
+        long departure = getRecordedDeparture(handle);
+        if (departure != OrderTable.NO_PICKUP) {
+            occupancy.recordDeparture(storageType, departure);
+        }
+    }
+    
+    /**
+     * Stop tracking an order's occupancy at the given timestamp (pickup, move or discard).
+     * If the order's scheduled pickup falls after this timestamp, its departure is brought forward.
+     */
+    private void endOccupancy(StorageLocation location, long timestampMicros) {
+        long departure = getRecordedDeparture(location.getOrderHandle());
+        if (departure == OrderTable.NO_PICKUP) {
+            occupancy.recordDeparture(location.getStorageType(), timestampMicros);
+        } else if (departure > timestampMicros) {
+            occupancy.cancelDeparture(location.getStorageType(), departure);
+            occupancy.recordDeparture(location.getStorageType(), timestampMicros);
+        }
+    }
+    
+    /**
+     * The departure recorded in the occupancy tracker for an order's current storage:
+     * its scheduled pickup, but never earlier than the time it entered that storage.
+     *
+     * @return the departure, or {@link OrderTable#NO_PICKUP} if no pickup is scheduled
+     */
+    private long getRecordedDeparture(int handle) {
+        long pickupTimestamp = orders.pickup(handle);
+        if (pickupTimestamp == OrderTable.NO_PICKUP) {
+            return OrderTable.NO_PICKUP;
+        }
+        return Math.max(pickupTimestamp, orders.placement(handle).getPlacedAtMicros());
     }
     
     /**
@@ -450,30 +1037,144 @@ public class StorageManager {
     }
 
     /**
-     * Get storage status for monitoring.
+     * Drop placement history, scheduled pickups and occupancy events that no capacity query can reach
+     * any more, i.e. everything that ended more than the retention period before the latest operation.
+     * Orders still in storage are always kept. Handles of ids that have held nothing for the retention period,
+     * such as ids registered but never placed, are released too.
      */
-    public Map<StorageType, Integer> getStorageStatus() {
-        lock.readLock().lock();
+    public RetentionStats compact() {
+        lockAllStorage();
+        try {
+            long latestMicros = latestTimestampMicros.get();
+            if (latestMicros == Long.MIN_VALUE) {
+                return buildRetentionStats();
+            }
+            long startNanos = System.nanoTime();
+            long cutoffMicros = latestMicros - retentionMicros;
+            int dropped = occupancy.compactThrough(cutoffMicros);
+            
+            // Orders that have left storage, and pickups registered for orders that were never placed;
+            // an order forgotten entirely gives up its handle
+            int handleLimit = orders.handleLimit();
+            for (int handle = 0; handle < handleLimit; handle++) {
+                if (orders.location(handle) != null) {
+                    continue;
+                }
+                StorageLocation placement = orders.placement(handle);
+                long pickupTimestamp = orders.pickup(handle);
+                if (placement == null && pickupTimestamp == OrderTable.NO_PICKUP) {
+                    // Free, or given to an id that has not been placed: registered up front, or its placement failed
+                    orders.releaseIfIdle(handle, latestMicros, cutoffMicros);
+                    continue;
+                }
+                long lastReachable = placement != null
+                    ? Math.max(placement.getPlacedAtMicros(), pickupTimestamp) : pickupTimestamp;
+                if (lastReachable <= cutoffMicros) {
+                    if (placement != null) {
+                        orders.setPlacement(handle, null);
+                        dropped++;
+                    }
+                    if (pickupTimestamp != OrderTable.NO_PICKUP) {
+                        orders.setPickup(handle, OrderTable.NO_PICKUP);
+                        dropped++;
+                    }
+                    orders.release(handle);
+                }
+            }
+            
+            compactedThroughMicros = Math.max(compactedThroughMicros, cutoffMicros);
+            droppedLastPass = dropped;
+            lastCompactionNanos = System.nanoTime() - startNanos;
+            totalCompactions++;
+            return buildRetentionStats();
+        } finally {
+            unlockAllStorage();
+        }
+    }
+    
+    /**
+     * Get retained history sizes and the timings of the last compaction pass.
+     */
+    public RetentionStats getRetentionStats() {
+        lockAllStorage();
+        try {
+            return buildRetentionStats();
+        } finally {
+            unlockAllStorage();
+        }
+    }
+    
+    private RetentionStats buildRetentionStats() {
+        int placements = 0;
+        int pickups = 0;
+        int handleLimit = orders.handleLimit();
+        for (int handle = 0; handle < handleLimit; handle++) {
+            if (orders.placement(handle) != null) {
+                placements++;
+            }
+            if (orders.pickup(handle) != OrderTable.NO_PICKUP) {
+                pickups++;
+            }
+        }
+        return new RetentionStats(placements, pickups, occupancy.getRetainedEventCount(), orders.size(),
+                                  compactedThroughMicros, droppedLastPass, lastCompactionNanos, totalCompactions);
+    }
+    
+    /**
+     * Find the earliest timestamp at or after the given one at which a storage type has a free slot,
+     * based on the pickups scheduled so far.
+     *
+     * @return the timestamp, or {@link OccupancyTimeline#NO_FREE_SLOT} if no scheduled pickup frees a slot
+     */
+    public long findNextFreeSlot(StorageType storageType, long timestampMicros) {
+        locks.get(storageType).readLock().lock();
         try {
-            Map<StorageType, Integer> status = new HashMap<>();
-            status.put(StorageType.HEATER, storage.get(StorageType.HEATER).size());
-            status.put(StorageType.COOLER, storage.get(StorageType.COOLER).size());
-            status.put(StorageType.SHELF, storage.get(StorageType.SHELF).size());
-            return status;
+            return occupancy.findFirstFreeSlot(storageType, timestampMicros, getCapacity(storageType));
         } finally {
-            lock.readLock().unlock();
+            locks.get(storageType).readLock().unlock();
         }
     }
 
+    /**
+     * Get storage status for monitoring.
+     */
+    public Map<StorageType, Integer> getStorageStatus() {
+        Map<StorageType, Integer> status = new HashMap<>();
+        for (StorageType storageType : StorageType.values()) {
+            locks.get(storageType).readLock().lock();
+            try {
+                status.put(storageType, storage.get(storageType).size());
+            } finally {
+                locks.get(storageType).readLock().unlock();
+            }
+        }
+        return status;
+    }
+
     /**
      * Get all orders currently in storage.
      */
     public Collection<StorageLocation> getAllOrders() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(orderLocations.values());
-        } finally {
-            lock.readLock().unlock();
+        List<StorageLocation> stored = new ArrayList<>();
+        for (StorageType storageType : StorageType.values()) {
+            locks.get(storageType).readLock().lock();
+            try {
+                stored.addAll(storage.get(storageType));
+            } finally {
+                locks.get(storageType).readLock().unlock();
+            }
+        }
+        return stored;
+    }
+    
+    /**
+     * Orders in storage. Caller holds every storage lock.
+     */
+    private int countStoredOrders() {
+        int count = 0;
+        for (List<StorageLocation> stored : storage.values()) {
+            count += stored.size();
         }
+        return count;
     }
 }
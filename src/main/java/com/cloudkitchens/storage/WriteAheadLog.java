@@ -0,0 +1,437 @@
+package com.cloudkitchens.storage;
+
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.model.Temperature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log of every change StorageManager makes to its state: scheduled pickups, placements, moves,
+ * pickups and discards, including the moves and discards made while placing another order. Records are appended
+ * while the storage locks of the change are held, so replaying them in log order rebuilds the same state.
+ * <p>
+ * Group commit: appends go into an in-memory batch, and one background thread writes the batch and forces it to
+ * disk, while the next batch fills up. With commit waits on, each StorageManager operation returns only once its
+ * records are on disk; otherwise the log trails the kitchen by at most one batch.
+ * <p>
+ * Each record is {@code [body length][CRC-32 of body][body]}, so a record torn by a crash is detected and dropped
+ * along with everything after it. The file header carries a random id, so a {@link StorageManager} checkpoint can
+ * tell which log it covers.
+ */
+public final class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final int MAGIC = 0x4B57414C; // "KWAL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int INITIAL_BATCH_BYTES = 64 * 1024;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    /**
+     * Kinds of state change; the ordinal is the first body byte, so only append new kinds.
+     */
+    public enum Op {
+        SCHEDULE_PICKUP,
+        PLACE,
+        MOVE,
+        PICKUP,
+        DISCARD
+    }
+
+    // Record flags
+    /** The action was returned to the caller, so it is in the action ledger. */
+    static final int RETURNED = 1;
+    /** A discard of an order found spoiled when it was picked up. */
+    static final int AT_PICKUP = 2;
+
+    private final FileChannel channel;
+    private final long logId;
+    private final boolean commitWaits;
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    // Guarded by this
+    private ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private long appendedBytes;
+    private long records;
+    private long syncs;
+    private boolean flusherIdle;
+    private boolean closed;
+    private IOException failure;
+    private volatile long durableBytes;
+
+    private WriteAheadLog(FileChannel channel, long logId, long length, boolean commitWaits) {
+        this.channel = channel;
+        this.logId = logId;
+        this.commitWaits = commitWaits;
+        this.appendedBytes = length;
+        this.durableBytes = length;
+        this.flusher = new Thread(this::run, "write-ahead-log");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Create an empty log, replacing any existing file.
+     *
+     * @param commitWaits whether each storage operation waits until its records are on disk
+     */
+    public static WriteAheadLog create(Path file, boolean commitWaits) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.WRITE);
+        long logId = ThreadLocalRandom.current().nextLong();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(logId).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+        return new WriteAheadLog(channel, logId, HEADER_BYTES, commitWaits);
+    }
+
+    /**
+     * Reopen a log that was just read to append after its last intact record, cutting off anything after that.
+     */
+    static WriteAheadLog append(Path file, Contents contents, boolean commitWaits) throws IOException {
+        long validBytes = contents.validBytes;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        if (channel.size() > validBytes) {
+            channel.truncate(validBytes);
+            channel.force(true);
+        }
+        channel.position(validBytes);
+        return new WriteAheadLog(channel, contents.logId, validBytes, commitWaits);
+    }
+
+    /**
+     * Append one state change. Called with the storage locks of the change held.
+     *
+     * @param order the whole order for {@link Op#PLACE}, otherwise null
+     */
+    synchronized void append(Op op, int flags, StorageType storageType, long timestampMicros, String orderId,
+                             Order order) {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        byte[] id = bytes(orderId);
+        byte[] name = order != null ? bytes(order.getName() != null ? order.getName() : "") : null;
+        int bodyBytes = 1 + 1 + 1 + 8 + 2 + id.length + (order != null ? 1 + 8 + 4 + 2 + name.length : 0);
+        ensureRoom(RECORD_HEADER_BYTES + bodyBytes);
+
+        int start = batch.position();
+        batch.position(start + RECORD_HEADER_BYTES);
+        batch.put((byte) op.ordinal()).put((byte) flags).put(storageType != null ? (byte) storageType.ordinal() : -1)
+            .putLong(timestampMicros).putShort((short) id.length).put(id);
+        if (order != null) {
+            batch.put((byte) order.getTemperature().ordinal()).putDouble(order.getPrice())
+                .putInt(order.getFreshnessSeconds()).putShort((short) name.length).put(name);
+        }
+        crc.reset();
+        crc.update(batch.array(), start + RECORD_HEADER_BYTES, bodyBytes);
+        batch.putInt(start, bodyBytes).putInt(start + 4, (int) crc.getValue());
+
+        appendedBytes += RECORD_HEADER_BYTES + bodyBytes;
+        records++;
+        if (flusherIdle) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * With commit waits on, wait until everything appended so far is on disk. Called after the storage locks
+     * are released, so other operations keep appending to the next batch meanwhile.
+     */
+    void commit() {
+        if (!commitWaits) {
+            return;
+        }
+        synchronized (this) {
+            awaitDurable(appendedBytes);
+        }
+    }
+
+    /**
+     * Wait until the first given bytes of the log are on disk, whether or not commits wait. An interrupt does not
+     * cut the wait short, since callers take the return to mean the bytes are durable; it is kept for the caller.
+     */
+    synchronized void awaitDurable(long target) {
+        boolean interrupted = false;
+        try {
+            while (durableBytes < target) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Write-ahead log failed", failure);
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    long getLogId() {
+        return logId;
+    }
+
+    public boolean isCommitWaits() {
+        return commitWaits;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * Batches written and forced to disk.
+     */
+    public synchronized long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Length of the log, header included.
+     */
+    public synchronized long getBytes() {
+        return appendedBytes;
+    }
+
+    /**
+     * Write out the last batch and close the file.
+     *
+     * @throws IOException if writing the log failed, now or earlier in the background
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        logger.info("Write-ahead log closed: {} records, {} bytes, {} syncs", getRecords(), getBytes(), getSyncs());
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            ByteBuffer writing;
+            long writtenBytes;
+            synchronized (this) {
+                while (batch.position() == 0) {
+                    if (closed || failure != null) {
+                        return;
+                    }
+                    flusherIdle = true;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Only close stops the flusher
+                    }
+                }
+                flusherIdle = false;
+                writing = batch;
+                batch = spare;
+                spare = null;
+                writtenBytes = appendedBytes;
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                logger.error("Failed to write the write-ahead log", e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                writing.clear();
+                spare = writing;
+                syncs++;
+                durableBytes = writtenBytes;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Make room in the current batch, growing it if the flusher is still writing the other one. Caller holds this.
+     */
+    private void ensureRoom(int bytes) {
+        if (batch.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + bytes));
+        batch.flip();
+        larger.put(batch);
+        batch = larger;
+    }
+
+    private static byte[] bytes(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Too long for the write-ahead log: " + value.substring(0, 64) + "...");
+        }
+        return bytes;
+    }
+
+    /**
+     * The random id written in a log's header when it was created.
+     */
+    static long readLogId(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is full
+            }
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a write-ahead log: " + file);
+        }
+        return header.getLong(8);
+    }
+
+    /**
+     * Read every intact record of a log, stopping at the first torn or corrupt one.
+     */
+    static Contents read(Path file) throws IOException {
+        return read(file, HEADER_BYTES);
+    }
+
+    /**
+     * Read the intact records from a record boundary on, such as the end of the part a checkpoint covers.
+     *
+     * @throws IOException if the file is not a write-ahead log or ends before the given position
+     */
+    static Contents read(Path file, long fromBytes) throws IOException {
+        long logId = readLogId(file);
+        ByteBuffer buffer;
+        long fileBytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            fileBytes = channel.size();
+            if (fromBytes < HEADER_BYTES || fromBytes > fileBytes) {
+                throw new IOException("Write-ahead log " + file + " ends at " + fileBytes + ", before " + fromBytes);
+            }
+            if (fileBytes - fromBytes > Integer.MAX_VALUE) {
+                throw new IOException("Write-ahead log too large to replay: " + file);
+            }
+            buffer = ByteBuffer.allocate((int) (fileBytes - fromBytes));
+            channel.position(fromBytes);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            buffer.flip();
+        }
+
+        List<Record> records = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        StorageType[] storageTypes = StorageType.values();
+        Op[] ops = Op.values();
+        int position = 0;
+        while (buffer.limit() - position >= RECORD_HEADER_BYTES) {
+            int bodyBytes = buffer.getInt(position);
+            int body = position + RECORD_HEADER_BYTES;
+            if (bodyBytes <= 0 || bodyBytes > buffer.limit() - body) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), body, bodyBytes);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            ByteBuffer in = ByteBuffer.wrap(buffer.array(), body, bodyBytes);
+            Op op = ops[in.get()];
+            int flags = in.get();
+            byte storage = in.get();
+            long timestampMicros = in.getLong();
+            String orderId = string(in);
+            Order order = null;
+            if (op == Op.PLACE) {
+                Temperature temperature = Temperature.values()[in.get()];
+                double price = in.getDouble();
+                int freshnessSeconds = in.getInt();
+                order = new Order(orderId, string(in), temperature, price, freshnessSeconds);
+            }
+            records.add(new Record(op, flags, storage >= 0 ? storageTypes[storage] : null, timestampMicros,
+                                   orderId, order));
+            position = body + bodyBytes;
+        }
+        return new Contents(logId, records, fromBytes + position, fileBytes);
+    }
+
+    private static String string(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Record {
+        final Op op;
+        final int flags;
+        final StorageType storageType;
+        final long timestampMicros;
+        final String orderId;
+        final Order order;
+
+        Record(Op op, int flags, StorageType storageType, long timestampMicros, String orderId, Order order) {
+            this.op = op;
+            this.flags = flags;
+            this.storageType = storageType;
+            this.timestampMicros = timestampMicros;
+            this.orderId = orderId;
+            this.order = order;
+        }
+    }
+
+    static final class Contents {
+        final long logId;
+        final List<Record> records;
+        final long validBytes;
+        final long fileBytes;
+
+        Contents(long logId, List<Record> records, long validBytes, long fileBytes) {
+            this.logId = logId;
+            this.records = records;
+            this.validBytes = validBytes;
+            this.fileBytes = fileBytes;
+        }
+    }
+}
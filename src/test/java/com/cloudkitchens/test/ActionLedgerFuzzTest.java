@@ -0,0 +1,208 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.service.ActionLedger;
+import com.cloudkitchens.service.LedgerView;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Randomized check of ActionLedger under concurrency: waves of short-lived threads record actions, about one in ten
+ * far behind the others so snapshots have to merge them in, while the main thread takes snapshots. Every snapshot
+ * of a heap ledger must be sorted, must hold a gap-free prefix of each thread's actions covering all it had
+ * recorded when the snapshot began, and must not change afterwards. The final ledger must hold every action once,
+ * with a thread's actions at equal timestamps in the order recorded; a mapped ledger must read back the same.
+ *
+ * Usage: ActionLedgerFuzzTest [rounds] [actions per thread] [seed]
+ */
+public class ActionLedgerFuzzTest {
+    private static final int WAVES = 3;
+    private static final int THREADS_PER_WAVE = 4;
+    private static final int THREADS = WAVES * THREADS_PER_WAVE;
+    private static final ActionType[] ACTION_TYPES = ActionType.values();
+    private static final StorageType[] STORAGE_TYPES = StorageType.values();
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        System.out.println("Action ledger fuzz test: " + rounds + " rounds of " + THREADS + " threads recording " +
+                           count + " actions each, seed " + seed);
+        for (int round = 0; round < rounds; round++) {
+            long roundSeed = seed * 31 + round;
+            run(new ActionLedger(), null, count, roundSeed, round);
+            Path directory = Files.createTempDirectory("ledger-fuzz");
+            try {
+                run(ActionLedger.mapped(directory), directory, count, roundSeed, round);
+            } finally {
+                for (Path file : Files.newDirectoryStream(directory)) {
+                    Files.delete(file);
+                }
+                Files.delete(directory);
+            }
+        }
+        System.out.println("Test completed successfully!");
+    }
+
+    /**
+     * @param directory where a mapped ledger keeps its files, or null for a heap ledger
+     */
+    private static void run(ActionLedger ledger, Path directory, int count, long seed, int round)
+        throws IOException, InterruptedException {
+        AtomicIntegerArray recorded = new AtomicIntegerArray(THREADS);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<LedgerView> snapshots = new ArrayList<>();
+        List<List<String>> copies = new ArrayList<>();
+        int checked = 0;
+        int nextKept = 0;
+        for (int wave = 0; wave < WAVES; wave++) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS_PER_WAVE; t++) {
+                int thread = wave * THREADS_PER_WAVE + t;
+                threads.add(new Thread(() -> record(ledger, thread, count, new Random(seed * THREADS + thread),
+                                                    recorded), "recorder-" + thread));
+            }
+            for (Thread thread : threads) {
+                thread.setUncaughtExceptionHandler((failed, throwable) -> failure.compareAndSet(null, throwable));
+                thread.start();
+            }
+            while (isAlive(threads)) {
+                int[] before = new int[THREADS];
+                for (int thread = 0; thread < THREADS; thread++) {
+                    before[thread] = recorded.get(thread);
+                }
+                LedgerView snapshot = ledger.snapshot();
+                // Views of a mapped ledger move as later snapshots merge late actions in
+                if (directory == null) {
+                    checkSnapshot(snapshot, before, count);
+                    checked++;
+                    // Keep a few, spread over the run, to check they never change
+                    if (snapshot.size() >= nextKept) {
+                        snapshots.add(snapshot);
+                        copies.add(toStrings(snapshot));
+                        nextKept = snapshot.size() + THREADS * count / 16;
+                    }
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Test failed", failure.get());
+        }
+
+        LedgerView ledgerView = ledger.snapshot();
+        int[] all = new int[THREADS];
+        for (int thread = 0; thread < THREADS; thread++) {
+            all[thread] = count;
+        }
+        checkSnapshot(ledgerView, all, count);
+        check(ledgerView.size() == THREADS * count, "ledger holds " + ledgerView.size() + " actions, not " +
+                                                    THREADS * count);
+        for (int i = 1; i < ledgerView.size(); i++) {
+            Action previous = ledgerView.get(i - 1);
+            Action action = ledgerView.get(i);
+            check(previous.getTimestampMicros() != action.getTimestampMicros()
+                  || thread(previous) != thread(action) || index(previous) < index(action),
+                  "actions " + previous + " and " + action + " at one timestamp out of recording order");
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            check(toStrings(snapshots.get(i)).equals(copies.get(i)), "snapshot " + i + " changed afterwards");
+        }
+        String footprint = ledger.getFootprint().toString();
+        List<String> expected = toStrings(ledgerView);
+        ledger.close();
+        if (directory != null) {
+            check(toStrings(ActionLedger.readMapped(directory)).equals(expected),
+                  "mapped ledger reads back other actions");
+        }
+        System.out.println("  round " + round + (directory != null ? " mapped" : " heap") + ": " +
+                           (directory == null ? checked + " snapshots checked, " : "") + footprint);
+    }
+
+    /**
+     * Record actions with timestamps mostly rising, but about one in ten from far behind.
+     */
+    private static void record(ActionLedger ledger, int thread, int count, Random random,
+                               AtomicIntegerArray recorded) {
+        long timestampMicros = 0;
+        for (int i = 0; i < count; i++) {
+            timestampMicros += random.nextInt(3);
+            long at = random.nextInt(10) == 0 ? random.nextInt(1_000) : timestampMicros;
+            ledger.record(new Action(at, thread + ":" + i, ACTION_TYPES[random.nextInt(ACTION_TYPES.length)],
+                                     STORAGE_TYPES[random.nextInt(STORAGE_TYPES.length)]));
+            recorded.set(thread, i + 1);
+        }
+    }
+
+    /**
+     * The snapshot must be sorted and hold, of each thread's actions, exactly its first ones, at least as many as
+     * the thread had recorded when the snapshot began.
+     */
+    private static void checkSnapshot(LedgerView snapshot, int[] before, int count) {
+        boolean[][] seen = new boolean[THREADS][count];
+        int[] held = new int[THREADS];
+        for (int i = 0; i < snapshot.size(); i++) {
+            Action action = snapshot.get(i);
+            check(i == 0 || snapshot.getTimestampMicros(i - 1) <= action.getTimestampMicros(),
+                  "snapshot out of order at " + i);
+            int thread = thread(action);
+            int index = index(action);
+            check(!seen[thread][index], "action " + action + " twice in a snapshot");
+            seen[thread][index] = true;
+            held[thread]++;
+        }
+        for (int thread = 0; thread < THREADS; thread++) {
+            check(held[thread] >= before[thread], "snapshot holds " + held[thread] + " actions of thread " + thread +
+                                                  ", which had recorded " + before[thread]);
+            for (int index = 0; index < held[thread]; index++) {
+                check(seen[thread][index], "snapshot holds " + held[thread] + " actions of thread " + thread +
+                                           " but not its action " + index);
+            }
+        }
+    }
+
+    private static boolean isAlive(List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int thread(Action action) {
+        String orderId = action.getOrderId();
+        return Integer.parseInt(orderId.substring(0, orderId.indexOf(':')));
+    }
+
+    private static int index(Action action) {
+        String orderId = action.getOrderId();
+        return Integer.parseInt(orderId.substring(orderId.indexOf(':') + 1));
+    }
+
+    private static List<String> toStrings(List<Action> actions) {
+        List<String> strings = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            strings.add(action.toString());
+        }
+        return strings;
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+}
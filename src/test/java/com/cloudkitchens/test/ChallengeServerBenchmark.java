@@ -0,0 +1,116 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.api.ChallengeApiClient;
+import com.cloudkitchens.api.HttpTransport;
+import com.cloudkitchens.api.HttpTransportConfig;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.server.LocalChallengeServer;
+import com.cloudkitchens.storage.StorageManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submission throughput of the embedded challenge server: client threads submit a valid ledger for one problem
+ * over and over through ChallengeApiClient, and every submission is parsed and validated.
+ *
+ * Usage: ChallengeServerBenchmark [client threads] [orders per problem] [seconds]
+ */
+public class ChallengeServerBenchmark {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 48;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        // Keep-alive responses from the JDK server otherwise wait out the client's delayed ACK (~40 ms)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpTransportConfig config = new HttpTransportConfig();
+        config.setMaxConnectionsPerRoute(threads);
+        try (LocalChallengeServer server = new LocalChallengeServer(0, orders, true,
+                                                                    Runtime.getRuntime().availableProcessors());
+             HttpTransport transport = new HttpTransport(config)) {
+            ChallengeApiClient client = new ChallengeApiClient("bench", server.getBaseUrl(), false, transport);
+            String testId = client.fetchNewProblem(42L).getTestId();
+            List<Action> ledger = buildLedger(server.getProblem(testId));
+            String result = client.submitSolution(testId, ledger, 1, 2, 3);
+            if (!"pass".equals(result)) {
+                throw new IllegalStateException("Benchmark ledger does not validate: " + result);
+            }
+
+            System.out.println("Challenge server benchmark: " + threads + " client threads, " + orders +
+                               " orders (" + ledger.size() + " actions) per submission");
+            for (int pass = 1; pass <= 2; pass++) {
+                // First pass warms up the JIT
+                long[] latencies = run(client, testId, ledger, threads, pass == 1 ? 2 : seconds);
+                if (pass == 2) {
+                    Arrays.sort(latencies);
+                    System.out.println(String.format("  %8.0f submissions/s  p50 %5d us  p99 %5d us  max %6d us",
+                                                     latencies.length / (double) seconds,
+                                                     latencies[latencies.length / 2],
+                                                     latencies[(int) (latencies.length * 0.99)],
+                                                     latencies[latencies.length - 1]));
+                }
+            }
+            System.out.println("  server: " + server.getSubmissions() + " submissions, " + server.getPassed() +
+                               " passed");
+            System.out.println("  " + transport.getStats());
+        }
+    }
+
+    private static long[] run(ChallengeApiClient client, String testId, List<Action> ledger, int threads,
+                              int seconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                List<Long> latencies = new ArrayList<>();
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    String result = client.submitSolution(testId, ledger, 1, 2, 3);
+                    latencies.add((System.nanoTime() - start) / 1000);
+                    if (!"pass".equals(result)) {
+                        throw new IllegalStateException(result);
+                    }
+                }
+                return latencies;
+            }));
+        }
+        List<Long> all = new ArrayList<>();
+        for (Future<List<Long>> future : futures) {
+            all.addAll(future.get());
+        }
+        executor.shutdown();
+        return all.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Place each order in its ideal storage and pick it up half a second later, one every 100 ms.
+     */
+    private static List<Action> buildLedger(Map<String, Order> orders) {
+        List<Action> placements = new ArrayList<>();
+        List<Action> pickups = new ArrayList<>();
+        long timestamp = 1_700_000_000_000_000L;
+        for (Order order : orders.values()) {
+            StorageType storage = StorageManager.getIdealStorage(order.getTemperature());
+            placements.add(new Action(timestamp, order.getId(), ActionType.PLACE, storage));
+            pickups.add(new Action(timestamp + 500_000, order.getId(), ActionType.PICKUP, storage));
+            timestamp += 100_000;
+        }
+        List<Action> ledger = new ArrayList<>(placements);
+        ledger.addAll(pickups);
+        ledger.sort((a, b) -> Long.compare(a.getTimestampMicros(), b.getTimestampMicros()));
+        return ledger;
+    }
+}
@@ -0,0 +1,240 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.CheckpointStats;
+import com.cloudkitchens.storage.RecoveredStorage;
+import com.cloudkitchens.storage.StorageManager;
+import com.cloudkitchens.storage.WriteAheadLog;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Restart time of a StorageManager from its write-ahead log alone and from a checkpoint plus the log written since.
+ * The kitchen takes an order every 500us with pickups 4-8s later, so within the 60s retention period it keeps track
+ * of every order it was given: their placements, scheduled pickups and occupancy history, and the action ledger.
+ * After the checkpoint a further batch of orders goes only to the log. Each restart is timed in a new JVM, as after
+ * a crash, and again once warmed up; both are checked to rebuild the same state by running the same operations on
+ * each.
+ *
+ * Usage: CheckpointBenchmark [orders before the checkpoint] [orders after it]
+ */
+public class CheckpointBenchmark {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    private static final long RATE_MICROS = 500;
+
+    public static void main(String[] args) throws Exception {
+        // Logging would dominate the measurement
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+        if (args.length > 1 && args[0].equals("--restart")) {
+            RecoveredStorage recovered = recover(Paths.get(args[1]), args.length > 2 ? Paths.get(args[2]) : null);
+            recovered.getStorageManager().close();
+            System.out.println(String.format("RESULT %.0f", recovered.getRecoveryNanos() / 1e6));
+            return;
+        }
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int delta = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        System.out.println("Checkpoint benchmark: " + orders + " orders, checkpoint, then " + delta + " more");
+        Path wal = Files.createTempFile("storage", ".wal");
+        Path checkpoint = Files.createTempFile("storage", ".ckpt");
+        // Each restart goes on logging, so give the second one its own copy of the log
+        Path walCopy = Files.createTempFile("storage", ".wal");
+        try {
+            Kitchen kitchen = new Kitchen(new StorageManager(StorageManager.DEFAULT_RETENTION_MICROS, null,
+                                                             WriteAheadLog.create(wal, false)));
+            kitchen.run(orders);
+            CheckpointStats stats = kitchen.storageManager.checkpoint(checkpoint, kitchen.ledger);
+            System.out.println("  checkpoint: " + stats);
+            kitchen.run(delta);
+            // A second checkpoint replaces the first; keep the first so the log after it is replayed
+            Path second = Files.createTempFile("storage", ".ckpt");
+            System.out.println("  second:     " + kitchen.storageManager.checkpoint(second, kitchen.ledger));
+            Files.delete(second);
+            kitchen.storageManager.close();
+            System.out.println(String.format("  log: %,d bytes, %,d actions in the ledger", Files.size(wal),
+                                             kitchen.ledger.size()));
+
+            Files.copy(wal, walCopy, StandardCopyOption.REPLACE_EXISTING);
+
+            for (int round = 0; round < 3; round++) {
+                restartInNewJvm("whole log", wal);
+                restartInNewJvm("checkpoint", walCopy, checkpoint);
+            }
+
+            // Warm up the JIT, then measure each restart
+            recover(wal, null).getStorageManager().close();
+            recover(walCopy, checkpoint).getStorageManager().close();
+            RecoveredStorage full = recover(wal, null);
+            print("whole log", full);
+            RecoveredStorage fromCheckpoint = recover(walCopy, checkpoint);
+            print("checkpoint", fromCheckpoint);
+
+            boolean same = sameActions(full.getActions(), kitchen.ledger)
+                && sameActions(fromCheckpoint.getActions(), kitchen.ledger)
+                && sameState(full.getStorageManager(), fromCheckpoint.getStorageManager(), kitchen);
+            System.out.println("  both restarts rebuild the run's state: " + same);
+            full.getStorageManager().close();
+            fromCheckpoint.getStorageManager().close();
+            if (!same) {
+                System.exit(1);
+            }
+        } finally {
+            Files.delete(wal);
+            Files.delete(walCopy);
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    private static void restartInNewJvm(String name, Path... files) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(CheckpointBenchmark.class.getName());
+        command.add("--restart");
+        for (Path file : files) {
+            command.add(file.toString());
+        }
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                                                                              StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = line.substring("RESULT ".length());
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("  %-10s new JVM: recovery %s ms, %.0f ms from launch to exit", name,
+                                         result != null ? result : "failed with exit code " + exitCode, nanos / 1e6));
+    }
+
+    private static RecoveredStorage recover(Path wal, Path checkpoint) throws IOException {
+        return StorageManager.recover(wal, checkpoint, StorageManager.DEFAULT_RETENTION_MICROS, null, false);
+    }
+
+    private static void print(String name, RecoveredStorage recovered) {
+        System.out.println(String.format("  %-10s warm:    recovery %.0f ms, %,d log records replayed, %,d actions, " +
+                                         "%s", name, recovered.getRecoveryNanos() / 1e6, recovered.getRecords(),
+                                         recovered.getActions().size(),
+                                         recovered.getStorageManager().getRetentionStats()));
+    }
+
+    /**
+     * Whether the two managers hold the same orders and pickups, and make the same decisions from here on.
+     */
+    private static boolean sameState(StorageManager a, StorageManager b, Kitchen kitchen) {
+        if (!orderIds(a).equals(orderIds(b))
+            || !a.getRetentionStats().toString().equals(b.getRetentionStats().toString())) {
+            return false;
+        }
+        for (StorageLocation location : a.getAllOrders()) {
+            String orderId = location.getOrder().getId();
+            if (!String.valueOf(a.getScheduledPickup(orderId)).equals(String.valueOf(b.getScheduledPickup(orderId)))) {
+                return false;
+            }
+        }
+        Kitchen left = kitchen.copyTo(a);
+        Kitchen right = kitchen.copyTo(b);
+        left.run(2_000);
+        right.run(2_000);
+        return sameActions(left.ledger, right.ledger);
+    }
+
+    private static boolean sameActions(List<Action> a, List<Action> b) {
+        return a.toString().equals(b.toString());
+    }
+
+    private static Set<String> orderIds(StorageManager storageManager) {
+        Set<String> ids = new TreeSet<>();
+        for (StorageLocation location : storageManager.getAllOrders()) {
+            ids.add(location.getOrder().getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Places orders at a fixed rate and picks them up at random times, like the kitchen service on a simulated clock.
+     */
+    private static final class Kitchen {
+        private final StorageManager storageManager;
+        private final List<Action> ledger = new ArrayList<>();
+        private final PriorityQueue<long[]> pickups = new PriorityQueue<>((x, y) -> Long.compare(x[0], y[0]));
+        private final Random random;
+        private long nextOrder;
+        private long now = 1_000_000;
+
+        Kitchen(StorageManager storageManager) {
+            this(storageManager, new Random(42));
+        }
+
+        private Kitchen(StorageManager storageManager, Random random) {
+            this.storageManager = storageManager;
+            this.random = random;
+        }
+
+        /**
+         * A kitchen continuing this one's schedule on another manager.
+         */
+        Kitchen copyTo(StorageManager other) {
+            Kitchen copy = new Kitchen(other, new Random(nextOrder));
+            copy.nextOrder = nextOrder;
+            copy.now = now;
+            for (long[] pickup : pickups) {
+                copy.pickups.add(pickup.clone());
+            }
+            return copy;
+        }
+
+        void run(int orders) {
+            for (int i = 0; i < orders; i++) {
+                now += RATE_MICROS;
+                while (!pickups.isEmpty() && pickups.peek()[0] <= now) {
+                    long[] pickup = pickups.poll();
+                    record(storageManager.pickupOrder("order-" + pickup[1], pickup[0]));
+                }
+                long id = nextOrder++;
+                String orderId = "order-" + id;
+                Order order = new Order(orderId, "Dish " + id, TEMPERATURES[(int) (id % 3)], 1.0,
+                                        60 + random.nextInt(240));
+                record(storageManager.placeOrder(order, now));
+                long pickupTime = now + 4_000_000 + random.nextInt(4_000_000);
+                storageManager.registerScheduledPickup(orderId, pickupTime);
+                pickups.add(new long[] {pickupTime, id});
+            }
+        }
+
+        private void record(Action action) {
+            if (action != null) {
+                ledger.add(action);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.DeadlineHeap;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Randomized check of DeadlineHeap against a list scanned for its minimum. Two heaps take random adds, removes and
+ * deadline updates over few distinct deadlines, so ties are common: one breaks them by insertion order, the other by
+ * sequences the caller hands out, as DiscardStrategy does across its heaps, and locations move between the two.
+ * After every operation each heap must hold exactly its locations at the positions they record, and its minimum
+ * must be the earliest deadline with the lowest sequence; draining it at the end must give the same order.
+ *
+ * Usage: DeadlineHeapFuzzTest [rounds] [operations per round] [seed]
+ */
+public class DeadlineHeapFuzzTest {
+    private static final int DEADLINES = 50;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        System.out.println("Deadline heap fuzz test: " + rounds + " rounds of " + count + " operations, seed " + seed);
+        Random random = new Random(seed);
+        int largest = 0;
+        for (int round = 0; round < rounds; round++) {
+            largest = Math.max(largest, run(count, random));
+        }
+        System.out.println("  largest heap: " + largest + " locations");
+        System.out.println("Test completed successfully!");
+    }
+
+    /**
+     * @return the most locations either heap held
+     */
+    private static int run(int count, Random random) {
+        DeadlineHeap[] heaps = {new DeadlineHeap(), new DeadlineHeap()};
+        List<List<Entry>> queued = new ArrayList<>();
+        queued.add(new ArrayList<>());
+        queued.add(new ArrayList<>());
+        long[] insertions = new long[1];
+        long nextSequence = 0;
+        int largest = 0;
+        for (int i = 0; i < count; i++) {
+            int h = random.nextInt(2);
+            DeadlineHeap heap = heaps[h];
+            List<Entry> entries = queued.get(h);
+            int operation = random.nextInt(10);
+            if (operation < 3 || entries.isEmpty()) {
+                Entry entry = new Entry(newLocation(i), random.nextInt(DEADLINES));
+                add(heap, h, entry, insertions, nextSequence);
+                nextSequence += 1 + random.nextInt(3);
+                entries.add(entry);
+            } else if (operation < 6) {
+                Entry entry = entries.remove(random.nextInt(entries.size()));
+                check(!heaps[1 - h].remove(entry.location), "removed a location from the other heap");
+                check(heap.remove(entry.location), "failed to remove a queued location");
+                check(!heap.remove(entry.location), "removed a location twice");
+                check(entry.location.getHeapIndex() == -1, "removed location still has a heap position");
+                if (random.nextBoolean()) {
+                    // Move it to the other heap
+                    entry.deadlineMicros = random.nextInt(DEADLINES);
+                    add(heaps[1 - h], 1 - h, entry, insertions, nextSequence);
+                    nextSequence += 1 + random.nextInt(3);
+                    queued.get(1 - h).add(entry);
+                }
+            } else if (operation < 8) {
+                Entry entry = entries.get(random.nextInt(entries.size()));
+                entry.deadlineMicros = random.nextInt(DEADLINES);
+                heap.update(entry.location, entry.deadlineMicros);
+            } else if (operation < 9) {
+                Entry entry = entries.get(random.nextInt(entries.size()));
+                checkThrows(() -> heap.add(entry.location, 0), IllegalStateException.class,
+                            "queued location added again");
+                checkThrows(() -> heaps[1 - h].update(entry.location, 0), IllegalArgumentException.class,
+                            "location updated in a heap it is not in");
+            } else {
+                StorageLocation stray = newLocation(i);
+                checkThrows(() -> heap.update(stray, 0), IllegalArgumentException.class,
+                            "location never queued updated");
+            }
+            for (int k = 0; k < heaps.length; k++) {
+                verify(heaps[k], queued.get(k), k == 1);
+            }
+            largest = Math.max(largest, Math.max(heaps[0].size(), heaps[1].size()));
+        }
+        for (int k = 0; k < heaps.length; k++) {
+            List<Entry> entries = queued.get(k);
+            while (!entries.isEmpty()) {
+                Entry first = first(entries);
+                check(heaps[k].peek() == first.location, "drain out of order");
+                check(heaps[k].remove(first.location), "failed to remove the minimum");
+                entries.remove(first);
+            }
+            check(heaps[k].isEmpty() && heaps[k].peek() == null && heaps[k].peekDeadline() == Long.MAX_VALUE
+                  && heaps[k].peekSequence() == Long.MAX_VALUE, "drained heap not empty");
+        }
+        return largest;
+    }
+
+    /**
+     * Heap 0 breaks ties by insertion order, heap 1 by the given sequence.
+     */
+    private static void add(DeadlineHeap heap, int h, Entry entry, long[] insertions, long sequence) {
+        if (h == 0) {
+            heap.add(entry.location, entry.deadlineMicros);
+            entry.sequence = insertions[0]++;
+        } else {
+            heap.add(entry.location, entry.deadlineMicros, sequence);
+            entry.sequence = sequence;
+        }
+    }
+
+    /**
+     * @param sequenced whether the heap was given its sequences, rather than counting insertions itself
+     */
+    private static void verify(DeadlineHeap heap, List<Entry> entries, boolean sequenced) {
+        check(heap.size() == entries.size(), "heap holds " + heap.size() + " locations, not " + entries.size());
+        check(heap.isEmpty() == entries.isEmpty(), "isEmpty disagrees with size");
+        Map<StorageLocation, Entry> expected = new IdentityHashMap<>();
+        for (Entry entry : entries) {
+            expected.put(entry.location, entry);
+        }
+        for (int index = 0; index < heap.size(); index++) {
+            StorageLocation location = heap.get(index);
+            check(expected.remove(location) != null, "heap position " + index + " holds a stray or repeated location");
+            check(location.getHeapIndex() == index, "location at " + index + " records position " +
+                                                    location.getHeapIndex());
+        }
+        if (entries.isEmpty()) {
+            check(heap.peek() == null && heap.peekDeadline() == Long.MAX_VALUE, "empty heap has a minimum");
+            return;
+        }
+        Entry first = first(entries);
+        check(heap.peek() == first.location, "minimum is not the earliest deadline with the lowest sequence");
+        check(heap.peekDeadline() == first.deadlineMicros, "minimum deadline " + heap.peekDeadline() + ", not " +
+                                                           first.deadlineMicros);
+        check(!sequenced || heap.peekSequence() == first.sequence, "minimum sequence " + heap.peekSequence() +
+                                                                   ", not " + first.sequence);
+    }
+
+    private static Entry first(List<Entry> entries) {
+        Entry first = null;
+        for (Entry entry : entries) {
+            if (first == null || entry.deadlineMicros < first.deadlineMicros
+                || (entry.deadlineMicros == first.deadlineMicros && entry.sequence < first.sequence)) {
+                first = entry;
+            }
+        }
+        return first;
+    }
+
+    private static StorageLocation newLocation(int i) {
+        return new StorageLocation(new Order("order-" + i, "Dish " + i, Temperature.ROOM, 1.0, 60),
+                                   StorageType.SHELF, 0);
+    }
+
+    private static void checkThrows(Runnable operation, Class<? extends RuntimeException> type, String failure) {
+        try {
+            operation.run();
+        } catch (RuntimeException e) {
+            check(type.isInstance(e), failure + " threw " + e);
+            return;
+        }
+        check(false, failure);
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+
+    private static final class Entry {
+        final StorageLocation location;
+        long deadlineMicros;
+        long sequence;
+
+        Entry(StorageLocation location, long deadlineMicros) {
+            this.location = location;
+            this.deadlineMicros = deadlineMicros;
+        }
+    }
+}
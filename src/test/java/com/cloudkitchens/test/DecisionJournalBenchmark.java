@@ -0,0 +1,92 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.DecisionEvent;
+import com.cloudkitchens.storage.DecisionJournal;
+import com.cloudkitchens.storage.DecisionJournalReader;
+import com.cloudkitchens.storage.StorageManager;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Placement throughput of StorageManager without a decision journal and with one, on a congested kitchen where
+ * most placements overflow to the shelf and discard, then the time to read the journal back.
+ *
+ * Usage: DecisionJournalBenchmark [orders per round]
+ */
+public class DecisionJournalBenchmark {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    // Orders awaiting pickup: twice the total capacity, so the shelf stays full
+    private static final int IN_FLIGHT = 48;
+
+    public static void main(String[] args) throws IOException {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Logging would dominate the measurement
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Decision journal benchmark: " + orders + " placements per round, best of 5");
+        Path file = Files.createTempFile("decisions", ".bin");
+        try {
+            double best = 0;
+            for (int round = 0; round < 5; round++) {
+                best = Math.max(best, runRound(orders, null));
+            }
+            System.out.println(String.format("  %-12s %,10.0f placements/s", "no journal", best));
+
+            best = 0;
+            long records = 0;
+            long stalls = 0;
+            for (int round = 0; round < 5; round++) {
+                DecisionJournal journal = DecisionJournal.create(file);
+                best = Math.max(best, runRound(orders, journal));
+                journal.close();
+                records = journal.getRecords();
+                stalls += journal.getStalls();
+            }
+            System.out.println(String.format("  %-12s %,10.0f placements/s  (%,d records, %.1f per placement, " +
+                                             "%d KB, %d ring-full stalls over 5 rounds)", "journal", best, records,
+                                             (double) records / orders, Files.size(file) / 1024, stalls));
+
+            long start = System.nanoTime();
+            List<DecisionEvent> events = DecisionJournalReader.read(file);
+            long nanos = System.nanoTime() - start;
+            System.out.println(String.format("  %-12s %,10d events in %d ms", "read back", events.size(),
+                                             nanos / 1_000_000));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @return placements per second
+     */
+    private static double runRound(int orders, DecisionJournal journal) {
+        StorageManager storageManager = new StorageManager(StorageManager.DEFAULT_RETENTION_MICROS, journal);
+        String[] ids = new String[orders];
+        long timestamp = 1_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            timestamp += 1_000;
+            ids[i] = "order-" + i;
+            Order order = new Order(ids[i], "bench", TEMPERATURES[i % TEMPERATURES.length], 1.0, 300);
+            storageManager.placeOrder(order, timestamp);
+            if (i >= IN_FLIGHT) {
+                // Null once the order was discarded to make room
+                storageManager.pickupOrder(ids[i - IN_FLIGHT], timestamp);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return orders / (nanos / 1e9);
+    }
+}
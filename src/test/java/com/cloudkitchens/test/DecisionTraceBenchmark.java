@@ -0,0 +1,117 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.DecisionTrace;
+import com.cloudkitchens.storage.StorageManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Placement throughput of StorageManager with the decision trace off, on with the default synchronous logback.xml,
+ * and on with logback-async.xml. The trace flag is fixed when DecisionTrace is loaded, so each setting runs in its
+ * own JVM, started from a temporary directory that receives its fulfillment.log.
+ *
+ * Usage: DecisionTraceBenchmark [orders per round]
+ */
+public class DecisionTraceBenchmark {
+    // Orders awaiting pickup, spread over hot, cold and room temperature: within every storage's capacity
+    private static final int IN_FLIGHT = 12;
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        if (args.length > 1 && args[1].equals("--child")) {
+            runRounds(orders);
+            return;
+        }
+
+        System.out.println("Decision trace benchmark: " + orders + " placements and pickups per round, best of 5");
+        runChild("trace off", orders);
+        runChild("trace on, logback.xml", orders, "-Dkitchen.trace=true");
+        runChild("trace on, logback-async.xml", orders, "-Dkitchen.trace=true",
+                 "-Dlogback.configurationFile=logback-async.xml");
+    }
+
+    private static void runChild(String name, int orders, String... properties)
+            throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("decision-trace");
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(Arrays.asList(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DecisionTraceBenchmark.class.getName());
+        command.add(String.valueOf(orders));
+        command.add("--child");
+
+        // Console output goes to a file too, so the terminal's speed does not skew the synchronous run
+        File console = dir.resolve("console.log").toFile();
+        Process process = new ProcessBuilder(command).directory(dir.toFile())
+            .redirectOutput(console).redirectErrorStream(true).start();
+        int exitCode = process.waitFor();
+
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(console.toPath()),
+                                                                              StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = line.substring("RESULT ".length());
+                }
+            }
+        }
+        File log = dir.resolve("fulfillment.log").toFile();
+        System.out.println(String.format("  %-28s %s  (log %d KB, console %d KB)", name,
+                                         result != null ? result : "failed with exit code " + exitCode,
+                                         log.length() / 1024, console.length() / 1024));
+        for (File file : dir.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(dir);
+    }
+
+    private static void runRounds(int orders) {
+        double best = 0;
+        for (int round = 0; round < 5; round++) {
+            best = Math.max(best, runRound(orders));
+        }
+        if (DecisionTrace.ENABLED != Boolean.getBoolean("kitchen.trace")) {
+            throw new IllegalStateException("Trace flag not picked up");
+        }
+        System.out.println(String.format("RESULT %,10.0f placements/s", best));
+    }
+
+    /**
+     * Place orders one after another, picking each up once IN_FLIGHT newer orders are waiting.
+     *
+     * @return placements per second
+     */
+    private static double runRound(int orders) {
+        StorageManager storageManager = new StorageManager();
+        String[] ids = new String[orders];
+        long timestamp = 1_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            timestamp += 1_000;
+            ids[i] = "order-" + i;
+            Order order = new Order(ids[i], "bench", TEMPERATURES[i % TEMPERATURES.length], 1.0, 300);
+            storageManager.registerScheduledPickup(ids[i], timestamp + IN_FLIGHT * 1_000L);
+            storageManager.placeOrder(order, timestamp);
+            if (i >= IN_FLIGHT) {
+                storageManager.pickupOrder(ids[i - IN_FLIGHT], timestamp);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return orders / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,108 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.TestData;
+import com.cloudkitchens.api.dto.ChallengeAction;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.server.LedgerScorer;
+import com.cloudkitchens.server.LocalChallengeServer;
+import com.cloudkitchens.server.ValidationReport;
+import com.cloudkitchens.storage.StorageManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Offline scoring throughput: writes saved tests with valid, shuffled ledgers to a temporary directory, then scores
+ * them one at a time and with LedgerScorer.scoreFiles across all cores.
+ *
+ * Usage: LedgerScorerBenchmark [files] [orders per file]
+ */
+public class LedgerScorerBenchmark {
+    public static void main(String[] args) throws IOException {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 48;
+
+        Path dir = Files.createTempDirectory("ledger-scorer");
+        try {
+            ObjectMapper objectMapper = new ObjectMapper();
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < fileCount; i++) {
+                Path file = dir.resolve("test-" + i + ".json");
+                objectMapper.writeValue(file.toFile(), buildTest(i, orders));
+                files.add(file);
+            }
+            System.out.println("Ledger scorer benchmark: " + fileCount + " files, " + orders + " orders each, " +
+                               Runtime.getRuntime().availableProcessors() + " cores");
+
+            for (int pass = 1; pass <= 2; pass++) {
+                // First pass warms up the JIT and the page cache
+                boolean report = pass == 2;
+                long start = System.nanoTime();
+                List<ValidationReport> serial = new ArrayList<>();
+                for (Path file : files) {
+                    serial.add(LedgerScorer.scoreFile(file));
+                }
+                long serialNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<ValidationReport> parallel = LedgerScorer.scoreFiles(files);
+                long parallelNanos = System.nanoTime() - start;
+
+                long actions = parallel.stream().mapToLong(ValidationReport::getActions).sum();
+                long invalid = parallel.stream().filter(r -> !r.isValid()).count();
+                if (invalid > 0 || serial.size() != parallel.size()) {
+                    throw new IllegalStateException(invalid + " ledgers failed: " + parallel.get(0).toResult());
+                }
+                if (report) {
+                    print("serial", fileCount, actions, serialNanos);
+                    print("scoreFiles (parallel)", fileCount, actions, parallelNanos);
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static void print(String name, int files, long actions, long nanos) {
+        System.out.println(String.format("  %-22s %8.0f files/s  %6.1f M actions/s  (%d ms)", name,
+                                         files / (nanos / 1e9), actions / (nanos / 1e3), nanos / 1_000_000));
+    }
+
+    /**
+     * Place each order in its ideal storage and pick it up within the pickup window, one every 100 ms; the ledger
+     * is saved shuffled so scoring has to sort it.
+     */
+    private static TestData buildTest(long seed, int count) {
+        List<Order> orders = new ArrayList<>(LocalChallengeServer.generateOrders(seed, count).values());
+        Random random = new Random(seed);
+        List<ChallengeAction> actions = new ArrayList<>();
+        long timestamp = 1_700_000_000_000_000L;
+        for (Order order : orders) {
+            StorageType storage = StorageManager.getIdealStorage(order.getTemperature());
+            actions.add(new ChallengeAction(timestamp, order.getId(), ActionType.PLACE.getValue(), storage.getValue()));
+            long delay = 200_000 + random.nextInt(300_000);
+            actions.add(new ChallengeAction(timestamp + delay, order.getId(), ActionType.PICKUP.getValue(),
+                                            storage.getValue()));
+            timestamp += 100_000;
+        }
+        Collections.shuffle(actions, random);
+        TestData testData = new TestData("bench-" + seed, orders, 100_000, 200_000, 500_000, seed);
+        testData.setActions(actions);
+        return testData;
+    }
+}
@@ -0,0 +1,184 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.api.dto.ChallengeOptions;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.server.LedgerValidator;
+import com.cloudkitchens.server.ValidationReport;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LedgerValidator on small hand-written ledgers: one that keeps every rule must pass with the right counts, and each
+ * broken rule must be reported once, under its own count, with a message naming it. Freshness is checked on both
+ * sides of the moment an order spoils, on the shelf, in ideal storage and across a move between them.
+ *
+ * Usage: LedgerValidatorTest
+ */
+public class LedgerValidatorTest {
+    private static final Map<String, Order> ORDERS = new LinkedHashMap<>();
+    // Pickups 2 to 8 seconds after placement
+    private static final ChallengeOptions OPTIONS = new ChallengeOptions(500_000, 2_000_000, 8_000_000);
+
+    static {
+        for (int i = 0; i < 14; i++) {
+            order("h" + i, Temperature.HOT, 300);
+            order("c" + i, Temperature.COLD, 300);
+            order("r" + i, Temperature.ROOM, 300);
+        }
+        order("fresh10", Temperature.HOT, 10);
+    }
+
+    public static void main(String[] args) {
+        System.out.println("Ledger validator test");
+
+        ValidationReport report = validate(OPTIONS,
+            "0 h0 place heater", "0 c0 place cooler", "0.5 r0 place shelf", "1 h1 place shelf",
+            "2 h1 move heater", "3 h0 pickup heater", "3 h1 pickup heater", "3 c0 discard cooler",
+            "4 r0 pickup shelf");
+        check(report.isValid() && report.toResult().equals("pass"), "valid ledger failed: " + report.toResult());
+        check(report.getActions() == 9 && report.getPlaced() == 4 && report.getMoved() == 1
+              && report.getPickedUp() == 3 && report.getDiscarded() == 1, "valid ledger counted as " + report);
+
+        String[] heater = new String[7];
+        for (int i = 0; i < heater.length; i++) {
+            heater[i] = i + " h" + i + " place heater";
+        }
+        report = validate(null, pickUpTheRest(heater));
+        expect("heater overfilled", report, "heater over capacity (7/6)");
+        check(report.getCapacityViolations() == 1, "capacity not counted");
+        String[] shelf = new String[14];
+        for (int i = 0; i < 12; i++) {
+            shelf[i] = i + " r" + i + " place shelf";
+        }
+        shelf[12] = "12 r0 pickup shelf";
+        shelf[13] = "12 c0 place shelf";
+        check(validate(null, pickUpTheRest(shelf)).isValid(), "shelf refilled after a pickup reported over capacity");
+        report = validate(null, pickUpTheRest("0 h0 place shelf", "1 h0 move cooler"));
+        expect("hot order moved to the cooler", report, "hot order put on the cooler");
+        check(report.getTemperatureViolations() == 1, "temperature not counted");
+
+        // 10s of freshness lasts 5s on the shelf and 10s in the heater
+        check(validate(null, "0 fresh10 place shelf", "4.999999 fresh10 pickup shelf").isValid(),
+              "fresh order on the shelf reported spoiled");
+        report = validate(null, "0 fresh10 place shelf", "5 fresh10 pickup shelf");
+        expect("spoiled on the shelf", report, "picked up spoiled (10.0s of 10s freshness used)");
+        check(report.getSpoiledPickups() == 1, "spoiled pickup not counted");
+        check(validate(null, "0 fresh10 place heater", "9.999999 fresh10 pickup heater").isValid(),
+              "fresh order in the heater reported spoiled");
+        expect("spoiled in the heater", validate(null, "0 fresh10 place heater", "10 fresh10 pickup heater"),
+               "picked up spoiled");
+        // 4s on the shelf uses 8s, leaving 2s in the heater
+        check(validate(null, "0 fresh10 place shelf", "4 fresh10 move heater", "5.999999 fresh10 pickup heater")
+                  .isValid(), "fresh order moved off the shelf reported spoiled");
+        expect("spoiled after a move", validate(null, "0 fresh10 place shelf", "4 fresh10 move heater",
+                                                "6 fresh10 pickup heater"), "picked up spoiled");
+
+        check(validate(OPTIONS, "0 h0 place heater", "0 h1 place heater", "2 h0 pickup heater", "8 h1 pickup heater")
+                  .isValid(), "pickups at the ends of the window reported outside it");
+        report = validate(OPTIONS, "0 h0 place heater", "1.999999 h0 pickup heater");
+        expect("picked up too early", report, "picked up 1999999us after placement, outside 2000000-8000000us");
+        check(report.getPickupWindowViolations() == 1, "early pickup not counted");
+        expect("picked up too late", validate(OPTIONS, "0 h0 place heater", "8.000001 h0 pickup heater"),
+               "picked up 8000001us after placement");
+        check(validate(null, "0 h0 place heater", "9 h0 pickup heater").isValid(),
+              "pickup window checked without options");
+
+        expect("unknown order", validate(null, "0 x9 place heater"), "x9: unknown order");
+        expect("placed twice", validate(null, "0 h0 place heater", "1 h0 place shelf", "2 h0 pickup heater"),
+               "placed more than once");
+        expect("picked up before placed", validate(null, "0 h0 pickup heater", "1 h0 place heater",
+                                                   "2 h0 pickup heater"), "pickup before it was placed");
+        expect("picked up twice", validate(null, "0 h0 place heater", "1 h0 pickup heater", "2 h0 pickup heater"),
+               "pickup after it was picked up or discarded");
+        expect("picked up from elsewhere", validate(null, "0 h0 place heater", "1 h0 pickup shelf"),
+               "pickup from the shelf but it is on the heater");
+        expect("moved in place", validate(null, "0 h0 place heater", "1 h0 move heater", "2 h0 pickup heater"),
+               "moved to the heater it is already on");
+        expect("out of order", validate(null, "1 h0 place heater", "0.5 c0 place cooler", "2 h0 pickup heater",
+                                        "2 c0 pickup cooler"), "timestamp goes back from 1000000");
+        expect("unknown action", validate(null, "0 h0 place heater", "1 h0 eat heater", "2 h0 pickup heater"),
+               "Unknown action type: eat");
+        expect("left behind", validate(null, "0 h0 place heater"), "left on the heater");
+        Map<String, Order> problem = new LinkedHashMap<>();
+        problem.put("h0", ORDERS.get("h0"));
+        problem.put("h1", ORDERS.get("h1"));
+        LedgerValidator validator = new LedgerValidator(problem);
+        validator.accept(0, "h0", "place", "heater");
+        validator.accept(1_000_000, "h0", "pickup", "heater");
+        expect("never placed", validator.finish(), "h1: never placed");
+
+        // Every violation is counted, only the first few are described
+        String[] unknown = new String[25];
+        for (int i = 0; i < unknown.length; i++) {
+            unknown[i] = i + " x" + i + " place shelf";
+        }
+        report = validate(null, unknown);
+        check(report.getViolationCount() == 25 && report.getViolations().size() == 10,
+              report.getViolationCount() + " violations counted, " + report.getViolations().size() + " described");
+        check(report.toResult().startsWith("fail: 25 violation(s)\n"), "result reads " + report.toResult());
+        System.out.println("Test completed successfully!");
+    }
+
+    /**
+     * Validate a ledger, each action written as "seconds orderId action target". The problem holds the known orders
+     * the ledger mentions, so the others do not count as never placed.
+     */
+    private static ValidationReport validate(ChallengeOptions options, String... actions) {
+        Map<String, Order> orders = new LinkedHashMap<>();
+        for (String action : actions) {
+            String orderId = action.split(" ")[1];
+            if (ORDERS.containsKey(orderId)) {
+                orders.put(orderId, ORDERS.get(orderId));
+            }
+        }
+        LedgerValidator validator = new LedgerValidator(orders, options);
+        for (String action : actions) {
+            String[] fields = action.split(" ");
+            validator.accept(Math.round(Double.parseDouble(fields[0]) * 1_000_000), fields[1], fields[2], fields[3]);
+        }
+        return validator.finish();
+    }
+
+    /**
+     * Add a pickup at 20 seconds for every order the actions leave in storage.
+     */
+    private static String[] pickUpTheRest(String... actions) {
+        Map<String, String> stored = new LinkedHashMap<>();
+        for (String action : actions) {
+            String[] fields = action.split(" ");
+            if (fields[2].equals("place") || fields[2].equals("move")) {
+                stored.put(fields[1], fields[3]);
+            } else {
+                stored.remove(fields[1]);
+            }
+        }
+        String[] all = Arrays.copyOf(actions, actions.length + stored.size());
+        int i = actions.length;
+        for (Map.Entry<String, String> order : stored.entrySet()) {
+            all[i++] = "20 " + order.getKey() + " pickup " + order.getValue();
+        }
+        return all;
+    }
+
+    /**
+     * The ledger must break exactly one rule, with a message containing the given text.
+     */
+    private static void expect(String name, ValidationReport report, String message) {
+        check(report.getViolationCount() == 1, name + ": " + report.getViolationCount() + " violations in " +
+                                               report.getViolations());
+        check(report.getViolations().get(0).contains(message), name + ": reported " + report.getViolations());
+    }
+
+    private static void order(String id, Temperature temperature, int freshnessSeconds) {
+        ORDERS.put(id, new Order(id, "Dish " + id, temperature, 1.0, freshnessSeconds));
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+}
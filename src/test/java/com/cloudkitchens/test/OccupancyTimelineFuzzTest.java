@@ -0,0 +1,215 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.storage.OccupancyTimeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Randomized check of OccupancyTimeline against a scan over every order's stay, counted the way StorageManager
+ * always has: an order fills its slot from its placement up to its pickup, and one picked up at T no longer counts
+ * at T, so its slot is free for an order placed at T. Orders arrive slightly out of order, some without a pickup
+ * yet, pickups are moved, and history is compacted as time goes on, sometimes with orders still arriving before the
+ * compaction point. After every change, occupancy, event counts and the first free slot for capacities around the
+ * current occupancy must match the scan, at random times from the compaction point on.
+ *
+ * Usage: OccupancyTimelineFuzzTest [rounds] [operations per round] [seed]
+ */
+public class OccupancyTimelineFuzzTest {
+    private static final long NONE = Long.MAX_VALUE;
+    // Small steps so that many events share a timestamp
+    private static final int MAX_STEP = 3;
+    private static final int MAX_STAY = 60;
+    private static final int RETENTION = 40;
+    private static final int QUERIES = 4;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        System.out.println("Occupancy timeline fuzz test: " + rounds + " rounds of " + count + " operations, seed " +
+                           seed);
+        Random random = new Random(seed);
+        for (int round = 0; round < rounds; round++) {
+            run(round, count, random);
+        }
+        System.out.println("Test completed successfully!");
+    }
+
+    private static void run(int round, int count, Random random) {
+        OccupancyTimeline timeline = new OccupancyTimeline();
+        List<Stay> stays = new ArrayList<>();
+        long now = random.nextInt(1_000);
+        long compactedThrough = Long.MIN_VALUE;
+        int compactions = 0;
+        int maxEvents = 0;
+        for (int i = 0; i < count; i++) {
+            int operation = random.nextInt(20);
+            if (operation < 8 || stays.isEmpty()) {
+                // Place an order, now or a little in the past, and sometimes before the compaction point
+                long placedAt = random.nextInt(20) == 0 && compactedThrough != Long.MIN_VALUE
+                    ? compactedThrough - random.nextInt(10) : now - random.nextInt(MAX_STEP * 2);
+                Stay stay = new Stay(placedAt);
+                stays.add(stay);
+                timeline.addArrival(placedAt);
+                if (random.nextInt(10) < 7) {
+                    stay.leavesAt = Math.max(placedAt, compactedThrough + 1) + random.nextInt(MAX_STAY);
+                    timeline.addDeparture(stay.leavesAt);
+                }
+            } else if (operation < 11) {
+                // Schedule the pickup of an order that has none
+                Stay stay = stays.get(random.nextInt(stays.size()));
+                if (stay.leavesAt == NONE) {
+                    stay.leavesAt = Math.max(stay.placedAt, now) + random.nextInt(MAX_STAY);
+                    timeline.addDeparture(stay.leavesAt);
+                }
+            } else if (operation < 14) {
+                // Pick up an order earlier or later than scheduled, sometimes before the compaction point
+                Stay stay = stays.get(random.nextInt(stays.size()));
+                if (stay.leavesAt != NONE) {
+                    check(timeline.removeDeparture(stay.leavesAt), "departure at " + stay.leavesAt + " not found");
+                    if (stay.placedAt <= compactedThrough && random.nextInt(3) == 0) {
+                        stay.leavesAt = stay.placedAt + random.nextInt((int) (compactedThrough - stay.placedAt) + 1);
+                    } else {
+                        stay.leavesAt = Math.max(Math.max(stay.placedAt, now), compactedThrough + 1)
+                            + random.nextInt(MAX_STAY);
+                    }
+                    timeline.addDeparture(stay.leavesAt);
+                }
+            } else if (operation < 15) {
+                // No departure to withdraw
+                long at = Math.max(now, compactedThrough + 1) + random.nextInt(MAX_STAY * 2);
+                boolean departs = false;
+                for (Stay stay : stays) {
+                    departs |= stay.leavesAt == at;
+                }
+                if (!departs) {
+                    check(!timeline.removeDeparture(at), "withdrew a departure never recorded at " + at);
+                }
+            } else if (operation < 19) {
+                now += random.nextInt(MAX_STEP + 1);
+            } else {
+                long cutoff = now - RETENTION + random.nextInt(RETENTION);
+                if (cutoff > compactedThrough) {
+                    int dropped = 0;
+                    for (Stay stay : stays) {
+                        dropped += (stay.placedAt > compactedThrough && stay.placedAt <= cutoff ? 1 : 0)
+                            + (stay.leavesAt > compactedThrough && stay.leavesAt <= cutoff ? 1 : 0);
+                    }
+                    check(timeline.compactThrough(cutoff) == dropped,
+                          "compaction through " + cutoff + " did not drop the " + dropped + " events before it");
+                    compactedThrough = cutoff;
+                    compactions++;
+                    // Stays over before the compaction point no longer count
+                    final long through = cutoff;
+                    stays.removeIf(stay -> stay.leavesAt <= through);
+                } else {
+                    check(timeline.compactThrough(cutoff) == 0, "compacted again through " + cutoff);
+                }
+                check(timeline.getCompactedThroughMicros() == compactedThrough,
+                      "compacted through " + timeline.getCompactedThroughMicros() + ", not " + compactedThrough);
+            }
+            maxEvents = Math.max(maxEvents, timeline.getEventCount());
+            verify(timeline, stays, now, compactedThrough, random);
+        }
+        System.out.println("  round " + round + ": " + stays.size() + " orders, " + compactions + " compactions, " +
+                           "at most " + maxEvents + " events held");
+    }
+
+    private static void verify(OccupancyTimeline timeline, List<Stay> stays, long now, long compactedThrough,
+                               Random random) {
+        int retained = 0;
+        for (Stay stay : stays) {
+            retained += (stay.placedAt > compactedThrough ? 1 : 0) + (stay.leavesAt != NONE
+                                                                     && stay.leavesAt > compactedThrough ? 1 : 0);
+        }
+        check(timeline.getEventCount() == retained, "timeline holds " + timeline.getEventCount() + " events, not " +
+                                                    retained);
+
+        long from = compactedThrough == Long.MIN_VALUE ? now - MAX_STAY : compactedThrough;
+        for (int q = 0; q < QUERIES; q++) {
+            long at = from + random.nextInt((int) (now - from) + MAX_STAY * 2);
+            int occupancy = occupancyAt(stays, at);
+            check(timeline.occupancyAt(at) == occupancy,
+                  "occupancy at " + at + " is " + timeline.occupancyAt(at) + ", not " + occupancy);
+
+            long until = at + random.nextInt(MAX_STAY);
+            long start = at - random.nextInt(MAX_STAY);
+            int arrivals = 0;
+            int departures = 0;
+            for (Stay stay : stays) {
+                arrivals += stay.placedAt > compactedThrough && stay.placedAt >= start && stay.placedAt <= until
+                    ? 1 : 0;
+                departures += stay.leavesAt != NONE && stay.leavesAt > compactedThrough && stay.leavesAt >= start
+                    && stay.leavesAt <= until ? 1 : 0;
+            }
+            check(timeline.countArrivalsBetween(start, until) == arrivals,
+                  "arrivals in [" + start + ", " + until + "] counted " + timeline.countArrivalsBetween(start, until) +
+                  ", not " + arrivals);
+            check(timeline.countDeparturesBetween(start, until) == departures,
+                  "departures in [" + start + ", " + until + "] counted " +
+                  timeline.countDeparturesBetween(start, until) + ", not " + departures);
+
+            int capacity = Math.max(0, occupancy - 3 + random.nextInt(6));
+            long free = firstFreeSlot(stays, at, capacity);
+            check(timeline.findFirstFreeSlot(at, capacity) == free,
+                  "first free slot of " + capacity + " from " + at + " is " +
+                  timeline.findFirstFreeSlot(at, capacity) + ", not " + free);
+        }
+    }
+
+    private static int occupancyAt(List<Stay> stays, long at) {
+        int occupancy = 0;
+        for (Stay stay : stays) {
+            if (stay.placedAt <= at && stay.leavesAt > at) {
+                occupancy++;
+            }
+        }
+        return occupancy;
+    }
+
+    /**
+     * Walk the changes in occupancy after the given time, in order, until it drops below capacity.
+     */
+    private static long firstFreeSlot(List<Stay> stays, long at, int capacity) {
+        int occupancy = occupancyAt(stays, at);
+        if (occupancy < capacity) {
+            return at;
+        }
+        TreeMap<Long, Integer> changes = new TreeMap<>();
+        for (Stay stay : stays) {
+            if (stay.placedAt > at) {
+                changes.merge(stay.placedAt, 1, Integer::sum);
+            }
+            if (stay.leavesAt != NONE && stay.leavesAt > at) {
+                changes.merge(stay.leavesAt, -1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Long, Integer> change : changes.entrySet()) {
+            occupancy += change.getValue();
+            if (occupancy < capacity) {
+                return change.getKey();
+            }
+        }
+        return OccupancyTimeline.NO_FREE_SLOT;
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+
+    private static final class Stay {
+        final long placedAt;
+        long leavesAt = NONE;
+
+        Stay(long placedAt) {
+            this.placedAt = placedAt;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.StorageManager;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Cost of StorageManager's per-order bookkeeping: nanoseconds per operation while a kitchen places an order every
+ * 500us and picks each up 4-8s later, and the heap the manager keeps per order it still remembers. Every order
+ * placed in the last 60 seconds is retained for capacity queries, so a run shorter than that keeps them all; the
+ * orders themselves are allocated up front and not counted.
+ *
+ * Usage: OrderHandleBenchmark [orders] [rounds]
+ */
+public class OrderHandleBenchmark {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    private static final long RATE_MICROS = 500;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // Logging would dominate the measurement
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Order handle benchmark: " + count + " orders per run, " + rounds + " rounds");
+        List<Order> orders = createOrders(count);
+        long[] pickupTimes = createPickupTimes(count);
+
+        // Warm up the JIT
+        run(orders, pickupTimes, false);
+        run(orders, pickupTimes, true);
+        for (int round = 0; round < rounds; round++) {
+            for (boolean known : new boolean[] {false, true}) {
+                long start = System.nanoTime();
+                int operations = run(orders, pickupTimes, known).operations;
+                long nanos = System.nanoTime() - start;
+                System.out.println(String.format("  %-22s %,7.0f ns/op (%,d operations)",
+                                                 known ? "order list registered" : "orders as they come",
+                                                 (double) nanos / operations, operations));
+            }
+        }
+
+        for (boolean known : new boolean[] {false, true}) {
+            // The first measurement in a JVM comes out high
+            measureHeap(orders, pickupTimes, known);
+            System.out.println(String.format("  %-22s %,7.1f bytes per retained order",
+                                             known ? "order list registered" : "orders as they come",
+                                             measureHeap(orders, pickupTimes, known) / count));
+        }
+    }
+
+    /**
+     * @return heap freed by dropping a manager that ran every order
+     */
+    private static double measureHeap(List<Order> orders, long[] pickupTimes, boolean known) {
+        Run run = run(orders, pickupTimes, known);
+        long withManager = usedHeap();
+        run = null;
+        return withManager - usedHeap();
+    }
+
+    private static List<Order> createOrders(int count) {
+        Random random = new Random(42);
+        List<Order> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(new Order("order-" + i, "Dish " + i, TEMPERATURES[i % 3], 1.0, 60 + random.nextInt(240)));
+        }
+        return orders;
+    }
+
+    private static long[] createPickupTimes(int count) {
+        Random random = new Random(7);
+        long[] pickupTimes = new long[count];
+        for (int i = 0; i < count; i++) {
+            pickupTimes[i] = placedAt(i) + 4_000_000 + random.nextInt(4_000_000);
+        }
+        return pickupTimes;
+    }
+
+    private static long placedAt(int index) {
+        return 1_000_000 + index * RATE_MICROS;
+    }
+
+    /**
+     * Place every order, register its pickup and pick it up when due, like the kitchen service on a simulated clock.
+     *
+     * @param known whether the order list is registered with the manager before the first placement
+     */
+    private static Run run(List<Order> orders, long[] pickupTimes, boolean known) {
+        StorageManager storageManager = new StorageManager();
+        if (known) {
+            List<String> orderIds = new ArrayList<>(orders.size());
+            for (Order order : orders) {
+                orderIds.add(order.getId());
+            }
+            storageManager.registerOrders(orderIds);
+        }
+        PriorityQueue<Integer> due = new PriorityQueue<>((a, b) -> Long.compare(pickupTimes[a], pickupTimes[b]));
+        int operations = 0;
+        for (int i = 0; i < orders.size(); i++) {
+            long now = placedAt(i);
+            while (!due.isEmpty() && pickupTimes[due.peek()] <= now) {
+                int index = due.poll();
+                storageManager.pickupOrder(orders.get(index).getId(), pickupTimes[index]);
+                operations++;
+            }
+            Order order = orders.get(i);
+            storageManager.placeOrder(order, now);
+            storageManager.registerScheduledPickup(order.getId(), pickupTimes[i]);
+            due.add(i);
+            operations += 2;
+        }
+        return new Run(storageManager, operations);
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static final class Run {
+        final StorageManager storageManager;
+        final int operations;
+
+        Run(StorageManager storageManager, int operations) {
+            this.storageManager = storageManager;
+            this.operations = operations;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.RetentionStats;
+import com.cloudkitchens.storage.StorageManager;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StorageManager's order handles under concurrency: worker threads place orders, register their pickups and pick
+ * them up when due, while another thread compacts with no retention, so handles of departed orders are released
+ * and given to new ones as fast as possible. Every scheduled pickup is distinct; looking one up by order id must
+ * give the pickup registered for that order or none, never another order's, nor one for an order just placed, and
+ * at the end every order in storage must appear once with its own pickup. Ids registered and never placed must give
+ * up their handles too, but not on the compaction that first finds them.
+ *
+ * Usage: OrderHandleStressTest [seconds] [threads]
+ */
+public class OrderHandleStressTest {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    private static final long STEP_MICROS = 1_000;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        // Discards and missed pickups would flood the output
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Order handle stress test: " + threadCount + " threads and a compactor for " + seconds + "s");
+        StorageManager storageManager = new StorageManager(0);
+        AtomicLong clock = new AtomicLong(1_000_000);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong operations = new AtomicLong();
+        AtomicLong compactions = new AtomicLong();
+        Map<String, Long> pickups = new ConcurrentHashMap<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int worker = t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(worker);
+                ArrayDeque<String> placed = new ArrayDeque<>();
+                for (int i = 0; running.get() && failure.get() == null; i++) {
+                    long now = clock.addAndGet(STEP_MICROS);
+                    // Orders are picked up in placement order, each once its pickup is due
+                    while (!placed.isEmpty() && pickups.get(placed.peek()) <= now) {
+                        String orderId = placed.poll();
+                        checkPickup(storageManager, orderId, pickups.get(orderId));
+                        Action action = storageManager.pickupOrder(orderId, now);
+                        check(action == null || action.getOrderId().equals(orderId),
+                              "pickup of " + orderId + " returned " + action);
+                        operations.incrementAndGet();
+                    }
+                    String orderId = worker + "-" + i;
+                    storageManager.placeOrder(new Order(orderId, "Dish " + i, TEMPERATURES[random.nextInt(3)], 1.0,
+                                                        300), now);
+                    // A reused handle must not carry over the pickup of the order it was released by
+                    checkPickup(storageManager, orderId, -1);
+                    // Below a step, the placement's step number keeps every order's pickup distinct
+                    long pickupAt = now + STEP_MICROS * (2 + random.nextInt(8)) + (now / STEP_MICROS) % STEP_MICROS;
+                    pickups.put(orderId, pickupAt);
+                    storageManager.registerScheduledPickup(orderId, pickupAt);
+                    checkPickup(storageManager, orderId, pickupAt);
+                    placed.add(orderId);
+                    operations.addAndGet(2);
+                }
+            }, "worker-" + t));
+        }
+        threads.add(new Thread(() -> {
+            while (running.get() && failure.get() == null) {
+                storageManager.compact();
+                compactions.incrementAndGet();
+                Thread.yield();
+            }
+        }, "compactor"));
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler((failed, throwable) -> failure.compareAndSet(null, throwable));
+            thread.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Test failed", failure.get());
+        }
+
+        Set<String> stored = new HashSet<>();
+        for (StorageLocation location : storageManager.getAllOrders()) {
+            String orderId = location.getOrder().getId();
+            check(stored.add(orderId), "order " + orderId + " stored twice");
+            checkPickup(storageManager, orderId, pickups.get(orderId));
+        }
+        RetentionStats retained = storageManager.compact();
+        List<String> neverPlaced = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            neverPlaced.add("never-" + i);
+        }
+        storageManager.registerOrders(neverPlaced);
+        int registered = storageManager.compact().getRetainedOrderIds();
+        check(registered == retained.getRetainedOrderIds() + neverPlaced.size(),
+              registered + " order ids kept right after registering " + neverPlaced.size() + " to " + retained);
+        int released = storageManager.compact().getRetainedOrderIds();
+        check(released == retained.getRetainedOrderIds(), released + " order ids kept once the " +
+              neverPlaced.size() + " registered ones were idle, " + retained.getRetainedOrderIds() + " before");
+        System.out.println(String.format("  %,d operations, %,d compactions, %d orders in storage, %s",
+                                         operations.get(), compactions.get(), stored.size(), retained));
+        System.out.println("Test completed successfully!");
+    }
+
+    /**
+     * The order's pickup, looked up by its id, must be the one registered for it, or gone if compaction dropped it.
+     */
+    private static void checkPickup(StorageManager storageManager, String orderId, long registered) {
+        Long pickup = storageManager.getScheduledPickup(orderId);
+        check(pickup == null || pickup == registered,
+              "order " + orderId + " resolved to pickup " + pickup + ", registered " + registered);
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+}
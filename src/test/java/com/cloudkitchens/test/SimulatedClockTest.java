@@ -0,0 +1,132 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.service.ExecutionMode;
+import com.cloudkitchens.service.KitchenClock;
+import com.cloudkitchens.service.KitchenService;
+import com.cloudkitchens.service.SimulatedClock;
+import com.cloudkitchens.service.SystemClock;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simulated clock must make the same decisions as the system clock. The same seeded orders and pickup delays run
+ * through KitchenService once on a SimulatedClock and once on a SystemClock in real time, in each execution mode,
+ * and the ledgers, with timestamps taken relative to the start, must be identical. Pickups are kept at least a
+ * quarter of the order interval away from any placement, so wall-clock lateness cannot change which comes first.
+ * The simulated run must also come out the same when repeated.
+ *
+ * Usage: SimulatedClockTest [orders] [seed]
+ */
+public class SimulatedClockTest {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    private static final long RATE_MICROS = 20_000;
+    // Pickups come 15 to 45 order intervals after placement, so storage overflows onto the shelf
+    private static final int MIN_PICKUP_INTERVALS = 15;
+    private static final int PICKUP_INTERVALS = 30;
+    private static final long SIMULATED_START_MICROS = 1_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 3;
+
+        // Every placement and pickup is logged; the comparison below reports what matters
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Simulated clock test: " + count + " orders every " + RATE_MICROS / 1000 + "ms, seed " +
+                           seed);
+        Random random = new Random(seed);
+        List<Order> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(new Order("order-" + i, "Dish " + i, TEMPERATURES[random.nextInt(3)], 1.0,
+                                 1 + random.nextInt(30)));
+        }
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            List<String> simulated = run(new SimulatedClock(SIMULATED_START_MICROS), mode, orders, seed);
+            check(run(new SimulatedClock(SIMULATED_START_MICROS), mode, orders, seed).equals(simulated),
+                  "two simulated runs in " + mode + " mode differ");
+            List<String> real = run(new SystemClock(), mode, orders, seed);
+            for (int i = 0; i < Math.min(simulated.size(), real.size()); i++) {
+                check(simulated.get(i).equals(real.get(i)), "in " + mode + " mode, action " + i + " is " +
+                                                            simulated.get(i) + " simulated but " + real.get(i) +
+                                                            " in real time");
+            }
+            check(simulated.size() == real.size(), "in " + mode + " mode, " + simulated.size() +
+                                                   " actions simulated but " + real.size() + " in real time");
+            int pickups = 0;
+            for (String action : simulated) {
+                pickups += action.contains(" " + ActionType.PICKUP.getValue() + " ") ? 1 : 0;
+            }
+            System.out.println("  " + mode + ": " + simulated.size() + " identical actions, " + pickups +
+                               " pickups of " + count + " orders");
+        }
+        System.out.println("Test completed successfully!");
+    }
+
+    /**
+     * Place every order on schedule, schedule its pickup and wait for all pickups.
+     *
+     * @return the ledger, one action per line with its time since the first placement
+     */
+    private static List<String> run(KitchenClock clock, ExecutionMode mode, List<Order> orders, long seed)
+        throws Exception {
+        KitchenService kitchenService = new KitchenService(mode, clock, pickupDelays(seed));
+        List<CompletableFuture<Void>> pickups = new ArrayList<>();
+        long start = clock.nowMicros() + RATE_MICROS;
+        try {
+            for (int i = 0; i < orders.size(); i++) {
+                long placedAt = start + i * RATE_MICROS;
+                clock.sleepUntil(placedAt);
+                kitchenService.placeOrderAsync(orders.get(i), placedAt).get();
+                pickups.add(kitchenService.schedulePickup(orders.get(i).getId(), placedAt,
+                                                          MIN_PICKUP_INTERVALS * RATE_MICROS,
+                                                          (MIN_PICKUP_INTERVALS + PICKUP_INTERVALS) * RATE_MICROS));
+            }
+            if (clock instanceof SimulatedClock) {
+                ((SimulatedClock) clock).runUntilIdle();
+            }
+            CompletableFuture.allOf(pickups.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+            List<String> ledger = new ArrayList<>();
+            for (Action action : kitchenService.getActionLedger()) {
+                ledger.add((action.getTimestampMicros() - start) + " " + action.getOrderId() + " " +
+                           action.getActionType().getValue() + " " + action.getTarget().getValue());
+            }
+            return ledger;
+        } finally {
+            kitchenService.shutdown();
+        }
+    }
+
+    /**
+     * Pickup delays that put each pickup between a quarter and three quarters of the way through an order interval.
+     */
+    private static Random pickupDelays(long seed) {
+        return new Random(seed) {
+            @Override
+            public double nextDouble() {
+                double intervals = super.nextDouble() * PICKUP_INTERVALS;
+                double whole = Math.floor(intervals);
+                return (whole + 0.25 + (intervals - whole) / 2) / PICKUP_INTERVALS;
+            }
+        };
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.StorageLocation;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.CheckpointStats;
+import com.cloudkitchens.storage.RecoveredStorage;
+import com.cloudkitchens.storage.RetentionStats;
+import com.cloudkitchens.storage.StorageManager;
+import com.cloudkitchens.storage.WriteAheadLog;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Round trips through StorageManager checkpoints. A kitchen with a write-ahead log and a short retention period,
+ * compacted as it goes, is checkpointed and abandoned, then recovered from the checkpoint and the log. The recovered
+ * manager must hold the same orders in the same places, with the same pickups, retained history and next free
+ * slots, as a kitchen that never stopped; its ledger must be the actions returned before it stopped, and it must go
+ * on to return the same actions, so it breaks discard ties the same way. That must hold whether the checkpoint was the last thing written or more
+ * records followed it, and, by replaying the whole log, when the checkpoint is damaged or was written for another log.
+ *
+ * Usage: StorageCheckpointTest [orders] [seed]
+ */
+public class StorageCheckpointTest {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    private static final long START_MICROS = 1_000_000_000L;
+    private static final long RATE_MICROS = 50_000;
+    private static final long MIN_PICKUP_MICROS = 400_000;
+    private static final long MAX_PICKUP_MICROS = 1_200_000;
+    private static final long RETENTION_MICROS = 2_000_000;
+    private static final int COMPACTION_INTERVAL = 25;
+
+    private enum Damage { NONE, CORRUPT, FOREIGN }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_500;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 11;
+
+        // Damaged checkpoints are reported with a warning; the checks below report what matters
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Storage checkpoint test: " + count + " orders, seed " + seed);
+        int stopAt = count * 2 / 3;
+        Kitchen reference = new Kitchen(new StorageManager(RETENTION_MICROS), count, seed);
+        reference.run(0, stopAt);
+        String stopped = describe(reference.storageManager, reference.now(stopAt));
+        List<String> stoppedActions = toStrings(reference.returned);
+        reference.run(stopAt, count);
+
+        Path directory = Files.createTempDirectory("storage-checkpoint");
+        try {
+            // Checkpointed just before stopping, then earlier with records after it, then damaged
+            check(run(directory, count, seed, stopAt, new int[] {stopAt}, Damage.NONE, stopped, stoppedActions,
+                      reference.actions).getRecords() == 0, "records replayed after a checkpoint taken last");
+            check(run(directory, count, seed, stopAt, new int[] {stopAt / 3, stopAt / 2}, Damage.NONE, stopped,
+                      stoppedActions, reference.actions).getRecords() > 0, "no records replayed after a checkpoint");
+            for (Damage damage : new Damage[] {Damage.CORRUPT, Damage.FOREIGN}) {
+                check(run(directory, count, seed, stopAt, new int[] {stopAt / 2}, damage, stopped, stoppedActions,
+                          reference.actions).getCheckpointWalBytes() == 0, damage + " checkpoint was loaded");
+            }
+            System.out.println("Test completed successfully!");
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Run the orders before the stop with checkpoints before the given ones, damage the last checkpoint, recover and
+     * run the rest, checking the recovered state against the reference kitchen's.
+     */
+    private static RecoveredStorage run(Path directory, int count, long seed, int stopAt, int[] checkpointsAt,
+                                        Damage damage, String stopped, List<String> stoppedActions,
+                                        List<String> allActions) throws IOException {
+        Path walFile = directory.resolve("storage.wal");
+        Path checkpointFile = directory.resolve("storage.checkpoint");
+        Files.deleteIfExists(walFile);
+        Files.deleteIfExists(checkpointFile);
+        Kitchen kitchen = new Kitchen(new StorageManager(RETENTION_MICROS, null, WriteAheadLog.create(walFile, true)),
+                                      count, seed);
+        int from = 0;
+        for (int checkpointAt : checkpointsAt) {
+            kitchen.run(from, checkpointAt);
+            CheckpointStats stats = kitchen.storageManager.checkpoint(checkpointFile, kitchen.returned);
+            check(!Files.exists(directory.resolve("storage.checkpoint.tmp")), "temporary checkpoint left behind");
+            check(stats.getLedgerActions() == kitchen.returned.size(), "checkpoint holds " +
+                  stats.getLedgerActions() + " of " + kitchen.returned.size() + " actions");
+            from = checkpointAt;
+        }
+        kitchen.run(from, stopAt);
+        // Abandon the manager without closing its log; commit waits put every returned action on disk
+        if (damage == Damage.CORRUPT) {
+            try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE)) {
+                ByteBuffer middle = ByteBuffer.allocate(1);
+                long position = channel.size() / 2;
+                channel.read(middle, position);
+                middle.put(0, (byte) ~middle.get(0));
+                middle.rewind();
+                channel.write(middle, position);
+            }
+        } else if (damage == Damage.FOREIGN) {
+            Path otherWal = directory.resolve("other.wal");
+            Path otherCheckpoint = directory.resolve("other.checkpoint");
+            StorageManager other = new StorageManager(RETENTION_MICROS, null, WriteAheadLog.create(otherWal, true));
+            List<Action> otherLedger = new ArrayList<>();
+            otherLedger.add(other.placeOrder(new Order("other", "Other", Temperature.HOT, 1.0, 60), START_MICROS));
+            other.checkpoint(otherCheckpoint, otherLedger);
+            other.close();
+            Files.copy(otherCheckpoint, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        RecoveredStorage recovered = StorageManager.recover(walFile, checkpointFile, RETENTION_MICROS, null, true);
+        String label = checkpointsAt.length + " checkpoint(s)" + (damage != Damage.NONE ? ", " + damage : "");
+        check(toStrings(recovered.getActions()).equals(stoppedActions), label + ": recovered ledger of " +
+              recovered.getActions().size() + " actions differs from the " + stoppedActions.size() + " returned");
+        Kitchen resumed = new Kitchen(recovered.getStorageManager(), count, seed);
+        resumed.actions.addAll(kitchen.actions);
+        resumed.due.addAll(kitchen.due);
+        String state = describe(resumed.storageManager, resumed.now(stopAt));
+        check(state.equals(stopped), label + ": recovered\n" + state + "\nbut the kitchen held\n" + stopped);
+        System.out.println("  " + label + ": " + recovered);
+        resumed.run(stopAt, count);
+        check(resumed.actions.equals(allActions), label + ": recovered kitchen returned other actions");
+        resumed.storageManager.close();
+        return recovered;
+    }
+
+    /**
+     * Everything a caller can see of the manager's state, after compacting history older than the retention period.
+     * Orders are listed by id, since getAllOrders does not keep them in storage order.
+     */
+    private static String describe(StorageManager storageManager, long nowMicros) {
+        List<StorageLocation> stored = new ArrayList<>(storageManager.getAllOrders());
+        stored.sort(Comparator.comparing(location -> location.getOrder().getId()));
+        StringBuilder state = new StringBuilder();
+        for (StorageLocation location : stored) {
+            state.append(location.getOrder().getId()).append(' ').append(location.getStorageType()).append('@')
+                .append(location.getPlacedAtMicros()).append(" pickup ")
+                .append(storageManager.getScheduledPickup(location.getOrder().getId())).append('\n');
+        }
+        RetentionStats retained = storageManager.compact();
+        state.append("retained ").append(retained.getRetainedPlacements()).append(' ')
+            .append(retained.getRetainedScheduledPickups()).append(' ').append(retained.getRetainedTimelineEvents())
+            .append(" through ").append(retained.getCompactedThroughMicros()).append('\n');
+        for (StorageType storageType : StorageType.values()) {
+            state.append(storageType).append(" free at ").append(storageManager.findNextFreeSlot(storageType, nowMicros))
+                .append('\n');
+        }
+        return state.toString();
+    }
+
+    private static List<String> toStrings(List<Action> actions) {
+        List<String> strings = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            strings.add(action.toString());
+        }
+        return strings;
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+
+    /**
+     * Seeded orders, placed one per interval and each picked up when due, with compaction every few orders.
+     */
+    private static final class Kitchen {
+        final StorageManager storageManager;
+        final List<Order> orders = new ArrayList<>();
+        final long[] pickups;
+        final PriorityQueue<Integer> due;
+        final List<Action> returned = new ArrayList<>();
+        final List<String> actions = new ArrayList<>();
+
+        Kitchen(StorageManager storageManager, int count, long seed) {
+            this.storageManager = storageManager;
+            this.pickups = new long[count];
+            this.due = new PriorityQueue<>((a, b) -> Long.compare(pickups[a], pickups[b]));
+            Random random = new Random(seed);
+            for (int i = 0; i < count; i++) {
+                orders.add(new Order("order-" + i, "Dish " + i, TEMPERATURES[random.nextInt(3)], 1.0,
+                                     5 + random.nextInt(30)));
+                pickups[i] = now(i) + MIN_PICKUP_MICROS
+                    + (long) (random.nextDouble() * (MAX_PICKUP_MICROS - MIN_PICKUP_MICROS));
+            }
+        }
+
+        long now(int i) {
+            return START_MICROS + i * RATE_MICROS;
+        }
+
+        /**
+         * Place the orders from one index up to another, picking up every order due before each placement.
+         */
+        void run(int from, int to) {
+            for (int i = from; i < to; i++) {
+                while (!due.isEmpty() && pickups[due.peek()] <= now(i)) {
+                    int order = due.poll();
+                    record(storageManager.pickupOrder(orders.get(order).getId(), pickups[order]));
+                }
+                record(storageManager.placeOrder(orders.get(i), now(i)));
+                storageManager.registerScheduledPickup(orders.get(i).getId(), pickups[i]);
+                due.add(i);
+                if (i % COMPACTION_INTERVAL == 0) {
+                    storageManager.compact();
+                }
+            }
+            if (to == orders.size()) {
+                while (!due.isEmpty()) {
+                    int order = due.poll();
+                    record(storageManager.pickupOrder(orders.get(order).getId(), pickups[order]));
+                }
+            }
+        }
+
+        private void record(Action action) {
+            if (action != null) {
+                returned.add(action);
+            }
+            actions.add(String.valueOf(action));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.*;
+import com.cloudkitchens.storage.StorageManager;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contention benchmark for StorageManager: concurrent placer and picker threads working on
+ * hot and cold orders, reporting combined operations per second. Placers block once a fixed number
+ * of orders await pickup, so storage stays at a steady size.
+ *
+ * Usage: StorageContentionBenchmark [placers] [pickers] [seconds]
+ */
+public class StorageContentionBenchmark {
+    private static final int MAX_IN_FLIGHT = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        int placers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int pickers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        // Logging would dominate the measurement
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Storage contention benchmark: " + placers + " placers, " + pickers + " pickers, " + seconds + "s");
+        for (int round = 1; round <= 3; round++) {
+            long opsPerSecond = runRound(placers, pickers, seconds);
+            System.out.println("  round " + round + ": " + opsPerSecond + " ops/s");
+        }
+    }
+
+    private static long runRound(int placers, int pickers, int seconds) throws InterruptedException {
+        StorageManager storageManager = new StorageManager();
+        AtomicLong clock = new AtomicLong(1_000_000);
+        AtomicLong operations = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        BlockingQueue<long[]> placed = new ArrayBlockingQueue<>(MAX_IN_FLIGHT);
+        CountDownLatch done = new CountDownLatch(placers + pickers);
+
+        for (int p = 0; p < placers; p++) {
+            final int placerId = p;
+            new Thread(() -> {
+                Temperature temperature = placerId % 2 == 0 ? Temperature.HOT : Temperature.COLD;
+                long sequence = 0;
+                long count = 0;
+                while (running.get()) {
+                    long timestamp = clock.addAndGet(1_000);
+                    String orderId = placerId + "-" + sequence;
+                    Order order = new Order(orderId, "bench", temperature, 1.0, 300);
+                    storageManager.placeOrder(order, timestamp);
+                    // Picked up right away, so every placement finds room in ideal storage
+                    storageManager.registerScheduledPickup(orderId, timestamp + 1);
+                    try {
+                        long[] entry = new long[] {placerId, sequence, timestamp + 1};
+                        while (!placed.offer(entry, 10, TimeUnit.MILLISECONDS)) {
+                            if (!running.get()) {
+                                break;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    sequence++;
+                    count++;
+                }
+                operations.addAndGet(count);
+                done.countDown();
+            }, "placer-" + p).start();
+        }
+        for (int p = 0; p < pickers; p++) {
+            new Thread(() -> {
+                long count = 0;
+                while (running.get()) {
+                    long[] entry;
+                    try {
+                        entry = placed.poll(10, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    if (entry == null) {
+                        continue;
+                    }
+                    storageManager.pickupOrder(entry[0] + "-" + entry[1], entry[2]);
+                    count++;
+                }
+                operations.addAndGet(count);
+                done.countDown();
+            }, "picker-" + p).start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        done.await();
+        return operations.get() / seconds;
+    }
+}
@@ -0,0 +1,234 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.api.ChallengeApiClient;
+import com.cloudkitchens.api.dto.ChallengeAction;
+import com.cloudkitchens.api.dto.ChallengeOptions;
+import com.cloudkitchens.api.dto.ChallengeRequest;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.ActionType;
+import com.cloudkitchens.model.StorageType;
+import com.cloudkitchens.service.ActionLedger;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Submit latency, bytes sent and heap cost of ChallengeApiClient.submitSolution against a local HTTP server,
+ * compared with the previous implementation that built a DTO list and a String before sending.
+ * The server parses every body, so latency includes a full read on the other end.
+ *
+ * Usage: SubmitSolutionBenchmark [actions] [rounds]
+ */
+public class SubmitSolutionBenchmark {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final AtomicLong bytesReceived = new AtomicLong();
+    private static final AtomicLong actionsReceived = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/solve", SubmitSolutionBenchmark::handleSolve);
+        server.start();
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        List<Action> actions = buildLedger(count);
+        ChallengeApiClient plain = new ChallengeApiClient("bench", baseUrl, false);
+        ChallengeApiClient gzip = new ChallengeApiClient("bench", baseUrl, true);
+
+        System.out.println("Submit benchmark: " + count + " actions, " + rounds + " rounds");
+        try (CloseableHttpClient legacyClient = HttpClients.createDefault()) {
+            for (int pass = 1; pass <= 2; pass++) {
+                // First pass warms up the JIT
+                boolean report = pass == 2;
+                run(report, "legacy DTO list + String", rounds, count,
+                    () -> legacySubmit(legacyClient, baseUrl, actions));
+                run(report, "streaming", rounds, count, () -> plain.submitSolution("t", actions, 1, 2, 3));
+                run(report, "streaming + gzip", rounds, count, () -> gzip.submitSolution("t", actions, 1, 2, 3));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private interface Submission {
+        void run() throws IOException;
+    }
+
+    private static void run(boolean report, String name, int rounds, int count, Submission submission) throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] millis = new long[rounds];
+        long peakHeap = 0;
+        long allocated = 0;
+        for (int r = 0; r < rounds; r++) {
+            System.gc();
+            long baseline = memory.getHeapMemoryUsage().getUsed();
+            HeapSampler sampler = new HeapSampler(memory);
+            sampler.start();
+            bytesReceived.set(0);
+            actionsReceived.set(0);
+
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            submission.run();
+            millis[r] = (System.nanoTime() - start) / 1_000_000;
+            allocated = allocatedBytes() - allocatedBefore;
+
+            sampler.finish();
+            peakHeap = Math.max(peakHeap, sampler.peak - baseline);
+            if (actionsReceived.get() != count) {
+                throw new IllegalStateException(name + ": server parsed " + actionsReceived.get() + " actions");
+            }
+        }
+        if (report) {
+            Arrays.sort(millis);
+            System.out.println(String.format("  %-26s median %5d ms  sent %6.1f MB  allocated %6.1f MB  peak heap +%6.1f MB",
+                                             name, millis[rounds / 2], bytesReceived.get() / 1e6, allocated / 1e6,
+                                             peakHeap / 1e6));
+        }
+    }
+
+    /**
+     * ChallengeApiClient.submitSolution as it was before the body was streamed.
+     */
+    private static void legacySubmit(CloseableHttpClient client, String baseUrl, List<Action> actions) throws IOException {
+        List<ChallengeAction> challengeActions = new ArrayList<>();
+        for (Action action : actions) {
+            challengeActions.add(new ChallengeAction(action.getTimestampMicros(), action.getOrderId(),
+                                                     action.getActionType().getValue(), action.getTarget().getValue()));
+        }
+        ChallengeRequest request = new ChallengeRequest(new ChallengeOptions(1, 2, 3), challengeActions);
+        String requestBody = new ObjectMapper().writeValueAsString(request);
+
+        HttpPost httpRequest = new HttpPost(baseUrl + "/solve?auth=bench");
+        httpRequest.setHeader("Content-Type", "application/json");
+        httpRequest.setHeader("x-test-id", "t");
+        httpRequest.setEntity(new StringEntity(requestBody, "UTF-8"));
+        try (CloseableHttpResponse response = client.execute(httpRequest)) {
+            EntityUtils.toString(response.getEntity());
+        }
+    }
+
+    private static void handleSolve(HttpExchange exchange) throws IOException {
+        InputStream body = new CountingInputStream(exchange.getRequestBody());
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        long parsed = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && "action".equals(parser.getCurrentName())) {
+                    parsed++;
+                }
+            }
+        }
+        actionsReceived.set(parsed);
+        byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static List<Action> buildLedger(int count) {
+        Random random = new Random(42);
+        ActionLedger ledger = new ActionLedger();
+        ActionType[] types = ActionType.values();
+        StorageType[] targets = StorageType.values();
+        for (int i = 0; i < count; i++) {
+            ledger.record(new Action(1_700_000_000_000_000L + i * 1_000L, Long.toHexString(random.nextLong()).substring(0, 8),
+                                     types[random.nextInt(types.length)], targets[random.nextInt(targets.length)]));
+        }
+        return ledger.snapshot();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Polls heap usage every millisecond; the peak includes garbage not yet collected.
+     */
+    private static class HeapSampler extends Thread {
+        private final MemoryMXBean memory;
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler(MemoryMXBean memory) {
+            this.memory = memory;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void finish() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesReceived.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                bytesReceived.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
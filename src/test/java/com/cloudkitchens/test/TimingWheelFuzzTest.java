@@ -0,0 +1,139 @@
+package com.cloudkitchens.test;
+
+import com.cloudkitchens.service.TimingWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Randomized check of TimingWheel on a clock the test moves by hand: timers due in the past, within each level of
+ * the wheel and beyond its span, some cancelled, and more scheduled as the clock jumps forward in random steps.
+ * After every step, once the ticker has caught up, no timer may have fired before its deadline, fired twice or
+ * fired after being cancelled, and every timer due a tick or more ago must have fired.
+ *
+ * Usage: TimingWheelFuzzTest [rounds] [timers per round] [seed]
+ */
+public class TimingWheelFuzzTest {
+    private static final long TICK_MICROS = 1_000;
+    // From within the first level to beyond the wheel's span of 64^4 ticks
+    private static final long[] SPANS_MICROS = {50_000, 5_000_000, 300_000_000, 20_000_000_000L, 400_000_000_000L};
+    private static final long CATCH_UP_TIMEOUT_NANOS = 5_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 3_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+        System.out.println("Timing wheel fuzz test: " + rounds + " rounds of " + count + " timers, seed " + seed);
+        Random random = new Random(seed);
+        for (int round = 0; round < rounds; round++) {
+            AtomicLong now = new AtomicLong(random.nextInt(1_000_000) * TICK_MICROS + random.nextInt(1_000));
+            TimingWheel wheel = new TimingWheel("fuzz-wheel", TICK_MICROS, now::get, Runnable::run);
+            try {
+                List<Probe> probes = new ArrayList<>();
+                long start = now.get();
+                for (int i = 0; i < count; i++) {
+                    probes.add(schedule(wheel, now, start, random));
+                }
+                for (int i = 0; i < count; i += 7) {
+                    probes.get(i).cancel();
+                }
+                long end = start + SPANS_MICROS[SPANS_MICROS.length - 1];
+                int steps = 0;
+                while (now.get() < end) {
+                    now.addAndGet((long) Math.pow(10, 3 + random.nextInt(8)) + random.nextInt(1_000));
+                    awaitDue(probes, now.get());
+                    for (Probe probe : probes) {
+                        probe.verify(now.get());
+                    }
+                    // Timers filed relative to wherever the wheel has got to
+                    for (int i = 0; i < 20; i++) {
+                        Probe probe = schedule(wheel, now, now.get(), random);
+                        if (random.nextInt(5) == 0) {
+                            probe.cancel();
+                        }
+                        probes.add(probe);
+                    }
+                    steps++;
+                }
+                now.addAndGet(SPANS_MICROS[SPANS_MICROS.length - 1]);
+                awaitDue(probes, now.get());
+                for (Probe probe : probes) {
+                    probe.verify(now.get());
+                    check(probe.cancelled || probe.fires.get() == 1, "timer due at " + probe.deadlineMicros +
+                                                                     " never fired");
+                }
+                check(wheel.getPendingCount() == 0, wheel.getPendingCount() + " timers still pending");
+                System.out.println("  round " + round + ": " + probes.size() + " timers, " + steps + " steps, " +
+                                   wheel.getStats());
+            } finally {
+                wheel.stop();
+            }
+        }
+        System.out.println("Test completed successfully!");
+    }
+
+    private static Probe schedule(TimingWheel wheel, AtomicLong now, long from, Random random) {
+        long span = SPANS_MICROS[random.nextInt(SPANS_MICROS.length)];
+        Probe probe = new Probe(from - 10_000 + (long) (random.nextDouble() * span), now);
+        probe.timeout = wheel.schedule(probe.deadlineMicros, probe);
+        return probe;
+    }
+
+    /**
+     * Wait for the ticker to fire every timer due a tick or more before the given time.
+     */
+    private static void awaitDue(List<Probe> probes, long nowMicros) throws InterruptedException {
+        long deadline = System.nanoTime() + CATCH_UP_TIMEOUT_NANOS;
+        for (Probe probe : probes) {
+            while (probe.isMissed(nowMicros) && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+
+    private static final class Probe implements Runnable {
+        final long deadlineMicros;
+        final AtomicLong clock;
+        final AtomicInteger fires = new AtomicInteger();
+        volatile long firedAtMicros;
+        boolean cancelled;
+        TimingWheel.Timeout timeout;
+
+        Probe(long deadlineMicros, AtomicLong clock) {
+            this.deadlineMicros = deadlineMicros;
+            this.clock = clock;
+        }
+
+        @Override
+        public void run() {
+            firedAtMicros = clock.get();
+            fires.incrementAndGet();
+        }
+
+        void cancel() {
+            cancelled = timeout.cancel();
+        }
+
+        boolean isMissed(long nowMicros) {
+            return !cancelled && deadlineMicros <= nowMicros - TICK_MICROS && fires.get() == 0;
+        }
+
+        void verify(long nowMicros) {
+            check(fires.get() <= 1, "timer due at " + deadlineMicros + " fired " + fires.get() + " times");
+            check(!cancelled || fires.get() == 0, "cancelled timer due at " + deadlineMicros + " fired");
+            check(fires.get() == 0 || firedAtMicros >= deadlineMicros,
+                  "timer due at " + deadlineMicros + " fired early, at " + firedAtMicros);
+            check(!isMissed(nowMicros), "timer due at " + deadlineMicros + " not fired at " + nowMicros);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.RecoveredStorage;
+import com.cloudkitchens.storage.StorageManager;
+import com.cloudkitchens.storage.WriteAheadLog;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of the StorageManager write-ahead log: operations per second without a log, with a log whose commits do not
+ * wait, and with commit waits (group commit), by thread count; then the time to recover storage from the logs.
+ * Each thread repeatedly places an order, schedules its pickup and picks it up: three logged operations.
+ *
+ * Usage: WriteAheadLogBenchmark [seconds per run] [max threads]
+ */
+public class WriteAheadLogBenchmark {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        // Logging would dominate the measurement
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Write-ahead log benchmark: " + seconds + "s per run, " +
+                           Runtime.getRuntime().availableProcessors() + " cores");
+        Path file = Files.createTempFile("storage", ".wal");
+        try {
+            // Warm up the JIT
+            run(null, 1, 1);
+            for (int threads = 1; threads <= maxThreads; threads *= 4) {
+                double plain = run(null, threads, seconds);
+                print("no log", threads, plain, plain, null);
+
+                WriteAheadLog wal = WriteAheadLog.create(file, false);
+                double async = run(wal, threads, seconds);
+                print("log, no commit wait", threads, async, plain, wal);
+                recover(file);
+
+                wal = WriteAheadLog.create(file, true);
+                double sync = run(wal, threads, seconds);
+                print("log, commit wait", threads, sync, plain, wal);
+                recover(file);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * @return logged operations per second
+     */
+    private static double run(WriteAheadLog wal, int threads, int seconds) throws InterruptedException, IOException {
+        StorageManager storageManager = new StorageManager(StorageManager.DEFAULT_RETENTION_MICROS, null, wal);
+        AtomicLong clock = new AtomicLong(1_000_000);
+        AtomicLong cycles = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int workerId = t;
+            Thread worker = new Thread(() -> {
+                long count = 0;
+                while (running.get()) {
+                    long timestamp = clock.addAndGet(1_000);
+                    String orderId = workerId + "-" + count;
+                    Order order = new Order(orderId, "bench", TEMPERATURES[(int) (count % 3)], 1.0, 300);
+                    storageManager.placeOrder(order, timestamp);
+                    storageManager.registerScheduledPickup(orderId, timestamp + 1);
+                    storageManager.pickupOrder(orderId, timestamp + 1);
+                    count++;
+                }
+                cycles.addAndGet(count);
+            }, "worker-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - start;
+        storageManager.close();
+        return cycles.get() * 3 / (nanos / 1e9);
+    }
+
+    private static void print(String name, int threads, double opsPerSecond, double plainOpsPerSecond,
+                              WriteAheadLog wal) {
+        String line = String.format("  %-20s %2d threads %,10.0f ops/s", name, threads, opsPerSecond);
+        if (wal != null) {
+            line += String.format("  %+6.2f us/op, %,.1f records per sync, %d B/record",
+                                  (1e6 / opsPerSecond - 1e6 / plainOpsPerSecond),
+                                  (double) wal.getRecords() / Math.max(1, wal.getSyncs()),
+                                  wal.getBytes() / Math.max(1, wal.getRecords()));
+        }
+        System.out.println(line);
+    }
+
+    private static void recover(Path file) throws IOException {
+        RecoveredStorage recovered = StorageManager.recover(file, StorageManager.DEFAULT_RETENTION_MICROS, null, false);
+        recovered.getStorageManager().close();
+        System.out.println(String.format("    recovery: %,d records, %,d actions in %.0f ms (%,.0f records/s)",
+                                         recovered.getRecords(), recovered.getActions().size(),
+                                         recovered.getRecoveryNanos() / 1e6,
+                                         recovered.getRecords() / (recovered.getRecoveryNanos() / 1e9)));
+    }
+}
@@ -0,0 +1,146 @@
+package com.cloudkitchens.test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import com.cloudkitchens.model.Action;
+import com.cloudkitchens.model.Order;
+import com.cloudkitchens.model.Temperature;
+import com.cloudkitchens.storage.RecoveredStorage;
+import com.cloudkitchens.storage.StorageManager;
+import com.cloudkitchens.storage.WriteAheadLog;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Crash recovery from the write-ahead log: a run is abandoned partway without closing its log, a torn record is
+ * left at the end of the log, and storage is recovered from it, with and without a checkpoint taken earlier. The
+ * recovered ledger must hold exactly the actions the crashed manager returned, the torn bytes must be cut off, and
+ * the recovered manager must carry on to return the same actions as a run that never crashed.
+ *
+ * Usage: WriteAheadLogRecoveryTest [orders] [seed]
+ */
+public class WriteAheadLogRecoveryTest {
+    private static final Temperature[] TEMPERATURES = {Temperature.HOT, Temperature.COLD, Temperature.ROOM};
+    private static final byte[] TORN_RECORD = {1, 2, 3, 4, 5};
+    private static final long START_MICROS = 1_000_000_000L;
+    private static final long RATE_MICROS = 50_000;
+    private static final long MIN_PICKUP_MICROS = 500_000;
+    private static final long MAX_PICKUP_MICROS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 7;
+
+        // Recovery logs a warning for the torn record; the checks below report what matters
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        for (ch.qos.logback.classic.Logger logger : loggerContext.getLoggerList()) {
+            logger.setLevel(Level.OFF);
+        }
+
+        System.out.println("Write-ahead log recovery test: " + count + " orders, seed " + seed);
+        Path directory = Files.createTempDirectory("wal-recovery");
+        try {
+            List<String> expected = run(directory, count, seed, -1, false);
+            for (int crashAt : new int[] {1, count / 3, count - 1}) {
+                for (boolean checkpoint : new boolean[] {false, true}) {
+                    List<String> actions = run(directory, count, seed, crashAt, checkpoint);
+                    check(actions.equals(expected), "run crashed at order " + crashAt +
+                                                    " returned other actions than one that did not crash");
+                }
+            }
+            System.out.println("Test completed successfully!");
+        } finally {
+            for (Path file : new Path[] {directory.resolve("storage.wal"), directory.resolve("storage.checkpoint")}) {
+                Files.deleteIfExists(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Place every order and pick each up when due, crashing and recovering before placing the given one.
+     *
+     * @param crashAt index of the order before which to crash, or -1 for none
+     * @param checkpoint whether to checkpoint halfway to the crash
+     * @return every action returned, in order
+     */
+    private static List<String> run(Path directory, int count, long seed, int crashAt, boolean checkpoint)
+        throws IOException {
+        Path walFile = directory.resolve("storage.wal");
+        Path checkpointFile = directory.resolve("storage.checkpoint");
+        Files.deleteIfExists(walFile);
+        Files.deleteIfExists(checkpointFile);
+        Random random = new Random(seed);
+        StorageManager storageManager = new StorageManager(StorageManager.DEFAULT_RETENTION_MICROS, null,
+                                                           WriteAheadLog.create(walFile, true));
+        PriorityQueue<long[]> due = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        List<Action> returned = new ArrayList<>();
+        List<String> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (checkpoint && i == crashAt / 2) {
+                storageManager.checkpoint(checkpointFile, new ArrayList<>(returned));
+            }
+            if (i == crashAt) {
+                // Abandon the manager without closing its log; commit waits put every returned action on disk
+                Files.write(walFile, TORN_RECORD, StandardOpenOption.APPEND);
+                RecoveredStorage recovered = StorageManager.recover(walFile, checkpoint ? checkpointFile : null,
+                                                                    StorageManager.DEFAULT_RETENTION_MICROS, null,
+                                                                    true);
+                check(recovered.getDroppedBytes() == TORN_RECORD.length,
+                      "recovery cut off " + recovered.getDroppedBytes() + " bytes, not the torn record");
+                check(toStrings(recovered.getActions()).equals(toStrings(returned)),
+                      "recovered ledger of " + recovered.getActions().size() + " actions differs from the " +
+                      returned.size() + " returned before the crash at order " + i);
+                System.out.println("  crash at order " + i + (checkpoint ? " with checkpoint: " : ": ") + recovered);
+                storageManager = recovered.getStorageManager();
+            }
+            long now = START_MICROS + i * RATE_MICROS;
+            while (!due.isEmpty() && due.peek()[0] <= now) {
+                long[] pickup = due.poll();
+                record(storageManager.pickupOrder("order-" + pickup[1], pickup[0]), returned, actions);
+            }
+            Order order = new Order("order-" + i, "Dish " + i, TEMPERATURES[random.nextInt(3)], 1.0,
+                                    5 + random.nextInt(30));
+            record(storageManager.placeOrder(order, now), returned, actions);
+            long pickupAt = now + MIN_PICKUP_MICROS
+                + (long) (random.nextDouble() * (MAX_PICKUP_MICROS - MIN_PICKUP_MICROS));
+            storageManager.registerScheduledPickup(order.getId(), pickupAt);
+            due.add(new long[] {pickupAt, i});
+        }
+        while (!due.isEmpty()) {
+            long[] pickup = due.poll();
+            record(storageManager.pickupOrder("order-" + pickup[1], pickup[0]), returned, actions);
+        }
+        storageManager.close();
+        return actions;
+    }
+
+    private static void record(Action action, List<Action> returned, List<String> actions) {
+        if (action != null) {
+            returned.add(action);
+        }
+        actions.add(String.valueOf(action));
+    }
+
+    private static List<String> toStrings(List<Action> actions) {
+        List<String> strings = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            strings.add(action.toString());
+        }
+        return strings;
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) {
+            throw new IllegalStateException("Test failed: " + failure);
+        }
+    }
+}